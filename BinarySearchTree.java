@@ -1,4 +1,16 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.ToLongFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Binary Search Tree Class The head class for a binary search tree implementation.
@@ -6,18 +18,103 @@ import java.util.ArrayList;
  * @author Serena Jiao yj5qe
  * @param <Comparable> Type of data to store in the binary tree
  */
-public class BinarySearchTree<T extends Comparable<T>> {
+public class BinarySearchTree<T extends Comparable<T>> implements Iterable<T> {
+
+    /**
+     * How the tree keeps its shape as elements are inserted and deleted
+     */
+    public enum Balancing {
+        /**
+         * Plain binary search tree: elements go wherever insertion order puts them, so sorted input makes a linked list
+         */
+        NONE,
+        /**
+         * AVL tree: the two subtrees of every node differ in height by at most one, so the height stays O(log n)
+         */
+        AVL,
+        /**
+         * Splay tree: find, insert and delete move the element they reach to the root, so elements that are used often
+         * stay near the top. Any single operation can be slow, but a sequence of m of them takes O(m log n), and one that
+         * keeps using a few elements is much faster than that. A find changes the shape of the tree.
+         */
+        SPLAY
+    }
+
+    /**
+     * First four bytes of every encoded tree (see encode), "BSTE"
+     */
+    static final int ENCODING = 0x45545342;
+
+    /**
+     * Bytes before the shape bits of an encoded tree
+     */
+    static final int ENCODING_HEADER = 16;
+
+    /**
+     * The element hasher of trees that are not given one, see TreeNode.elementHash
+     */
+    static final ToLongFunction<Object> CONTENT_HASH = TreeNode::elementHash;
+
+    /**
+     * Number of nodes one step of the lazy deletion sweep looks at
+     */
+    static final int SWEEP_STEP = 32;
 
     /**
      * A reference pointer to the root of the tree
      */
     private TreeNode<T> root;
 
+    /**
+     * The balancing mode chosen at construction
+     */
+    private final Balancing balancing;
+
+    /**
+     * Scratch buffer holding the path from the root during insert and delete, reused from one call to the next
+     */
+    private TreeNode<T>[] path;
+
+    /**
+     * Number of nodes the last splay visited, for the metrics
+     */
+    private int splayed;
+
+    /**
+     * Operation metrics, or null while they are off
+     */
+    private TreeMetrics metrics;
+
+    /**
+     * Share of tombstones among all nodes above which a sweep starts unlinking them, or 0 while deletes are eager
+     */
+    private double tombstoneLimit;
+
+    /**
+     * Number of tombstones in the tree
+     */
+    private int tombstones;
+
+    /**
+     * Whether a sweep is under way
+     */
+    private boolean sweeping;
+
+    /**
+     * The element where the next step of the sweep starts, or null to start from the smallest
+     */
+    private T sweepFrom;
+
+    /**
+     * How rootHash, rangeHash and diff hash one element
+     */
+    private ToLongFunction<? super T> hasher = CONTENT_HASH;
+
     /**
      * Default constructor Creates a binary tree object with null root note (empty tree)
      */
     public BinarySearchTree() {
-        this(null);
+        this((TreeNode<T>) null);
     }
 
     /**
@@ -26,7 +123,139 @@ public class BinarySearchTree<T extends Comparable<T>> {
      * @param newRoot The root of the tree
      */
     public BinarySearchTree(TreeNode<T> newRoot) {
+        this(newRoot, Balancing.NONE);
+    }
+
+    /**
+     * Constructor Creates an empty binary tree object that keeps its shape with the given balancing mode
+     * 
+     * @param balancing How the tree should rebalance itself on insert and delete
+     */
+    public BinarySearchTree(Balancing balancing) {
+        this(null, balancing);
+    }
+
+    /**
+     * Constructor Creates a binary tree object with the given node as root and balancing mode. A balanced tree trusts
+     * that the given root already satisfies its balance condition.
+     * 
+     * @param newRoot   The root of the tree
+     * @param balancing How the tree should rebalance itself on insert and delete
+     */
+    public BinarySearchTree(TreeNode<T> newRoot, Balancing balancing) {
         this.root = newRoot;
+        this.balancing = balancing;
+    }
+
+    /**
+     * Get the balancing mode of the tree
+     * 
+     * @return The balancing mode chosen at construction
+     */
+    public Balancing getBalancing() {
+        return balancing;
+    }
+
+    /**
+     * Sets how rootHash, rangeHash and diff hash one element. By default Strings, boxed numbers, Characters and Booleans
+     * are hashed by their contents, and other element types have no hash; hasher(codec) hashes any type a KeyCodec can
+     * write. Trees compared by hash must use hashers that agree.
+     * 
+     * @param hasher The element hasher, or null for the default
+     */
+    public void setHasher(ToLongFunction<? super T> hasher) {
+        this.hasher = hasher == null ? CONTENT_HASH : hasher;
+    }
+
+    /**
+     * An element hasher that hashes what the codec writes for an element with SipHash, under the default key
+     * 
+     * @param codec How to write an element
+     * @return The hasher
+     */
+    public static <T extends Comparable<T>> ToLongFunction<T> hasher(KeyCodec<T> codec) {
+        return hasher(codec, SipHash.KEY0, SipHash.KEY1);
+    }
+
+    /**
+     * An element hasher that hashes what the codec writes for an element with SipHash under the given 128-bit key, so
+     * that whoever does not know the key can't pick elements whose hashes collide
+     * 
+     * @param codec How to write an element
+     * @param key0  First half of the key
+     * @param key1  Second half of the key
+     * @return The hasher
+     */
+    public static <T extends Comparable<T>> ToLongFunction<T> hasher(KeyCodec<T> codec, long key0, long key1) {
+        int width = codec.width();
+        return val -> {
+            ByteBuffer buffer = ByteBuffer.allocate(width);
+            codec.encode(val, buffer, 0);
+            return SipHash.hash(key0, key1, buffer.array(), width);
+        };
+    }
+
+    /**
+     * Starts keeping metrics for find, insert and delete, if they are not on already
+     * 
+     * @return The metrics of this tree
+     */
+    public TreeMetrics enableMetrics() {
+        if (metrics == null)
+            metrics = new TreeMetrics(this);
+        return metrics;
+    }
+
+    /**
+     * Stops keeping metrics, taking them off JMX if they were registered there
+     */
+    public void disableMetrics() {
+        if (metrics != null)
+            metrics.unregister();
+        metrics = null;
+    }
+
+    /**
+     * Get the metrics of the tree
+     * 
+     * @return The metrics, or null if they are off
+     */
+    public TreeMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Switches delete to lazy deletion. Instead of unlinking a node, delete marks it as a tombstone in a single walk
+     * down, and find, iteration and size() skip it from then on; inserting the element again brings it back. Once
+     * tombstones make up more than threshold of all nodes, a sweep starts that unlinks them a few at a time: every
+     * insert and delete first looks at the next SWEEP_STEP nodes in order and unlinks the tombstones among them, so no
+     * single call pays for the whole cleanup. Batch deletes still unlink right away.
+     * 
+     * @param threshold Share of tombstones that starts a sweep, above 0 and at most 1
+     * @return True if lazy deletion is on, false if the threshold is out of range
+     */
+    public boolean enableLazyDeletion(double threshold) {
+        if (!(threshold > 0 && threshold <= 1))
+            return false;
+        tombstoneLimit = threshold;
+        return true;
+    }
+
+    /**
+     * Switches back to deletes that unlink the node right away, first rebuilding the tree without its tombstones
+     */
+    public void disableLazyDeletion() {
+        tombstoneLimit = 0;
+        purge();
+    }
+
+    /**
+     * Get the number of tombstones
+     * 
+     * @return The number of lazily deleted nodes still in the tree
+     */
+    public int tombstones() {
+        return tombstones;
     }
 
     /**
@@ -39,27 +268,58 @@ public class BinarySearchTree<T extends Comparable<T>> {
     }
 
     /**
-     * Set the root of the tree
+     * Set the root of the tree, which is taken to hold no tombstones
      * 
      * @param root The new root of this tree
      */
     public void setRoot(TreeNode<T> root) {
         this.root = root;
+        tombstones = 0;
+        sweeping = false;
+        sweepFrom = null;
     }
 
     /**
-     * Find if an element exists Checks to see if the value val appears in the tree (recursively). Returns true if it
-     * appears and false otherwise.
+     * Find if an element exists Checks to see if the value val appears in the tree (with a loop, see TreeNode.find).
+     * Returns true if it appears and false otherwise.
      * 
      * @param val The value to find
      * @return True if the tree contains the value, false otherwise
      */
     public boolean find(T val) {
+        if (balancing == Balancing.SPLAY)
+            return splayFind(val);
+        if (metrics != null)
+            return measuredFind(val);
         if (root == null)   // check if the tree is null
             return false;
         return root.find(val);
     }
 
+    /**
+     * The loop of TreeNode.find, counting the nodes it visits for the metrics
+     * 
+     * @param val The value to find
+     * @return True if the tree contains the value, false otherwise
+     */
+    private boolean measuredFind(T val) {
+        long start = System.nanoTime();
+        int visited = 0;
+        boolean found = false;
+        TreeNode<T> node = val == null ? null : root;
+        while (node != null) {
+            visited++;
+            int comp = node.getData().compareTo(val);
+            if (comp == 0) {
+                found = !node.isDeleted();
+                break;
+            }
+            node = comp > 0 ? node.getLeft() : node.getRight();
+        }
+        metrics.record(TreeMetrics.Operation.FIND, visited, visited, System.nanoTime() - start);
+        return found;
+    }
+
     /**
      * Returns a String that represents the data held at each node starting with all the nodes of the left child followed by
      * the root then finally all the nodes of the right child.
@@ -85,42 +345,497 @@ public class BinarySearchTree<T extends Comparable<T>> {
     }
 
     /**
-     * Insert an element Inserts val into the tree where it should appear, returning true on success and false otherwise
+     * Writes the in order traversal into out, in the same format as inOrder() but without building the whole string in
+     * memory first. Nothing is written for an empty tree.
+     * 
+     * @param out Where to write the traversal, such as a StringBuilder or a Writer
+     * @throws IOException If out fails to accept the text
+     */
+    public void inOrder(Appendable out) throws IOException {
+        if (root != null)
+            root.inOrder(out);
+    }
+
+    /**
+     * Writes the post order traversal into out, in the same format as postOrder() but without building the whole string
+     * in memory first. Nothing is written for an empty tree.
+     * 
+     * @param out Where to write the traversal, such as a StringBuilder or a Writer
+     * @throws IOException If out fails to accept the text
+     */
+    public void postOrder(Appendable out) throws IOException {
+        if (root != null)
+            root.postOrder(out);
+    }
+
+    /**
+     * Returns an iterator over the elements from the smallest to the largest. It walks the tree lazily with its own stack
+     * rather than recursion. The tree must not be changed while the iterator is in use.
+     * 
+     * @return An in order iterator
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return new InOrderIterator<T>(root);
+    }
+
+    /**
+     * Returns an iterator over the elements in post order, in the same order as postOrder() lists them. The tree must
+     * not be changed while the iterator is in use.
+     * 
+     * @return A post order iterator
+     */
+    public Iterator<T> postOrderIterator() {
+        return new PostOrderIterator<T>(root);
+    }
+
+    /**
+     * Returns a sized, sorted spliterator over the elements that splits at subtree boundaries, so parallel streams can
+     * divide the tree between threads without copying it
+     * 
+     * @return An in order spliterator
+     */
+    @Override
+    public Spliterator<T> spliterator() {
+        return new TreeSpliterator<T>(root, null);
+    }
+
+    /**
+     * Returns a sequential stream of the elements in order
+     * 
+     * @return A stream over the tree
+     */
+    public Stream<T> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * Returns a parallel stream of the elements, split along subtrees
+     * 
+     * @return A parallel stream over the tree
+     */
+    public Stream<T> parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
+    }
+
+    /**
+     * Insert an element Inserts val into the tree where it should appear, returning true on success and false otherwise.
+     * Walks down once with a loop, remembering the path, and then walks that path back up to refresh sizes and heights
+     * (and rebalance in AVL mode). Nothing is allocated except the new node.
      * 
      * @param val The value to insert
      * @return True on success, false otherwise Since BST doesn't allow for duplicates, return false when the value can be
      *         found
      */
     public boolean insert(T val) {
+        if (sweeping)
+            sweep();
+        if (balancing == Balancing.SPLAY)
+            return splayInsert(val);
+        long start = metrics == null ? 0 : System.nanoTime();
+        if (val == null)   // null can't be compared, so it can't be stored
+            return measured(TreeMetrics.Operation.INSERT, false, 0, 0, start);
         if (root == null) {  // check if the tree is null
             setRoot(new TreeNode<T>(val));  // If so, set the inserted element as the root
-            return true;    // return true
+            return measured(TreeMetrics.Operation.INSERT, true, 0, 0, start);    // return true
+        }
+        TreeNode<T>[] path = pathFor(root.height());
+        int depth = 0;
+        TreeNode<T> node = root;
+        while (true) {
+            int comp = node.getData().compareTo(val);
+            if (comp == 0) {
+                if (!node.isDeleted())   // duplicate, nothing has been touched yet
+                    return measured(TreeMetrics.Operation.INSERT, false, depth + 1, depth + 1, start);
+                node.setDeleted(false);   // a tombstone comes back, only the sizes above it change
+                tombstones--;
+                break;
+            }
+            path[depth++] = node;
+            TreeNode<T> next = comp > 0 ? node.getLeft() : node.getRight();
+            if (next == null) {   // found the empty spot, hang the new node there
+                if (comp > 0)
+                    node.setLeft(new TreeNode<T>(val));
+                else
+                    node.setRight(new TreeNode<T>(val));
+                break;
+            }
+            node = next;
         }
-        return root.insert(val);
+        fixPath(path, depth);
+        return measured(TreeMetrics.Operation.INSERT, true, depth, depth, start);
     }
 
     /**
      * Delete an element from the tree Deletes val from the tree if it appears, returning true on success and false
-     * otherwise
+     * otherwise. Like insert, this is a single walk down followed by a walk back up the remembered path. When the node
+     * has two children the walk simply continues down to its successor, which is unlinked from there instead of being
+     * searched for again. With lazy deletion on, the node is only marked as a tombstone and the walk back up just
+     * refreshes the sizes.
      * 
      * @param val The value to delete
      * @return True on success, false otherwise
      */
-
     public boolean delete(T val) {
+        if (sweeping)
+            sweep();
+        if (balancing == Balancing.SPLAY)
+            return splayDelete(val);
+        long start = metrics == null ? 0 : System.nanoTime();
         // check if the root or the value is null
         if (root == null || val == null)
-            return false;  // if so, return false
-        // if the value one's trying to delete does not exist
-        if (find(val) == false)
-            return false;  // if so, return false
-        root = root.delete(val);   // call the method from the TreeNode class
-        return true;
+            return measured(TreeMetrics.Operation.DELETE, false, 0, 0, start);  // if so, return false
+        int depth = locate(val);
+        if (depth < 0)   // the value does not exist
+            return measured(TreeMetrics.Operation.DELETE, false, -depth - 1, -depth - 1, start);
+        int comparisons = depth + 1;
+        TreeNode<T> node = path[depth];
+        if (node.isDeleted())   // already deleted lazily
+            return measured(TreeMetrics.Operation.DELETE, false, comparisons, comparisons, start);
+        if (tombstoneLimit > 0) {
+            node.setDeleted(true);
+            path[depth] = null;
+            fixPath(path, depth);
+            addTombstone();
+            return measured(TreeMetrics.Operation.DELETE, true, comparisons, comparisons, start);
+        }
+        depth = unlink(depth);
+        return measured(TreeMetrics.Operation.DELETE, true, comparisons, depth + 1, start);
+    }
+
+    /**
+     * Walks down to val, remembering the path in the buffer from pathFor
+     * 
+     * @param val The value to look for, with the tree not empty
+     * @return The depth of the node holding val, which is left in the buffer right after its ancestors, or -(number of
+     *         nodes visited) - 1 if val is not in the tree
+     */
+    private int locate(T val) {
+        TreeNode<T>[] path = pathFor(root.height());
+        int depth = 0;
+        TreeNode<T> node = root;
+        while (node != null) {
+            path[depth] = node;
+            int comp = node.getData().compareTo(val);
+            if (comp == 0)
+                return depth;
+            depth++;
+            node = comp > 0 ? node.getLeft() : node.getRight();
+        }
+        return -depth - 1;
+    }
+
+    /**
+     * Unlinks the node that locate found and walks the path back up
+     * 
+     * @param depth Where locate left the node in the buffer
+     * @return The number of nodes above the one that actually came out of the tree
+     */
+    private int unlink(int depth) {
+        TreeNode<T>[] path = this.path;
+        TreeNode<T> node = path[depth];
+        TreeNode<T> removed = node;  // the node that actually comes out of the tree
+        if (node.getLeft() != null && node.getRight() != null) {
+            // two children: keep walking to the smallest node of the right subtree, move its data up and unlink it
+            depth++;
+            removed = node.getRight();
+            while (removed.getLeft() != null) {
+                path[depth++] = removed;
+                removed = removed.getLeft();
+            }
+            node.setData(removed.getData());
+            node.setDeleted(removed.isDeleted());  // the successor may be a tombstone itself
+        } else {
+            path[depth] = null;  // only its ancestors stay on the path
+        }
+        // the removed node has at most one child, which takes its place
+        TreeNode<T> child = removed.getLeft() != null ? removed.getLeft() : removed.getRight();
+        replaceChild(depth == 0 ? null : path[depth - 1], removed, child);
+        fixPath(path, depth);
+        return depth;
+    }
+
+    /**
+     * Counts a new tombstone and starts a sweep if there are now too many
+     */
+    private void addTombstone() {
+        tombstones++;
+        if (!sweeping && tombstones > tombstoneLimit * (size() + tombstones)) {
+            sweeping = true;
+            sweepFrom = null;
+        }
+    }
+
+    /**
+     * One step of the sweep: looks at the next SWEEP_STEP nodes in order, tombstones included, and then unlinks the
+     * tombstones among them. The sweep ends after the largest element or once no tombstones are left; if tombstones
+     * made behind it still pass the threshold, the next lazy delete starts another.
+     */
+    private void sweep() {
+        @SuppressWarnings("unchecked")
+        T[] dead = (T[]) new Comparable<?>[SWEEP_STEP];
+        int count = 0;
+        InOrderIterator<T> it = new InOrderIterator<T>(root, sweepFrom, null, true);
+        for (int i = 0; i < SWEEP_STEP && it.hasNext(); i++) {
+            TreeNode<T> node = it.nextNode();
+            if (node.isDeleted())
+                dead[count++] = node.getData();
+        }
+        sweepFrom = it.hasNext() ? it.nextNode().getData() : null;  // the next step looks at that node again
+        for (int i = 0; i < count; i++) {   // the walk is over, so the tree can change now
+            unlink(locate(dead[i]));
+            tombstones--;
+        }
+        if (sweepFrom == null || tombstones == 0) {
+            sweeping = false;
+            sweepFrom = null;
+        }
+    }
+
+    /**
+     * Rebuilds the tree without its tombstones, in one O(n) pass, which also ends any sweep
+     */
+    private void purge() {
+        setRoot(tombstones > 0 ? copyRoot() : root);
+    }
+
+    /**
+     * Records an insert or delete in the metrics, if they are on
+     * 
+     * @param operation   What ran
+     * @param result      What it returns
+     * @param comparisons The compareTo calls it made
+     * @param visited     The nodes it visited
+     * @param start       System.nanoTime() when it started, unused when metrics are off
+     * @return result
+     */
+    private boolean measured(TreeMetrics.Operation operation, boolean result, int comparisons, int visited,
+            long start) {
+        if (metrics != null)
+            metrics.record(operation, comparisons, visited, System.nanoTime() - start);
+        return result;
+    }
+
+    /**
+     * Find in splay mode: splays val, or the last node on its search path, to the root
+     * 
+     * @param val The value to find
+     * @return True if the tree contains the value, false otherwise
+     */
+    private boolean splayFind(T val) {
+        long start = metrics == null ? 0 : System.nanoTime();
+        if (root == null || val == null)
+            return measured(TreeMetrics.Operation.FIND, false, 0, 0, start);
+        root = splay(root, val);
+        boolean found = root.getData().compareTo(val) == 0 && !root.isDeleted();
+        return measured(TreeMetrics.Operation.FIND, found, splayed + 1, splayed, start);
+    }
+
+    /**
+     * Insert in splay mode: splays the spot where val belongs to the root, then puts the new node on top of it
+     * 
+     * @param val The value to insert
+     * @return True on success, false if it is already there
+     */
+    private boolean splayInsert(T val) {
+        long start = metrics == null ? 0 : System.nanoTime();
+        if (val == null)
+            return measured(TreeMetrics.Operation.INSERT, false, 0, 0, start);
+        if (root == null) {
+            root = new TreeNode<T>(val);
+            return measured(TreeMetrics.Operation.INSERT, true, 0, 0, start);
+        }
+        root = splay(root, val);
+        int comp = root.getData().compareTo(val);
+        if (comp == 0) {
+            if (!root.isDeleted())
+                return measured(TreeMetrics.Operation.INSERT, false, splayed + 1, splayed, start);
+            root.setDeleted(false);   // a tombstone comes back
+            tombstones--;
+            return measured(TreeMetrics.Operation.INSERT, true, splayed + 1, splayed, start);
+        }
+        TreeNode<T> top = root;
+        if (comp > 0) {  // the old root and its right subtree go right of the new node, its left subtree stays left
+            TreeNode<T> left = top.getLeft();
+            top.setLeft(null);
+            root = new TreeNode<T>(val, left, top);
+        } else {
+            TreeNode<T> right = top.getRight();
+            top.setRight(null);
+            root = new TreeNode<T>(val, top, right);
+        }
+        return measured(TreeMetrics.Operation.INSERT, true, splayed + 1, splayed, start);
+    }
+
+    /**
+     * Delete in splay mode: splays val to the root and joins its subtrees by splaying the largest element of the left
+     * one to its top, where it has no right child to lose
+     * 
+     * @param val The value to delete
+     * @return True on success, false if it was not there
+     */
+    private boolean splayDelete(T val) {
+        long start = metrics == null ? 0 : System.nanoTime();
+        if (root == null || val == null)
+            return measured(TreeMetrics.Operation.DELETE, false, 0, 0, start);
+        root = splay(root, val);
+        int visited = splayed;
+        if (root.getData().compareTo(val) != 0 || root.isDeleted())
+            return measured(TreeMetrics.Operation.DELETE, false, visited + 1, visited, start);
+        if (tombstoneLimit > 0) {   // it is at the root, so marking it changes no other size
+            root.setDeleted(true);
+            addTombstone();
+            return measured(TreeMetrics.Operation.DELETE, true, visited + 1, visited, start);
+        }
+        TreeNode<T> left = root.getLeft();
+        TreeNode<T> right = root.getRight();
+        if (left == null) {
+            root = right;
+        } else {
+            left = splay(left, val);   // everything on the left is smaller than val, so this lifts the largest
+            left.setRight(right);
+            root = left;
+        }
+        return measured(TreeMetrics.Operation.DELETE, true, visited + 1 + splayed, visited + splayed, start);
+    }
+
+    /**
+     * Top-down splay. Walks down from the root towards val, taking two steps at a time and rotating when both go the
+     * same way, and hangs everything it passes on a tree of smaller elements (on its right spine) or a tree of larger
+     * elements (on its left spine). The node where the walk stops, holding val if it is there, becomes the root, with
+     * the two trees as its subtrees. The nodes on those spines are refreshed from the bottom up at the end.
+     * 
+     * @param top The root of the subtree to splay
+     * @param val The value to look for
+     * @return The new root of the subtree
+     */
+    private TreeNode<T> splay(TreeNode<T> top, T val) {
+        // nodes hung on the smaller tree fill the buffer from the front, those on the larger tree from the back
+        TreeNode<T>[] hung = pathFor(2 * top.height() + 2);
+        int smaller = 0;
+        int larger = hung.length;
+        TreeNode<T> node = top;
+        splayed = 0;
+        while (true) {
+            splayed++;
+            int comp = val.compareTo(node.getData());
+            if (comp < 0) {
+                TreeNode<T> next = node.getLeft();
+                if (next == null)
+                    break;
+                if (val.compareTo(next.getData()) < 0) {  // two steps left: rotate right first
+                    node.setLeft(next.getRight());
+                    next.setRight(node);
+                    node = next;
+                    splayed++;
+                    if (metrics != null)
+                        metrics.rotated(1);
+                    if (node.getLeft() == null)
+                        break;
+                }
+                hung[--larger] = node;  // node and its right subtree are all larger than val
+                node = node.getLeft();
+            } else if (comp > 0) {
+                TreeNode<T> next = node.getRight();
+                if (next == null)
+                    break;
+                if (val.compareTo(next.getData()) > 0) {  // two steps right: rotate left first
+                    node.setRight(next.getLeft());
+                    next.setLeft(node);
+                    node = next;
+                    splayed++;
+                    if (metrics != null)
+                        metrics.rotated(1);
+                    if (node.getRight() == null)
+                        break;
+                }
+                hung[smaller++] = node;
+                node = node.getRight();
+            } else {
+                break;
+            }
+        }
+        // what is left of the node's subtrees finishes off the two trees
+        TreeNode<T> below = node.getLeft();
+        for (int i = smaller - 1; i >= 0; i--) {  // each node on the smaller tree's spine takes the one after it
+            hung[i].setRight(below);
+            below = hung[i];
+            hung[i] = null;
+        }
+        TreeNode<T> smallerTree = below;
+        below = node.getRight();
+        for (int i = larger; i < hung.length; i++) {
+            hung[i].setLeft(below);
+            below = hung[i];
+            hung[i] = null;
+        }
+        node.setLeft(smallerTree);
+        node.setRight(below);
+        return node;
+    }
+
+    /**
+     * Walks a remembered path from the bottom back up to the root, refreshing the stored size and height of each node and,
+     * in AVL mode, rebalancing it.
+     * 
+     * @param path  The nodes from the root down, path[0] being the root
+     * @param depth The number of nodes on the path
+     */
+    private void fixPath(TreeNode<T>[] path, int depth) {
+        for (int i = depth - 1; i >= 0; i--) {
+            TreeNode<T> node = path[i];
+            if (balancing == Balancing.AVL) {
+                TreeNode<T> left = node.getLeft();
+                TreeNode<T> right = node.getRight();
+                TreeNode<T> top = node.rebalance();
+                if (top != node) {   // a rotation lifted a different node into this spot
+                    replaceChild(i == 0 ? null : path[i - 1], node, top);
+                    if (metrics != null)   // a child came up with one rotation, a grandchild with two
+                        metrics.rotated(top == left || top == right ? 1 : 2);
+                }
+            } else {
+                node.update();
+            }
+            path[i] = null;  // don't keep removed nodes reachable from the buffer
+        }
+    }
+
+    /**
+     * Points whichever link referred to oldChild at newChild instead
+     * 
+     * @param parent   The parent of oldChild, or null if oldChild is the root
+     * @param oldChild The subtree being replaced
+     * @param newChild The subtree taking its place, may be null
+     */
+    private void replaceChild(TreeNode<T> parent, TreeNode<T> oldChild, TreeNode<T> newChild) {
+        if (parent == null)
+            root = newChild;
+        else if (parent.getLeft() == oldChild)
+            parent.setLeft(newChild);
+        else
+            parent.setRight(newChild);
+    }
+
+    /**
+     * Hands out the buffer used to remember the path of an insert or delete, growing it if the tree has grown taller than
+     * it. A path is never longer than the height of the tree, so the buffer is only reallocated when the tree gets taller.
+     * 
+     * @param height The height of the tree
+     * @return A buffer with room for at least height nodes
+     */
+    @SuppressWarnings("unchecked")
+    private TreeNode<T>[] pathFor(int height) {
+        if (path == null || path.length < height)
+            path = (TreeNode<T>[]) new TreeNode<?>[Math.max(height * 2, 16)];
+        return path;
     }
 
     /**
      * Build from a list Build the tree from the given list, overwriting any tree data previously stored in this tree.
-     * Should read from beginning to end of the list and repeatedly call insert() to build the tree.
+     * Rather than inserting the elements one at a time, the list is copied into an array, sorted and stripped of
+     * duplicates (both skipped if it is already strictly increasing), and the tree is then built directly from the
+     * array with the middle element at the top of every subtree. That takes O(n) after the sort, and the result is as
+     * short as a tree of that size can be, which also satisfies the AVL condition.
      * 
      * @param list The list from which to build the tree
      * @return True if successfully built, false otherwise
@@ -132,24 +847,350 @@ public class BinarySearchTree<T extends Comparable<T>> {
         // Check if there's any element in the arraylist
         if (list.size() == 0)
             return false;
-        // Iterate through the arraylist, insert the element one by one
-        for (T i : list) {
-            if (i != null)  // check if the inserted element is null
-                insert(i);
-        }
+        T[] sorted = sortedUnique(list);
+        setRoot(TreeNode.buildBalanced(sorted, 0, sorted.length));  // the old tree is simply dropped
         return true;
     }
 
+    /**
+     * Copies values into an array in increasing order without duplicates or nulls. The sort and the pass that removes
+     * duplicates are skipped if the values already come in strictly increasing order.
+     * 
+     * @param values The values to copy
+     * @return A new array holding each distinct value once, in increasing order
+     */
+    private T[] sortedUnique(Collection<? extends T> values) {
+        // Copy the elements into an array, skipping nulls, and check whether they are already in order
+        @SuppressWarnings("unchecked")
+        T[] sorted = (T[]) new Comparable<?>[values.size()];
+        int count = 0;
+        boolean inOrder = true;
+        for (T i : values) {
+            if (i != null) {  // check if the element is null
+                if (count > 0 && sorted[count - 1].compareTo(i) >= 0)
+                    inOrder = false;
+                sorted[count++] = i;
+            }
+        }
+        if (!inOrder) {
+            Arrays.sort(sorted, 0, count);
+            int unique = 0;  // squeeze out the duplicates, which are now next to each other
+            for (int j = 0; j < count; j++) {
+                if (unique == 0 || sorted[unique - 1].compareTo(sorted[j]) != 0)
+                    sorted[unique++] = sorted[j];
+            }
+            count = unique;
+        }
+        return count == sorted.length ? sorted : Arrays.copyOf(sorted, count);
+    }
+
+    /**
+     * Find a batch of elements Checks which of the given values appear in the tree. The batch is sorted once, and then
+     * the whole of it walks down the tree together: at each node it is split into the part that belongs on the left and
+     * the part that belongs on the right, so neighbouring values share the walk down until their paths part. Each node
+     * is visited at most once per batch.
+     * 
+     * @param vals The values to look for
+     * @return A bit set with bit i set when vals.get(i) is in the tree
+     */
+    public BitSet findAll(List<? extends T> vals) {
+        BitSet found = new BitSet(vals.size());
+        if (root == null)
+            return found;
+        @SuppressWarnings("unchecked")
+        T[] keys = (T[]) new Comparable<?>[vals.size()];
+        int[] index = new int[vals.size()];  // where each key came from in vals
+        int count = 0;
+        for (int i = 0; i < vals.size(); i++) {
+            T val = vals.get(i);
+            if (val != null) {
+                keys[count] = val;
+                index[count++] = i;
+            }
+        }
+        sortWithIndex(keys, index, count);
+        @SuppressWarnings("unchecked")
+        TreeNode<T>[] nodes = (TreeNode<T>[]) new TreeNode<?>[root.height() + 2];
+        int[] low = new int[nodes.length];
+        int[] high = new int[nodes.length];
+        int top = 1;
+        nodes[0] = root;
+        low[0] = 0;
+        high[0] = count;
+        while (top > 0) {
+            top--;
+            TreeNode<T> node = nodes[top];
+            int lo = low[top];
+            int hi = high[top];
+            int split = Arrays.binarySearch(keys, lo, hi, node.getData());
+            int rest;
+            if (split >= 0) {  // a hit, the batch may hold it more than once
+                rest = split + 1;
+                while (split > lo && keys[split - 1].compareTo(node.getData()) == 0)
+                    split--;
+                while (rest < hi && keys[rest].compareTo(node.getData()) == 0)
+                    rest++;
+                if (!node.isDeleted())   // a tombstone only steers the walk
+                    for (int i = split; i < rest; i++)
+                        found.set(index[i]);
+            } else {  // a miss, binarySearch returned -(insertion point) - 1
+                split = -split - 1;
+                rest = split;
+            }
+            if (top + 2 > nodes.length) {  // only if the stored heights are stale
+                nodes = Arrays.copyOf(nodes, nodes.length * 2);
+                low = Arrays.copyOf(low, nodes.length);
+                high = Arrays.copyOf(high, nodes.length);
+            }
+            if (lo < split && node.getLeft() != null) {  // the smaller keys carry on to the left
+                nodes[top] = node.getLeft();
+                low[top] = lo;
+                high[top++] = split;
+            }
+            if (rest < hi && node.getRight() != null) {  // the larger keys carry on to the right
+                nodes[top] = node.getRight();
+                low[top] = rest;
+                high[top++] = hi;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Insert a batch of elements Inserts every value that is not already in the tree. The batch is sorted once and walks
+     * down the tree together like in findAll(). When part of the batch reaches an empty spot, it is built into a
+     * balanced subtree and hung there as a whole. On the way back up each node is updated once. In AVL mode, a node whose
+     * subtrees now differ by more than one level is rotated or, if that is not enough, rebuilt.
+     * 
+     * @param vals The values to insert
+     * @return The number of values that were inserted
+     */
+    public int insertAll(Collection<? extends T> vals) {
+        T[] keys = sortedUnique(vals);
+        if (root == null) {
+            root = TreeNode.buildBalanced(keys, 0, keys.length);
+            return keys.length;
+        }
+        return batch(keys, true);
+    }
+
+    /**
+     * Delete a batch of elements Deletes every value that is in the tree. The batch is sorted once and walks down the tree
+     * together like in findAll(), and each node is removed or updated once on the way back up.
+     * 
+     * @param vals The values to delete
+     * @return The number of values that were deleted
+     */
+    public int deleteAll(Collection<? extends T> vals) {
+        T[] keys = sortedUnique(vals);
+        if (root == null || keys.length == 0)
+            return 0;
+        return batch(keys, false);
+    }
+
+    /**
+     * Walks a sorted batch down the tree, splitting it at every node, and inserts or deletes it. Nodes are settled after
+     * both of their subtrees, in post order, using explicit stacks instead of recursion.
+     * 
+     * @param keys   The batch, sorted and without duplicates
+     * @param insert True to insert the batch, false to delete it
+     * @return The number of values inserted or deleted
+     */
+    private int batch(T[] keys, boolean insert) {
+        int changed = 0;
+        int capacity = 2 * root.height() + 2;  // a node waiting to be settled and its pending sibling per level
+        @SuppressWarnings("unchecked")
+        TreeNode<T>[] nodes = (TreeNode<T>[]) new TreeNode<?>[capacity];
+        int[] low = new int[capacity];
+        int[] high = new int[capacity];
+        int[] parent = new int[capacity];   // stack index of the parent's frame, -1 for the root
+        boolean[] expanded = new boolean[capacity];   // whether the children have been pushed
+        boolean[] matched = new boolean[capacity];   // whether the node's own value is in the batch
+        nodes[0] = root;
+        low[0] = 0;
+        high[0] = keys.length;
+        parent[0] = -1;
+        int top = 1;
+        while (top > 0) {
+            int frame = top - 1;
+            TreeNode<T> node = nodes[frame];
+            if (expanded[frame]) {  // both subtrees are done, settle this node
+                top--;
+                expanded[frame] = false;
+                TreeNode<T> settled = settle(!insert && matched[frame] ? removeNode(node) : node);
+                if (settled != node)
+                    replaceChild(parent[frame] < 0 ? null : nodes[parent[frame]], node, settled);
+                nodes[frame] = null;
+                continue;
+            }
+            expanded[frame] = true;
+            int lo = low[frame];
+            int hi = high[frame];
+            int split = Arrays.binarySearch(keys, lo, hi, node.getData());
+            matched[frame] = split >= 0;
+            if (split < 0)   // binarySearch returned -(insertion point) - 1
+                split = -split - 1;
+            int rest = matched[frame] ? split + 1 : split;
+            if (matched[frame] && node.isDeleted()) {  // a tombstone: inserting brings it back, deleting unlinks it
+                tombstones--;
+                if (insert) {
+                    node.setDeleted(false);
+                    changed++;
+                }
+            } else if (matched[frame] && !insert) {
+                changed++;
+            }
+            if (top + 2 > nodes.length) {  // only if the stored heights are stale
+                capacity = nodes.length * 2;
+                nodes = Arrays.copyOf(nodes, capacity);
+                low = Arrays.copyOf(low, capacity);
+                high = Arrays.copyOf(high, capacity);
+                parent = Arrays.copyOf(parent, capacity);
+                expanded = Arrays.copyOf(expanded, capacity);
+                matched = Arrays.copyOf(matched, capacity);
+            }
+            for (int side = 0; side < 2; side++) {
+                boolean left = side == 0;
+                int from = left ? lo : rest;
+                int to = left ? split : hi;
+                if (from == to)   // no part of the batch goes this way
+                    continue;
+                TreeNode<T> child = left ? node.getLeft() : node.getRight();
+                if (child != null) {
+                    nodes[top] = child;
+                    low[top] = from;
+                    high[top] = to;
+                    parent[top++] = frame;
+                } else if (insert) {  // an empty spot takes this whole part of the batch
+                    TreeNode<T> subtree = TreeNode.buildBalanced(keys, from, to);
+                    if (left)
+                        node.setLeft(subtree);
+                    else
+                        node.setRight(subtree);
+                    changed += to - from;
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Takes a node out of its subtree. With two children, its successor's data moves up into it and the successor is
+     * unlinked from the bottom of the right subtree, whose left spine is then updated (and rebalanced in AVL mode).
+     * 
+     * @param node The node to remove
+     * @return The subtree without the node, which may be null, still to be settled
+     */
+    private TreeNode<T> removeNode(TreeNode<T> node) {
+        if (node.getLeft() == null)
+            return node.getRight();
+        if (node.getRight() == null)
+            return node.getLeft();
+        TreeNode<T>[] path = pathFor(node.height());
+        int depth = 0;
+        TreeNode<T> successor = node.getRight();
+        while (successor.getLeft() != null) {
+            path[depth++] = successor;
+            successor = successor.getLeft();
+        }
+        node.setData(successor.getData());
+        node.setDeleted(successor.isDeleted());
+        if (depth == 0)
+            node.setRight(successor.getRight());
+        else
+            path[depth - 1].setLeft(successor.getRight());
+        for (int i = depth - 1; i >= 0; i--) {  // walk back up the left spine of the right subtree
+            TreeNode<T> top = settle(path[i]);
+            if (top != path[i]) {
+                if (i == 0)
+                    node.setRight(top);
+                else
+                    path[i - 1].setLeft(top);
+            }
+            path[i] = null;
+        }
+        return node;
+    }
+
+    /**
+     * Refreshes a node whose subtrees are final and, in AVL mode, restores the balance condition. When a batch has made
+     * the subtrees differ by more than one level, the node joins them back together (see TreeAlgebra.join).
+     * 
+     * @param node The node to settle, may be null
+     * @return The root of the settled subtree
+     */
+    private TreeNode<T> settle(TreeNode<T> node) {
+        if (node == null)
+            return null;
+        if (balancing != Balancing.AVL) {
+            node.update();
+            return node;
+        }
+        return TreeAlgebra.join(node.getLeft(), node, node.getRight());
+    }
+
+    /**
+     * Sorts the first count keys, moving each entry of index along with its key. Bottom-up merge sort, stable, and
+     * skipped when the keys are already in order.
+     * 
+     * @param keys  The keys to sort
+     * @param index The values to carry along
+     * @param count The number of entries to sort
+     */
+    private static <T extends Comparable<T>> void sortWithIndex(T[] keys, int[] index, int count) {
+        boolean inOrder = true;
+        for (int i = 1; i < count && inOrder; i++)
+            inOrder = keys[i - 1].compareTo(keys[i]) <= 0;
+        if (inOrder)
+            return;
+        T[] keyBuffer = Arrays.copyOf(keys, count);
+        int[] indexBuffer = new int[count];
+        T[] fromKeys = keys;
+        int[] fromIndex = index;
+        T[] toKeys = keyBuffer;
+        int[] toIndex = indexBuffer;
+        for (int width = 1; width < count; width *= 2) {
+            for (int lo = 0; lo < count; lo += 2 * width) {  // merge [lo, mid) with [mid, hi)
+                int mid = Math.min(lo + width, count);
+                int hi = Math.min(lo + 2 * width, count);
+                int i = lo;
+                int j = mid;
+                for (int k = lo; k < hi; k++) {
+                    if (i < mid && (j >= hi || fromKeys[i].compareTo(fromKeys[j]) <= 0)) {
+                        toKeys[k] = fromKeys[i];
+                        toIndex[k] = fromIndex[i++];
+                    } else {
+                        toKeys[k] = fromKeys[j];
+                        toIndex[k] = fromIndex[j++];
+                    }
+                }
+            }
+            T[] swapKeys = fromKeys;  // the merged runs become the input of the next pass
+            fromKeys = toKeys;
+            toKeys = swapKeys;
+            int[] swapIndex = fromIndex;
+            fromIndex = toIndex;
+            toIndex = swapIndex;
+        }
+        if (fromKeys != keys) {  // the result ended up in the buffers
+            System.arraycopy(fromKeys, 0, keys, 0, count);
+            System.arraycopy(fromIndex, 0, index, 0, count);
+        }
+    }
+
     /**
      * toString method
      */
     @Override
     public String toString() {
+        if (root == null)   // an empty tree prints as nothing
+            return "";
         return root.inOrder();   // Prints out the string in order
     }
 
     /**
-     * The method will return an int that represents the height of the total tree.
+     * The method will return an int that represents the height of the total tree. Constant time, the height is stored at
+     * the root.
      * 
      * @return the height of a BST
      */
@@ -161,7 +1202,42 @@ public class BinarySearchTree<T extends Comparable<T>> {
     }
 
     /**
-     * The method will return an int that represents the size of the total tree.
+     * Counts the leaves at every depth, walking the whole tree with an explicit stack. A balanced tree has all of its
+     * leaves within a level or two of each other; a long tail shows a degenerate shape.
+     * 
+     * @return Counts indexed by depth, the root being at depth 0, with height() entries
+     */
+    public long[] leafDepths() {
+        long[] depths = new long[height()];
+        if (root == null)
+            return depths;
+        @SuppressWarnings("unchecked")
+        TreeNode<T>[] stack = (TreeNode<T>[]) new TreeNode<?>[root.height() + 1];
+        int[] levels = new int[stack.length];
+        int top = 0;
+        stack[top] = root;
+        levels[top++] = 0;
+        while (top > 0) {
+            TreeNode<T> node = stack[--top];
+            int level = levels[top];
+            stack[top] = null;
+            if (node.getLeft() == null && node.getRight() == null)
+                depths[level]++;
+            if (node.getRight() != null) {
+                stack[top] = node.getRight();
+                levels[top++] = level + 1;
+            }
+            if (node.getLeft() != null) {
+                stack[top] = node.getLeft();
+                levels[top++] = level + 1;
+            }
+        }
+        return depths;
+    }
+
+    /**
+     * The method will return an int that represents the size of the total tree. Constant time, the size is stored at the
+     * root.
      * 
      * @return the size of a BST
      */
@@ -171,4 +1247,516 @@ public class BinarySearchTree<T extends Comparable<T>> {
         return root.size();
     }
 
+    /**
+     * Order statistic Returns the k-th smallest element of the tree, counting from 0, using the subtree sizes stored at
+     * each node to skip whole subtrees. Runs in O(height).
+     * 
+     * @param k The position of the element in sorted order, starting at 0
+     * @return The k-th smallest element, or null if k is not between 0 and size() - 1
+     */
+    public T select(int k) {
+        if (k < 0 || k >= size())
+            return null;
+        TreeNode<T> node = root;
+        while (node != null) {
+            int leftSize = TreeNode.sizeOf(node.getLeft());
+            if (k < leftSize) {  // the element is in the left subtree
+                node = node.getLeft();
+            } else if (k == leftSize && !node.isDeleted()) {  // everything smaller is in the left subtree, so this is it
+                return node.getData();
+            } else {  // skip the left subtree and this node, which holds no element if it is a tombstone
+                k = k - leftSize - (node.isDeleted() ? 0 : 1);
+                node = node.getRight();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Rank Returns the number of elements in the tree that are smaller than val, whether or not val itself is in the tree.
+     * Runs in O(height).
+     * 
+     * @param val The value to rank
+     * @return The number of elements smaller than val, so that select(rank(val)) == val when val is in the tree
+     */
+    public int rank(T val) {
+        return countBelow(val, false);
+    }
+
+    /**
+     * Counts the elements smaller than val, or smaller than or equal to it, in one walk down using the stored sizes
+     * 
+     * @param val       The value to compare with
+     * @param inclusive Whether an element equal to val counts
+     * @return The number of elements below val
+     */
+    private int countBelow(T val, boolean inclusive) {
+        if (val == null)
+            return 0;
+        int rank = 0;
+        TreeNode<T> node = root;
+        while (node != null) {
+            int comp = node.getData().compareTo(val);
+            if (comp < 0) {  // this node and its whole left subtree are smaller
+                rank = rank + TreeNode.sizeOf(node.getLeft()) + (node.isDeleted() ? 0 : 1);
+                node = node.getRight();
+            } else if (comp > 0) {
+                node = node.getLeft();
+            } else {  // found it, only its left subtree is smaller
+                return rank + TreeNode.sizeOf(node.getLeft()) + (inclusive && !node.isDeleted() ? 1 : 0);
+            }
+        }
+        return rank;
+    }
+
+    /**
+     * Smallest element of the tree
+     * 
+     * @return The smallest element, or null if the tree is empty
+     */
+    public T min() {
+        if (tombstones > 0)   // the leftmost node may be a tombstone
+            return select(0);
+        if (root == null)
+            return null;
+        TreeNode<T> node = root;
+        while (node.getLeft() != null)
+            node = node.getLeft();
+        return node.getData();
+    }
+
+    /**
+     * Largest element of the tree
+     * 
+     * @return The largest element, or null if the tree is empty
+     */
+    public T max() {
+        if (tombstones > 0)
+            return select(size() - 1);
+        if (root == null)
+            return null;
+        TreeNode<T> node = root;
+        while (node.getRight() != null)
+            node = node.getRight();
+        return node.getData();
+    }
+
+    /**
+     * Floor Returns the largest element that is smaller than or equal to val
+     * 
+     * @param val The value to look for
+     * @return The floor of val, or null if every element is larger
+     */
+    public T floor(T val) {
+        return nearest(val, true, true);
+    }
+
+    /**
+     * Ceiling Returns the smallest element that is larger than or equal to val
+     * 
+     * @param val The value to look for
+     * @return The ceiling of val, or null if every element is smaller
+     */
+    public T ceiling(T val) {
+        return nearest(val, false, true);
+    }
+
+    /**
+     * Returns the largest element that is strictly smaller than val
+     * 
+     * @param val The value to look for
+     * @return The element just below val, or null if there is none
+     */
+    public T lower(T val) {
+        return nearest(val, true, false);
+    }
+
+    /**
+     * Returns the smallest element that is strictly larger than val
+     * 
+     * @param val The value to look for
+     * @return The element just above val, or null if there is none
+     */
+    public T higher(T val) {
+        return nearest(val, false, false);
+    }
+
+    /**
+     * Walks down once towards val, remembering the closest element seen on the wanted side of it
+     * 
+     * @param val       The value to look for
+     * @param below     True to look for elements smaller than val, false for larger ones
+     * @param inclusive Whether val itself is an acceptable answer
+     * @return The closest element on that side, or null if there is none
+     */
+    private T nearest(T val, boolean below, boolean inclusive) {
+        if (val == null)
+            return null;
+        if (tombstones > 0) {  // the closest node may be a tombstone, so count the elements on each side instead
+            int count = countBelow(val, below == inclusive);
+            return select(below ? count - 1 : count);
+        }
+        T best = null;
+        TreeNode<T> node = root;
+        while (node != null) {
+            int comp = node.getData().compareTo(val);
+            if (comp == 0 && inclusive)
+                return node.getData();
+            if (below ? comp < 0 : comp > 0) {  // on the wanted side, and closer than anything seen so far
+                best = node.getData();
+                node = below ? node.getRight() : node.getLeft();
+            } else {
+                node = below ? node.getLeft() : node.getRight();
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Range scan Returns an iterator over the elements from lo to hi, both included, in increasing order. It starts with
+     * one walk down to lo and then only visits the nodes it returns and the ones on the way to them, O(log n + k) for k
+     * elements. The tree must not be changed while the iterator is in use.
+     * 
+     * @param lo The smallest element to include
+     * @param hi The largest element to include
+     * @return An iterator over the range, empty if lo is larger than hi
+     */
+    public Iterator<T> range(T lo, T hi) {
+        return new InOrderIterator<T>(root, lo, hi);
+    }
+
+    /**
+     * Counts the elements from lo to hi, both included, in O(height) from the stored subtree sizes, without visiting the
+     * elements themselves
+     * 
+     * @param lo The smallest element to count
+     * @param hi The largest element to count
+     * @return The number of elements in the range, 0 if lo is larger than hi
+     */
+    public int rangeCount(T lo, T hi) {
+        if (lo == null || hi == null || lo.compareTo(hi) > 0)
+            return 0;
+        return countBelow(hi, true) - countBelow(lo, false);
+    }
+
+    /**
+     * Hash of all the elements, stored at the root, so this is O(1) when the tree has not changed since the last call.
+     * Every node keeps the sum of the 64-bit hashes of the elements below it, which the hasher (see setHasher) works out
+     * from their contents. So two trees holding the same elements have the same hash whatever their shapes or balancing
+     * modes, and two trees holding different ones have the same hash only by chance, about 2^-64. Changes only mark the
+     * hashes on their path as out of date, and the next call brings those up to date, O(height) per change. The first
+     * call on a tree hashes every node and gives each one a small record for its hash, about 24 bytes; a tree that never
+     * asks for hashes keeps none of them.
+     * 
+     * @return The hash of the tree, 0 when it is empty
+     * @throws IllegalStateException If the tree has no hasher for its elements
+     */
+    public long rootHash() {
+        return TreeNode.hashOf(root, hasher);
+    }
+
+    /**
+     * Hashes the elements from lo to hi, both included, in O(height) from the stored subtree hashes, the way rangeCount
+     * counts them. Comparing range hashes tells which part of two replicas differs without reading the elements.
+     * 
+     * @param lo The smallest element to include
+     * @param hi The largest element to include
+     * @return The hash of the elements in the range, 0 if it is empty or lo is larger than hi
+     * @throws IllegalStateException If the tree has no hasher for its elements
+     */
+    public long rangeHash(T lo, T hi) {
+        if (lo == null || hi == null || lo.compareTo(hi) > 0)
+            return 0;
+        return hashBelow(hi, true, hasher) - hashBelow(lo, false, hasher);
+    }
+
+    /**
+     * Finds the elements that are in exactly one of this tree and other. The walk goes down this tree and skips every
+     * subtree whose stored hash matches the hash of the same key range in other, so only the paths to differences are
+     * visited: O(d log^2 n) for d differences, and O(1) when the trees are equal. The two trees may have different
+     * shapes. Both are hashed with this tree's hasher, and a subtree is skipped wrongly only if two different sets of
+     * elements have the same hash sum, about 2^-64 per comparison. To bring other in line with this tree, insert the
+     * returned elements this tree finds and delete the rest. Neither tree may be changed during the call.
+     * 
+     * @param other The tree to compare with
+     * @return The elements in only one of the two trees, from the smallest to the largest
+     * @throws IllegalStateException If this tree has no hasher for its elements
+     */
+    @SuppressWarnings("unchecked")
+    public List<T> diff(BinarySearchTree<T> other) {
+        List<T> out = new ArrayList<T>();
+        // walks this tree in order, each stacked node has a right subtree still to compare
+        TreeNode<T>[] stack = (TreeNode<T>[]) new TreeNode<?>[height()];
+        Object[] highs = new Object[stack.length];  // the upper end of the key range of each stacked node
+        int top = 0;
+        TreeNode<T> node = root;
+        T lo = null;  // the subtree at node holds exactly the keys between lo and hi, null meaning no limit
+        T hi = null;
+        while (true) {
+            long theirs = other.hashBetween(lo, hi, hasher);
+            if (node != null && TreeNode.hashOf(node, hasher) != theirs) {  // something differs in here, look at the left part
+                stack[top] = node;
+                highs[top++] = hi;
+                hi = node.getData();
+                node = node.getLeft();
+                continue;
+            }
+            if (node == null && theirs != 0)   // nothing in this tree here, so all of other's elements here differ
+                for (Iterator<T> it = new InOrderIterator<T>(other.root, lo, hi); it.hasNext();) {
+                    T val = it.next();
+                    if ((lo == null || val.compareTo(lo) != 0) && (hi == null || val.compareTo(hi) != 0))
+                        out.add(val);
+                }
+            if (top == 0)
+                return out;
+            TreeNode<T> parent = stack[--top];
+            stack[top] = null;
+            T val = parent.getData();
+            if (parent.isDeleted() == (other.root != null && other.root.find(val)))   // in only one of them
+                out.add(val);
+            lo = val;
+            hi = (T) highs[top];
+            node = parent.getRight();
+        }
+    }
+
+    /**
+     * Hashes the elements strictly between lo and hi
+     * 
+     * @param lo     The lower limit, or null for none
+     * @param hi     The upper limit, or null for none
+     * @param hasher How to hash one element
+     * @return The sum of the hashes of the elements in between
+     */
+    private long hashBetween(T lo, T hi, ToLongFunction<? super T> hasher) {
+        long below = hi == null ? TreeNode.hashOf(root, hasher) : hashBelow(hi, false, hasher);
+        return lo == null ? below : below - hashBelow(lo, true, hasher);
+    }
+
+    /**
+     * Sums the hashes of the elements smaller than val, or smaller than or equal to it, in one walk down, the way
+     * countBelow counts them
+     * 
+     * @param val       The value to compare with
+     * @param inclusive Whether an element equal to val counts
+     * @param hasher    How to hash one element
+     * @return The sum of the hashes of the elements below val
+     */
+    private long hashBelow(T val, boolean inclusive, ToLongFunction<? super T> hasher) {
+        long hash = 0;
+        TreeNode<T> node = root;
+        while (node != null) {
+            int comp = node.getData().compareTo(val);
+            if (comp < 0) {  // this node and its whole left subtree are smaller
+                hash = hash + TreeNode.hashOf(node.getLeft(), hasher)
+                        + (node.isDeleted() ? 0 : hasher.applyAsLong(node.getData()));
+                node = node.getRight();
+            } else if (comp > 0) {
+                node = node.getLeft();
+            } else {  // found it, only its left subtree is smaller
+                return hash + TreeNode.hashOf(node.getLeft(), hasher)
+                        + (inclusive && !node.isDeleted() ? hasher.applyAsLong(node.getData()) : 0);
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Compiles the tree into a read-only copy laid out in one array (see FrozenTree), for trees that are built once and
+     * then searched many times. Later changes to this tree do not show in the copy.
+     * 
+     * @return The frozen copy
+     * @throws IllegalStateException If the tree has more than FrozenTree.MAX_SIZE elements
+     */
+    public FrozenTree<T> freeze() {
+        return new FrozenTree<T>(this, null);
+    }
+
+    /**
+     * Compiles the tree into a read-only copy that stores the keys themselves in its array, encoded by the codec, so a
+     * search reads nothing but the array
+     * 
+     * @param codec How to encode the keys
+     * @return The frozen copy
+     * @throws IllegalStateException If the tree is too large, or its encoded keys don't fit in one buffer
+     */
+    public FrozenTree<T> freeze(KeyCodec<T> codec) {
+        return new FrozenTree<T>(this, codec);
+    }
+
+    /**
+     * Encodes the shape of the tree and its keys, so that decode can rebuild exactly the same tree. The encoding is a
+     * 16 byte header (the magic number, the key width, the balancing mode and the number of nodes, little-endian ints),
+     * then two bits per node in post order telling whether it has a left and a right child, then the keys in post order,
+     * written by the codec. A tree holding tombstones is encoded as the balanced tree of its elements.
+     * 
+     * @param codec How to write the keys
+     * @return The encoded tree
+     */
+    public byte[] encode(KeyCodec<T> codec) {
+        TreeNode<T> top = tombstones > 0 ? copyRoot() : root;
+        int count = TreeNode.sizeOf(top);
+        int width = codec.width();
+        int keys = ENCODING_HEADER + (count + 3) / 4;  // four nodes per byte of shape bits
+        byte[] encoded = new byte[Math.toIntExact(keys + (long) count * width)];
+        ByteBuffer buffer = ByteBuffer.wrap(encoded).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(ENCODING).putInt(width).putInt(balancing.ordinal()).putInt(count);
+        PostOrderIterator<T> it = new PostOrderIterator<T>(top);
+        for (int i = 0; i < count; i++) {
+            TreeNode<T> node = it.nextNode();
+            int shape = (node.getLeft() != null ? 1 : 0) | (node.getRight() != null ? 2 : 0);
+            encoded[ENCODING_HEADER + i / 4] |= (byte) (shape << 2 * (i % 4));
+            codec.encode(node.getData(), buffer, keys + i * width);
+        }
+        return encoded;
+    }
+
+    /**
+     * Rebuilds a tree written by encode, with the same shape and balancing mode, in O(n) and without comparing any keys.
+     * Reading the nodes in post order, each one takes the subtrees built last as its children, so a stack of finished
+     * subtrees is all the state there is.
+     * 
+     * @param encoded The bytes encode returned
+     * @param codec   How to read the keys, which must have the width they were written with
+     * @return The tree, or null if the bytes are not an encoded tree for this codec
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends Comparable<T>> BinarySearchTree<T> decode(byte[] encoded, KeyCodec<T> codec) {
+        ByteBuffer buffer = ByteBuffer.wrap(encoded).order(ByteOrder.LITTLE_ENDIAN);
+        if (encoded.length < ENCODING_HEADER || buffer.getInt() != ENCODING)
+            return null;
+        int width = buffer.getInt();
+        int mode = buffer.getInt();
+        int count = buffer.getInt();
+        if (width != codec.width() || mode < 0 || mode >= Balancing.values().length || count < 0)
+            return null;
+        int keys = ENCODING_HEADER + (count + 3) / 4;
+        if (encoded.length != keys + (long) count * width)
+            return null;
+        TreeNode<T>[] stack = (TreeNode<T>[]) new TreeNode<?>[16];  // finished subtrees still waiting for a parent
+        int top = 0;
+        for (int i = 0; i < count; i++) {
+            int shape = encoded[ENCODING_HEADER + i / 4] >> 2 * (i % 4) & 3;
+            int children = Integer.bitCount(shape);
+            if (top < children)
+                return null;
+            TreeNode<T> right = (shape & 2) != 0 ? stack[--top] : null;
+            TreeNode<T> left = (shape & 1) != 0 ? stack[--top] : null;
+            if (top == stack.length)
+                stack = Arrays.copyOf(stack, stack.length * 2);
+            stack[top++] = new TreeNode<T>(codec.decode(buffer, keys + i * width), left, right);
+        }
+        if (top != (count == 0 ? 0 : 1))   // some subtrees were never joined up
+            return null;
+        return new BinarySearchTree<T>(stack[0], Balancing.values()[mode]);
+    }
+
+    /**
+     * Splits the tree in two by a key, in O(log n). This tree keeps the elements up to and including the key, and the
+     * elements larger than it move to the tree that is returned, which has the same balancing mode.
+     * 
+     * @param key The largest element to keep
+     * @return A tree holding the elements that were larger than the key
+     */
+    public BinarySearchTree<T> split(T key) {
+        TreeAlgebra.Split<T> halves = TreeAlgebra.split(shapedRoot(), key);
+        root = halves.match == null ? halves.left : TreeAlgebra.join(halves.left, halves.match, null);
+        BinarySearchTree<T> larger = new BinarySearchTree<T>(halves.right, balancing);
+        larger.hasher = hasher;
+        return larger;
+    }
+
+    /**
+     * Joins two trees and a key in between them, in O(log n). Every element of left must be smaller than the key and
+     * every element of right larger. Both trees are emptied and their nodes move to the tree that is returned, which
+     * has the balancing mode of left.
+     * 
+     * @param left  The tree of smaller elements
+     * @param key   The element to put between them
+     * @param right The tree of larger elements
+     * @return A tree holding the elements of both and the key, or null if the order does not hold
+     */
+    public static <T extends Comparable<T>> BinarySearchTree<T> join(BinarySearchTree<T> left, T key,
+            BinarySearchTree<T> right) {
+        if (key == null || left == right)
+            return null;
+        if (left.root != null && left.max().compareTo(key) >= 0)
+            return null;
+        if (right.root != null && right.min().compareTo(key) <= 0)
+            return null;
+        TreeNode<T> joined = TreeAlgebra.join(left.shapedRoot(), new TreeNode<T>(key, null, null), right.shapedRoot());
+        left.root = null;
+        right.root = null;
+        BinarySearchTree<T> tree = new BinarySearchTree<T>(joined, left.balancing);
+        tree.hasher = left.hasher;
+        return tree;
+    }
+
+    /**
+     * Adds every element of another tree to this one. The other tree is copied first, so it is left as it was. The
+     * work is split by the keys of this tree and the halves run in parallel on the common ForkJoinPool, in
+     * O(m log(n/m + 1)) for trees of m and n elements, m the smaller.
+     * 
+     * @param other The tree of elements to add
+     * @return True if this tree changed
+     */
+    public boolean union(BinarySearchTree<T> other) {
+        int before = size();
+        root = TreeAlgebra.union(shapedRoot(), other.copyRoot());
+        return size() != before;
+    }
+
+    /**
+     * Keeps only the elements that are also in another tree, which is left as it was. Runs in parallel like union.
+     * 
+     * @param other The tree of elements to keep
+     * @return True if this tree changed
+     */
+    public boolean intersection(BinarySearchTree<T> other) {
+        int before = size();
+        root = TreeAlgebra.intersection(shapedRoot(), other.copyRoot());
+        return size() != before;
+    }
+
+    /**
+     * Removes every element that is also in another tree, which is left as it was. Runs in parallel like union.
+     * 
+     * @param other The tree of elements to remove
+     * @return True if this tree changed
+     */
+    public boolean difference(BinarySearchTree<T> other) {
+        int before = size();
+        root = TreeAlgebra.difference(shapedRoot(), other.copyRoot());
+        return size() != before;
+    }
+
+    /**
+     * The root, after rebuilding the tree if it is too tall for split and join to work on it or holds tombstones. An AVL
+     * tree is never too tall; a tree without balancing is once it is more than twice as tall as a balanced one would be.
+     * 
+     * @return The root of a tree of logarithmic height
+     */
+    private TreeNode<T> shapedRoot() {
+        if (root != null && (tombstones > 0 || balancing != Balancing.AVL
+                && root.height() > 2 * (32 - Integer.numberOfLeadingZeros(root.size()))))
+            setRoot(copyRoot());
+        return root;
+    }
+
+    /**
+     * Copies the elements of this tree into new, balanced nodes
+     * 
+     * @return The root of the copy, null if this tree is empty
+     */
+    private TreeNode<T> copyRoot() {
+        if (root == null)
+            return null;
+        @SuppressWarnings("unchecked")
+        T[] all = (T[]) new Comparable<?>[root.size()];
+        InOrderIterator<T> it = new InOrderIterator<T>(root);
+        for (int i = 0; i < all.length; i++)
+            all[i] = it.next();
+        return TreeNode.buildBalanced(all, 0, all.length);
+    }
+
 }
@@ -0,0 +1,278 @@
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Concurrent Binary Search Tree A binary search tree that many threads can use at once. find() takes no locks at all:
+ * it just follows volatile child links. insert() and delete() lock their way down hand over hand, holding a node's lock
+ * only until its child is locked, so writers in different parts of the tree run in parallel.
+ * 
+ * Keys never move between nodes, which is what keeps lock-free readers safe. A delete marks the node as deleted (that
+ * write is the moment the key leaves the tree) and only unlinks it if it has at most one child; a marked node with two
+ * children stays as a routing node until a later insert or delete passing by finds it with one child and unlinks it, or
+ * an insert of the same key revives it. The tree does not rebalance.
+ * 
+ * @author Serena Jiao, yj5qe
+ * @param <T> Type of data to store in the tree
+ */
+public class ConcurrentBinarySearchTree<T extends Comparable<T>> {
+
+    /**
+     * Tree node with volatile links and its own lock
+     * 
+     * @param <T> Type of data stored in the node
+     */
+    private static final class Node<T> {
+
+        /**
+         * The key, which never changes, null only in the head sentinel
+         */
+        final T key;
+
+        /**
+         * Reference pointer to the left subtree
+         */
+        volatile Node<T> left;
+
+        /**
+         * Reference pointer to the right subtree
+         */
+        volatile Node<T> right;
+
+        /**
+         * Whether the key has been deleted, the node may still be needed to reach its children
+         */
+        volatile boolean deleted;
+
+        /**
+         * Held by writers while they read or change this node's links or deleted flag
+         */
+        final ReentrantLock lock = new ReentrantLock();
+
+        /**
+         * Constructor
+         * 
+         * @param key The key to store
+         */
+        Node(T key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * Sentinel above the root, so the root link can be locked like any other. The root is its right child.
+     */
+    private final Node<T> head = new Node<T>(null);
+
+    /**
+     * Number of keys in the tree
+     */
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * Find if an element exists Checks to see if the value val appears in the tree without taking any locks
+     * 
+     * @param val The value to find
+     * @return True if the tree contains the value, false otherwise
+     */
+    public boolean find(T val) {
+        if (val == null)
+            return false;
+        Node<T> node = head.right;
+        while (node != null) {
+            int comp = node.key.compareTo(val);
+            if (comp == 0)
+                return !node.deleted;
+            node = comp > 0 ? node.left : node.right;
+        }
+        return false;
+    }
+
+    /**
+     * Insert an element Inserts val into the tree where it should appear, returning true on success and false if it is
+     * already there
+     * 
+     * @param val The value to insert
+     * @return True on success, false otherwise
+     */
+    public boolean insert(T val) {
+        if (val == null)
+            return false;
+        Node<T> parent = head;
+        boolean goLeft = false;  // the root hangs to the right of the head
+        parent.lock.lock();
+        try {
+            while (true) {
+                Node<T> node = goLeft ? parent.left : parent.right;
+                if (node == null) {   // found the empty spot, publish the new node
+                    Node<T> created = new Node<T>(val);
+                    if (goLeft)
+                        parent.left = created;
+                    else
+                        parent.right = created;
+                    size.incrementAndGet();
+                    return true;
+                }
+                node.lock.lock();
+                if (unlinkIfRemovable(parent, goLeft, node))
+                    continue;   // read the link again, it now points further down
+                parent.lock.unlock();
+                parent = node;
+                int comp = node.key.compareTo(val);
+                if (comp == 0) {
+                    if (!node.deleted)  // duplicate
+                        return false;
+                    node.deleted = false;   // bring the deleted key back
+                    size.incrementAndGet();
+                    return true;
+                }
+                goLeft = comp > 0;
+            }
+        } finally {
+            parent.lock.unlock();
+        }
+    }
+
+    /**
+     * Delete an element from the tree Deletes val from the tree if it appears, returning true on success and false
+     * otherwise
+     * 
+     * @param val The value to delete
+     * @return True on success, false otherwise
+     */
+    public boolean delete(T val) {
+        if (val == null)
+            return false;
+        Node<T> parent = head;
+        boolean goLeft = false;
+        parent.lock.lock();
+        try {
+            while (true) {
+                Node<T> node = goLeft ? parent.left : parent.right;
+                if (node == null)   // the value does not exist
+                    return false;
+                node.lock.lock();
+                if (unlinkIfRemovable(parent, goLeft, node))
+                    continue;   // read the link again, it now points further down
+                int comp;
+                try {
+                    comp = node.key.compareTo(val);
+                } catch (RuntimeException e) {
+                    node.lock.unlock();
+                    throw e;
+                }
+                if (comp == 0) {
+                    boolean removed = !node.deleted;
+                    if (removed) {
+                        node.deleted = true;   // the key is gone as of this write
+                        size.decrementAndGet();
+                    }
+                    if (!unlinkIfRemovable(parent, goLeft, node))
+                        node.lock.unlock();
+                    return removed;
+                }
+                // keep the node locked and let go of its parent
+                parent.lock.unlock();
+                goLeft = comp > 0;
+                parent = node;
+            }
+        } finally {
+            parent.lock.unlock();
+        }
+    }
+
+    /**
+     * Unlinks a node that is marked deleted and has at most one child, putting that child in its place. The caller must
+     * hold the locks of both parent and node; the node's lock is released if it is unlinked. Readers that are already at
+     * the node still see its children, so they find whatever they were looking for.
+     * 
+     * @param parent The locked parent
+     * @param isLeft Whether node is the parent's left child
+     * @param node   The locked node
+     * @return True if the node was unlinked and unlocked
+     */
+    private boolean unlinkIfRemovable(Node<T> parent, boolean isLeft, Node<T> node) {
+        if (!node.deleted || (node.left != null && node.right != null))
+            return false;
+        Node<T> child = node.left != null ? node.left : node.right;
+        if (isLeft)
+            parent.left = child;
+        else
+            parent.right = child;
+        node.lock.unlock();
+        return true;
+    }
+
+    /**
+     * The method will return an int that represents the size of the total tree
+     * 
+     * @return the number of keys in the tree
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * The method will return an int that represents the height of the total tree, counting nodes that are marked deleted
+     * but still linked. This walks the whole tree without locks, so it is only a snapshot while writers are running.
+     * 
+     * @return the height of the tree
+     */
+    public int height() {
+        int height = 0;
+        ArrayList<Node<T>> nodes = new ArrayList<Node<T>>();
+        ArrayList<Integer> depths = new ArrayList<Integer>();
+        if (head.right != null) {
+            nodes.add(head.right);
+            depths.add(1);
+        }
+        while (!nodes.isEmpty()) {
+            Node<T> node = nodes.remove(nodes.size() - 1);
+            int depth = depths.remove(depths.size() - 1);
+            height = Math.max(height, depth);
+            Node<T> left = node.left;
+            Node<T> right = node.right;
+            if (left != null) {
+                nodes.add(left);
+                depths.add(depth + 1);
+            }
+            if (right != null) {
+                nodes.add(right);
+                depths.add(depth + 1);
+            }
+        }
+        return height;
+    }
+
+    /**
+     * Returns a String of the keys from the smallest to the largest in the same "(a)(b)(c)" format as
+     * BinarySearchTree.inOrder(). The walk takes no locks, so with writers running it reflects some mix of their changes.
+     * 
+     * @return a string that traverses the tree from the smallest to the largest, or null if the tree is empty
+     */
+    public String inOrder() {
+        StringBuilder out = new StringBuilder();
+        ArrayList<Node<T>> stack = new ArrayList<Node<T>>();
+        Node<T> node = head.right;
+        while (node != null || !stack.isEmpty()) {
+            while (node != null) {  // go as far left as possible, remembering the way back
+                stack.add(node);
+                node = node.left;
+            }
+            node = stack.remove(stack.size() - 1);
+            if (!node.deleted)
+                out.append('(').append(node.key).append(')');
+            node = node.right;
+        }
+        return out.length() == 0 ? null : out.toString();
+    }
+
+    /**
+     * toString method
+     */
+    @Override
+    public String toString() {
+        String inOrder = inOrder();
+        return inOrder == null ? "" : inOrder;
+    }
+}
@@ -0,0 +1,556 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.zip.CRC32;
+
+/**
+ * Durable Binary Search Tree A tree whose changes survive a crash. The elements live in a checkpoint file in the mapped
+ * format (see MappedBinarySearchTree) plus two small AVL trees in memory: elements inserted since the checkpoint, and
+ * checkpointed elements deleted since. Every successful insert or delete is appended to a write-ahead log, and the log is
+ * forced to disk once per group of changes, or when sync() is called, so one fsync covers many changes. The fsync runs
+ * after the tree's lock is released, so other calls go on while it waits for the disk. Once enough changes have been
+ * logged, they are merged with the checkpoint into a new one and the log starts over; that takes time proportional to
+ * the size of the tree and, unlike the fsync, holds the lock, so every other call waits for it.
+ *
+ * Opening the directory maps the checkpoint without reading it and replays the log onto it, so recovery takes time
+ * proportional to the checkpoint interval, not to the size of the tree. A checkpoint that was written just before a
+ * crash, while the log still holds the changes it includes, is harmless: every change sets whether one element is in the
+ * tree, so replaying the log onto a checkpoint that already has them changes nothing.
+ *
+ * @author Serena Jiao, yj5qe
+ * @param <T> Type of data to store in the tree
+ */
+public class DurableBinarySearchTree<T extends Comparable<T>> implements AutoCloseable {
+
+    /**
+     * Name of the checkpoint file inside the directory
+     */
+    static final String CHECKPOINT = "checkpoint.bst";
+
+    /**
+     * Name of the log file inside the directory
+     */
+    static final String LOG = "wal.log";
+
+    /**
+     * First four bytes of the log, "BSTL"
+     */
+    private static final int MAGIC = 0x4c545342;
+
+    /**
+     * Version of the log format
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * Bytes in the log header: magic number, version and key width
+     */
+    private static final int HEADER = 12;
+
+    /**
+     * Log record type of an insert
+     */
+    private static final byte INSERT = 1;
+
+    /**
+     * Log record type of a delete
+     */
+    private static final byte DELETE = 2;
+
+    /**
+     * How keys are written to the log and the checkpoint
+     */
+    private final KeyCodec<T> codec;
+
+    /**
+     * The directory holding the checkpoint and the log
+     */
+    private final Path directory;
+
+    /**
+     * Number of changes after which the log is forced to disk without waiting for sync()
+     */
+    private final int groupSize;
+
+    /**
+     * Number of logged changes after which a new checkpoint is written
+     */
+    private final int checkpointInterval;
+
+    /**
+     * Bytes in a log record: type, key and CRC32 checksum
+     */
+    private final int recordBytes;
+
+    /**
+     * The elements as of the last checkpoint
+     */
+    private MappedBinarySearchTree<T> base;
+
+    /**
+     * Elements inserted since the checkpoint that are not in it
+     */
+    private BinarySearchTree<T> added = new BinarySearchTree<T>(BinarySearchTree.Balancing.AVL);
+
+    /**
+     * Elements of the checkpoint deleted since it was written
+     */
+    private BinarySearchTree<T> removed = new BinarySearchTree<T>(BinarySearchTree.Balancing.AVL);
+
+    /**
+     * The open log, null once the tree is closed
+     */
+    private volatile FileChannel log;
+
+    /**
+     * Records appended but not yet written to the log
+     */
+    private final ByteBuffer pending;
+
+    /**
+     * Checksum of the record being written or read
+     */
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * Number of changes logged since the checkpoint
+     */
+    private int logged;
+
+    /**
+     * Total number of records appended since the tree was opened
+     */
+    private long appended;
+
+    /**
+     * Total number of records written to the log channel
+     */
+    private volatile long written;
+
+    /**
+     * Total number of records known to be on disk
+     */
+    private volatile long durable;
+
+    /**
+     * Held while forcing the log, so that concurrent calls to sync(), and the changes that complete a group, share one
+     * fsync instead of queueing up behind the tree's own lock. It is never held while waiting for the tree's lock.
+     */
+    private final Object syncLock = new Object();
+
+    /**
+     * Constructor Used by open
+     *
+     * @param directory          Where the files are
+     * @param codec              How keys are written
+     * @param groupSize          Changes per fsync
+     * @param checkpointInterval Changes per checkpoint
+     */
+    private DurableBinarySearchTree(Path directory, KeyCodec<T> codec, int groupSize, int checkpointInterval) {
+        this.directory = directory;
+        this.codec = codec;
+        this.groupSize = Math.max(1, groupSize);
+        this.checkpointInterval = Math.max(1, checkpointInterval);
+        this.recordBytes = 1 + codec.width() + Integer.BYTES;
+        this.pending = ByteBuffer.allocate(this.groupSize * recordBytes).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Opens the tree stored in a directory, creating an empty one if there is none, and recovers it by replaying the log
+     * onto the last checkpoint. A record torn by a crash at the end of the log is cut off.
+     *
+     * @param directory          The directory holding the tree
+     * @param codec              How to write and read keys
+     * @param groupSize          Number of changes after which the log is forced to disk anyway
+     * @param checkpointInterval Number of changes after which a new checkpoint is written
+     * @return The recovered tree
+     * @throws IOException If the files can't be read or written
+     */
+    public static <T extends Comparable<T>> DurableBinarySearchTree<T> open(Path directory, KeyCodec<T> codec,
+            int groupSize, int checkpointInterval) throws IOException {
+        Files.createDirectories(directory);
+        DurableBinarySearchTree<T> tree = new DurableBinarySearchTree<T>(directory, codec, groupSize,
+                checkpointInterval);
+        Path checkpoint = directory.resolve(CHECKPOINT);
+        if (!Files.exists(checkpoint))
+            MappedBinarySearchTree.write(new BinarySearchTree<T>().iterator(), 0, codec, checkpoint);
+        tree.base = MappedBinarySearchTree.open(checkpoint, codec);
+        tree.log = FileChannel.open(directory.resolve(LOG), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        MappedBinarySearchTree.forceDirectory(directory.toAbsolutePath());  // in case the log was just created
+        tree.recover();
+        return tree;
+    }
+
+    /**
+     * Replays the log, or starts a new one
+     *
+     * @throws IOException If the log can't be read or is not a log
+     */
+    private void recover() throws IOException {
+        if (log.size() < HEADER) {  // new, or the header itself was torn
+            startLog();
+            return;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(header, 0);
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION || header.getInt(8) != codec.width())
+            throw new IOException(directory.resolve(LOG) + " is not a log for this codec");
+        ByteBuffer records = ByteBuffer.allocate(1024 * recordBytes).order(ByteOrder.LITTLE_ENDIAN);
+        long position = HEADER;
+        long end = log.size();
+        while (position + recordBytes <= end) {
+            records.clear();
+            int count = readFully(records, position) / recordBytes;
+            int good = 0;
+            for (; good < count; good++) {
+                int offset = good * recordBytes;
+                byte type = records.get(offset);
+                if ((type != INSERT && type != DELETE)
+                        || checksum(records, offset) != records.getInt(offset + 1 + codec.width()))
+                    break;  // torn by a crash in the middle of a write
+                apply(codec.decode(records, offset + 1), type == INSERT);
+                logged++;
+            }
+            position += (long) good * recordBytes;
+            if (good < count)
+                break;
+        }
+        log.truncate(position);  // drop a torn record so new ones follow the last good one
+        log.position(position);
+        log.force(false);
+    }
+
+    /**
+     * Empties the log and writes its header
+     *
+     * @throws IOException If the log can't be written
+     */
+    private void startLog() throws IOException {
+        log.truncate(0);
+        ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(codec.width()).flip();
+        log.position(0);
+        while (header.hasRemaining())
+            log.write(header);
+        log.force(false);
+        logged = 0;
+    }
+
+    /**
+     * Reads from the log until the buffer is full or the log ends
+     *
+     * @param buffer   Where to read to
+     * @param position Where in the log to start
+     * @return The number of bytes read
+     * @throws IOException If the log can't be read
+     */
+    private int readFully(ByteBuffer buffer, long position) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            int read = log.read(buffer, position + total);
+            if (read < 0)
+                break;
+            total += read;
+        }
+        return total;
+    }
+
+    /**
+     * Checksum of a record's type and key
+     *
+     * @param buffer Where the record is
+     * @param offset Offset of its first byte
+     * @return The CRC32 of everything but the checksum itself
+     */
+    private int checksum(ByteBuffer buffer, int offset) {
+        crc.reset();
+        crc.update(buffer.duplicate().position(offset).limit(offset + 1 + codec.width()));
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Find if an element exists Checks to see if the value val appears in the tree
+     *
+     * @param val The value to find
+     * @return True if the tree contains the value, false otherwise
+     */
+    public synchronized boolean find(T val) {
+        checkOpen();
+        if (val == null)
+            return false;
+        return added.find(val) || (!removed.find(val) && base.find(val));
+    }
+
+    /**
+     * Insert an element Inserts val into the tree and logs the change, returning true on success and false if it is
+     * already there. The change is on disk once the group it belongs to has been forced, or sync() has returned. The
+     * call that completes a group forces it, and the one that completes a checkpoint interval writes the checkpoint.
+     *
+     * @param val The value to insert
+     * @return True on success, false otherwise
+     */
+    public boolean insert(T val) {
+        return change(val, true);
+    }
+
+    /**
+     * Delete an element Deletes val from the tree and logs the change, returning true on success and false if it was
+     * not there. The change is on disk once the group it belongs to has been forced, or sync() has returned. The call
+     * that completes a group forces it, and the one that completes a checkpoint interval writes the checkpoint.
+     *
+     * @param val The value to delete
+     * @return True on success, false otherwise
+     */
+    public boolean delete(T val) {
+        return change(val, false);
+    }
+
+    /**
+     * Makes a change and logs it under the tree's lock, then forces the log if the change completed a group
+     *
+     * @param val    The element
+     * @param insert True to insert it, false to delete it
+     * @return True if the tree changed
+     */
+    private boolean change(T val, boolean insert) {
+        long target;
+        synchronized (this) {
+            checkOpen();
+            if (val == null || !apply(val, insert))
+                return false;
+            target = append(insert ? INSERT : DELETE, val);
+        }
+        try {
+            force(target);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return true;
+    }
+
+    /**
+     * Makes an element present or absent, in memory only
+     *
+     * @param val    The element
+     * @param insert True to insert it, false to delete it
+     * @return True if the tree changed
+     */
+    private boolean apply(T val, boolean insert) {
+        boolean inBase = base.find(val);
+        if (insert)
+            return inBase ? removed.delete(val) : added.insert(val);
+        return inBase ? removed.insert(val) : added.delete(val);
+    }
+
+    /**
+     * Appends a record for a change, writing the group to the log when it is complete and a checkpoint when the
+     * interval is up. Forcing the group is left to the caller, once it has released the tree's lock.
+     *
+     * @param type INSERT or DELETE
+     * @param val  The element
+     * @return The number of records the caller must see forced, 0 if none
+     */
+    private long append(byte type, T val) {
+        int offset = pending.position();
+        pending.put(offset, type);
+        codec.encode(val, pending, offset + 1);
+        pending.putInt(offset + 1 + codec.width(), checksum(pending, offset));
+        pending.position(offset + recordBytes);
+        appended++;
+        logged++;
+        try {
+            if (logged >= checkpointInterval)
+                checkpoint();
+            else if (!pending.hasRemaining()) {
+                flush();
+                return written;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return 0;
+    }
+
+    /**
+     * Writes the records appended so far to the log channel
+     *
+     * @throws IOException If the log can't be written
+     */
+    private void flush() throws IOException {
+        pending.flip();
+        while (pending.hasRemaining())
+            log.write(pending);
+        pending.clear();
+        written = appended;
+    }
+
+    /**
+     * Forces every change made so far to disk. Threads calling this at the same time share one fsync: the ones that
+     * arrive while it runs find their changes covered and return without forcing again.
+     *
+     * @throws IOException If the log can't be written
+     */
+    public void sync() throws IOException {
+        long target;
+        synchronized (this) {
+            checkOpen();
+            flush();
+            target = written;
+        }
+        force(target);
+    }
+
+    /**
+     * Forces the log until at least a number of records are on disk, unless another thread already has. Must not be
+     * called holding the tree's lock, or every other call would wait for the disk too.
+     *
+     * @param target The number of records, counted since the tree was opened
+     * @throws IOException If the log can't be written
+     */
+    private void force(long target) throws IOException {
+        synchronized (syncLock) {
+            if (durable >= target)
+                return;
+            long covered = written;  // read before forcing, so everything it counts is covered
+            FileChannel channel = log;
+            if (channel == null)
+                return;  // closed in between, which synced everything
+            channel.force(false);
+            durable = Math.max(durable, covered);
+        }
+    }
+
+    /**
+     * Writes a new checkpoint holding every element and starts a new log. The checkpoint is written under a temporary
+     * name, moved into place and the directory forced before the log is emptied, so a crash at any point leaves a
+     * checkpoint and a log that recover to the current elements. Without forcing the directory, a crash could keep the
+     * emptied log but bring back the old checkpoint, losing every change since it was written.
+     *
+     * @throws IOException If the files can't be written
+     */
+    public synchronized void checkpoint() throws IOException {
+        checkOpen();
+        flush();
+        Path file = directory.resolve(CHECKPOINT);
+        MappedBinarySearchTree.write(iterator(), size(), codec, file);
+        base.close();
+        base = MappedBinarySearchTree.open(file, codec);
+        added = new BinarySearchTree<T>(BinarySearchTree.Balancing.AVL);
+        removed = new BinarySearchTree<T>(BinarySearchTree.Balancing.AVL);
+        startLog();
+        durable = Math.max(durable, written);
+    }
+
+    /**
+     * Number of elements in the tree
+     *
+     * @return The number of elements
+     */
+    public synchronized int size() {
+        checkOpen();
+        return base.size() + added.size() - removed.size();
+    }
+
+    /**
+     * Number of changes logged since the last checkpoint, which is what recovery would replay
+     *
+     * @return The length of the log in records
+     */
+    public synchronized int logLength() {
+        checkOpen();
+        return logged;
+    }
+
+    /**
+     * Iterates over the elements in increasing order, merging the checkpoint with the changes made since. The tree
+     * must not change while the iterator is in use.
+     *
+     * @return An iterator over the elements
+     */
+    public synchronized Iterator<T> iterator() {
+        checkOpen();
+        final Iterator<T> checkpointed = base.iterator();
+        final Iterator<T> inserted = added.iterator();
+        final BinarySearchTree<T> deleted = removed;
+        return new Iterator<T>() {
+            private T nextBase = advance();
+            private T nextAdded = inserted.hasNext() ? inserted.next() : null;
+
+            /**
+             * The next element of the checkpoint that has not been deleted
+             */
+            private T advance() {
+                while (checkpointed.hasNext()) {
+                    T val = checkpointed.next();
+                    if (!deleted.find(val))
+                        return val;
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return nextBase != null || nextAdded != null;
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                T result;
+                if (nextAdded == null || (nextBase != null && nextBase.compareTo(nextAdded) < 0)) {
+                    result = nextBase;
+                    nextBase = advance();
+                } else {
+                    result = nextAdded;
+                    nextAdded = inserted.hasNext() ? inserted.next() : null;
+                }
+                return result;
+            }
+        };
+    }
+
+    /**
+     * To String Returns the elements in order, like BinarySearchTree.toString
+     *
+     * @return The elements, each in parentheses
+     */
+    @Override
+    public synchronized String toString() {
+        StringBuilder out = new StringBuilder();
+        for (Iterator<T> it = iterator(); it.hasNext();)
+            out.append('(').append(it.next()).append(')');
+        return out.toString();
+    }
+
+    /**
+     * Forces the log to disk and closes the files. Any later use of the tree throws an IllegalStateException.
+     *
+     * @throws IOException If the log can't be written
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (log == null)
+            return;
+        sync();
+        log.close();
+        log = null;
+        base.close();
+    }
+
+    /**
+     * Makes sure the tree has not been closed
+     */
+    private void checkOpen() {
+        if (log == null)
+            throw new IllegalStateException("tree is closed");
+    }
+}
@@ -0,0 +1,523 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.stream.Stream;
+
+/**
+ * External Sorter Builds a tree, or a file in the mapped format (see MappedBinarySearchTree), from a stream of keys
+ * that may be far larger than the heap. The input is a plain dump of keys written back to back by a KeyCodec,
+ * little-endian, in any order and with any number of duplicates. It is read in runs that fit in the given amount of
+ * memory; each run is sorted, stripped of duplicates and written to a temporary file. The runs are then merged, many at
+ * a time through one buffer each, into a single sorted run without duplicates, which is streamed into the tree or the
+ * file. The raw input is never held, and the temporary files are deleted at the end.
+ *
+ * Memory is counted as the run being sorted (the width of each key plus KEY_OVERHEAD bytes for the decoded object and
+ * its slot in the array), next to which only a small buffer for reading the input and one for writing the run are
+ * kept, or as the buffers of a merge. A tree built this way of course still holds its own nodes.
+ *
+ * @author Serena Jiao, yj5qe
+ */
+public final class ExternalSorter {
+
+    /**
+     * The least memory a sort is given, whatever is asked for
+     */
+    static final long MIN_MEMORY = 1 << 16;
+
+    /**
+     * Bytes a decoded key costs besides its width: object header, fields and the array slot pointing at it, roughly
+     */
+    static final int KEY_OVERHEAD = 32;
+
+    /**
+     * The smallest buffer a run is read or written through during a merge
+     */
+    static final int MIN_BUFFER = 4096;
+
+    /**
+     * Constructor Not used, everything is static
+     */
+    private ExternalSorter() {
+    }
+
+    /**
+     * Sorts the keys in a file into a balanced tree
+     *
+     * @param keys      The file of keys
+     * @param codec     How the keys are encoded
+     * @param memory    Bytes the sort may use, at least MIN_MEMORY
+     * @param balancing The balancing mode of the tree
+     * @return A tree holding every distinct key
+     * @throws IOException If the input can't be read, ends in the middle of a key, or the temporary files fail
+     */
+    public static <T extends Comparable<T>> BinarySearchTree<T> toTree(Path keys, KeyCodec<T> codec, long memory,
+            BinarySearchTree.Balancing balancing) throws IOException {
+        try (InputStream in = Files.newInputStream(keys)) {
+            return toTree(in, codec, memory, balancing);
+        }
+    }
+
+    /**
+     * Sorts a stream of keys into a balanced tree, using temporary files in the default temporary directory. The tree
+     * is built straight from the sorted run, in order, so it never needs the keys in an array.
+     *
+     * @param keys      The keys, which are read to the end but not closed
+     * @param codec     How the keys are encoded
+     * @param memory    Bytes the sort may use, at least MIN_MEMORY
+     * @param balancing The balancing mode of the tree
+     * @return A tree holding every distinct key
+     * @throws IOException If the input can't be read, ends in the middle of a key, or the temporary files fail
+     */
+    public static <T extends Comparable<T>> BinarySearchTree<T> toTree(InputStream keys, KeyCodec<T> codec,
+            long memory, BinarySearchTree.Balancing balancing) throws IOException {
+        Path directory = Files.createTempDirectory("bst-sort");
+        try {
+            Run sorted = sort(keys, codec, memory, directory);
+            if (sorted.count > Integer.MAX_VALUE)
+                throw new IOException("too many distinct keys for a tree: " + sorted.count);
+            try (RunReader<T> reader = new RunReader<T>(sorted, codec, bufferSize(memory, codec.width()))) {
+                return new BinarySearchTree<T>(TreeNode.buildBalanced(reader, (int) sorted.count), balancing);
+            }
+        } finally {
+            deleteAll(directory);
+        }
+    }
+
+    /**
+     * Sorts the keys in a file into a file in the mapped format
+     *
+     * @param keys   The file of keys
+     * @param codec  How the keys are encoded
+     * @param memory Bytes the sort may use, at least MIN_MEMORY
+     * @param index  Where to write the result, which MappedBinarySearchTree.open reads
+     * @throws IOException If the input can't be read, ends in the middle of a key, or a file can't be written
+     */
+    public static <T extends Comparable<T>> void toIndex(Path keys, KeyCodec<T> codec, long memory, Path index)
+            throws IOException {
+        try (InputStream in = Files.newInputStream(keys)) {
+            toIndex(in, codec, memory, index);
+        }
+    }
+
+    /**
+     * Sorts a stream of keys into a file in the mapped format. The temporary files go next to it, since they are about
+     * as large as the input.
+     *
+     * @param keys   The keys, which are read to the end but not closed
+     * @param codec  How the keys are encoded
+     * @param memory Bytes the sort may use, at least MIN_MEMORY
+     * @param index  Where to write the result, which MappedBinarySearchTree.open reads
+     * @throws IOException If the input can't be read, ends in the middle of a key, or a file can't be written
+     */
+    public static <T extends Comparable<T>> void toIndex(InputStream keys, KeyCodec<T> codec, long memory, Path index)
+            throws IOException {
+        Path directory = Files.createTempDirectory(index.toAbsolutePath().getParent(), "bst-sort");
+        try {
+            Run sorted = sort(keys, codec, memory, directory);
+            if (sorted.count > Integer.MAX_VALUE)
+                throw new IOException("too many distinct keys for a mapped tree: " + sorted.count);
+            try (RunReader<T> reader = new RunReader<T>(sorted, codec, bufferSize(memory, codec.width()))) {
+                MappedBinarySearchTree.write(reader, (int) sorted.count, codec, index);
+            }
+        } finally {
+            deleteAll(directory);
+        }
+    }
+
+    /**
+     * Sorts the input into one run without duplicates
+     *
+     * @param keys      The keys
+     * @param codec     How the keys are encoded
+     * @param memory    Bytes the sort may use
+     * @param directory Where the runs go
+     * @return The sorted run
+     * @throws IOException If the input or the runs fail
+     */
+    static <T extends Comparable<T>> Run sort(InputStream keys, KeyCodec<T> codec, long memory, Path directory)
+            throws IOException {
+        memory = Math.max(memory, MIN_MEMORY);
+        List<Run> runs = split(keys, codec, memory, directory);
+        // each merge reads its runs and writes one, through buffers of at least MIN_BUFFER bytes
+        int fanIn = (int) Math.max(2, Math.min(Integer.MAX_VALUE, memory / MIN_BUFFER - 1));
+        while (runs.size() > 1) {  // a pass merges groups of fanIn runs, each pass shrinks the list by that much
+            List<Run> merged = new ArrayList<Run>();
+            for (int i = 0; i < runs.size(); i += fanIn)
+                merged.add(merge(runs.subList(i, Math.min(runs.size(), i + fanIn)), codec, memory, directory));
+            runs = merged;
+        }
+        return runs.get(0);
+    }
+
+    /**
+     * Reads the input a run at a time, sorting each run and writing it out without duplicates
+     *
+     * @param keys      The keys
+     * @param codec     How the keys are encoded
+     * @param memory    Bytes a run may take
+     * @param directory Where the runs go
+     * @return The runs, at least one even for empty input
+     * @throws IOException If the input ends in the middle of a key or a run can't be written
+     */
+    private static <T extends Comparable<T>> List<Run> split(InputStream keys, KeyCodec<T> codec, long memory,
+            Path directory) throws IOException {
+        int width = codec.width();
+        int capacity = (int) Math.max(1, Math.min(Integer.MAX_VALUE - 8, memory / (width + KEY_OVERHEAD)));
+        @SuppressWarnings("unchecked")
+        T[] run = (T[]) new Comparable<?>[capacity];
+        byte[] bytes = new byte[Math.max(1, MIN_BUFFER / width) * width];
+        ByteBuffer block = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        List<Run> runs = new ArrayList<Run>();
+        int count = 0;
+        int filled = 0;
+        int read;
+        while ((read = keys.read(bytes, filled, bytes.length - filled)) >= 0) {
+            filled += read;
+            int whole = filled / width * width;   // a key cut off by the read stays for the next one
+            for (int offset = 0; offset < whole; offset += width) {
+                run[count++] = codec.decode(block, offset);
+                if (count == capacity) {
+                    runs.add(writeRun(run, count, codec, directory, bufferSize(MIN_MEMORY, width)));
+                    count = 0;
+                }
+            }
+            System.arraycopy(bytes, whole, bytes, 0, filled - whole);
+            filled -= whole;
+        }
+        if (filled != 0)
+            throw new IOException("the input ends in the middle of a key");
+        if (count > 0 || runs.isEmpty())
+            runs.add(writeRun(run, count, codec, directory, bufferSize(MIN_MEMORY, width)));
+        return runs;
+    }
+
+    /**
+     * Sorts a run in memory and writes it out
+     *
+     * @param run       The keys, in any order
+     * @param count     Number of keys in the run
+     * @param codec     How to write them
+     * @param directory Where to write them
+     * @param buffer    Bytes to write through
+     * @return The run on disk
+     * @throws IOException If it can't be written
+     */
+    private static <T extends Comparable<T>> Run writeRun(T[] run, int count, KeyCodec<T> codec, Path directory,
+            int buffer) throws IOException {
+        Arrays.sort(run, 0, count);
+        try (RunWriter<T> writer = new RunWriter<T>(directory, codec, buffer)) {
+            for (int i = 0; i < count; i++) {
+                writer.add(run[i]);
+                run[i] = null;
+            }
+            return writer.finish();
+        }
+    }
+
+    /**
+     * Merges sorted runs into one, dropping duplicates, and deletes them
+     *
+     * @param runs      The runs to merge
+     * @param codec     How the keys are encoded
+     * @param memory    Bytes the buffers may take, shared by the runs and the output
+     * @param directory Where the merged run goes
+     * @return The merged run
+     * @throws IOException If a run can't be read or written
+     */
+    private static <T extends Comparable<T>> Run merge(List<Run> runs, KeyCodec<T> codec, long memory, Path directory)
+            throws IOException {
+        int buffer = bufferSize(memory / (runs.size() + 1), codec.width());
+        List<RunReader<T>> readers = new ArrayList<RunReader<T>>();
+        try (RunWriter<T> writer = new RunWriter<T>(directory, codec, buffer)) {
+            // the reader holding the smallest next key is always on top
+            PriorityQueue<RunReader<T>> queue = new PriorityQueue<RunReader<T>>(runs.size(),
+                    (a, b) -> a.peek().compareTo(b.peek()));
+            for (Run run : runs) {
+                RunReader<T> reader = new RunReader<T>(run, codec, buffer);
+                readers.add(reader);
+                if (reader.hasNext())
+                    queue.add(reader);
+            }
+            while (!queue.isEmpty()) {
+                RunReader<T> reader = queue.poll();
+                writer.add(reader.next());   // the writer drops a key equal to the one before
+                if (reader.hasNext())
+                    queue.add(reader);
+            }
+            return writer.finish();
+        } finally {
+            for (RunReader<T> reader : readers)
+                reader.close();
+            for (Run run : runs)
+                Files.deleteIfExists(run.file);
+        }
+    }
+
+    /**
+     * Size of a buffer for one run: a whole number of keys, at least MIN_BUFFER bytes and at least one key
+     *
+     * @param bytes The bytes it may take
+     * @param width Bytes per key
+     * @return The buffer size in bytes
+     */
+    private static int bufferSize(long bytes, int width) {
+        long keys = Math.max(Math.max(1, MIN_BUFFER / width), Math.min(bytes, 1 << 24) / width);
+        return (int) keys * width;
+    }
+
+    /**
+     * Deletes a temporary directory and the runs left in it
+     *
+     * @param directory The directory
+     * @throws IOException If they can't be deleted
+     */
+    private static void deleteAll(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator)
+                Files.deleteIfExists(file);
+        }
+        Files.deleteIfExists(directory);
+    }
+
+    /**
+     * A sorted run without duplicates on disk
+     */
+    static final class Run {
+
+        /**
+         * The file holding the keys
+         */
+        final Path file;
+
+        /**
+         * Number of keys in it
+         */
+        final long count;
+
+        /**
+         * Constructor
+         *
+         * @param file  The file holding the keys
+         * @param count Number of keys in it
+         */
+        Run(Path file, long count) {
+            this.file = file;
+            this.count = count;
+        }
+    }
+
+    /**
+     * Writes a sorted run, skipping a key equal to the one written before it
+     *
+     * @param <T> Type of the keys
+     */
+    static final class RunWriter<T extends Comparable<T>> implements AutoCloseable {
+
+        /**
+         * The file being written
+         */
+        private final Path file;
+
+        /**
+         * Open on the file
+         */
+        private final FileChannel channel;
+
+        /**
+         * How keys are written
+         */
+        private final KeyCodec<T> codec;
+
+        /**
+         * Keys waiting to be written
+         */
+        private final ByteBuffer buffer;
+
+        /**
+         * The last key written, or null
+         */
+        private T last;
+
+        /**
+         * Number of keys written
+         */
+        private long count;
+
+        /**
+         * Constructor Creates a new run file
+         *
+         * @param directory Where to create it
+         * @param codec     How keys are written
+         * @param size      Bytes to buffer, a whole number of keys
+         * @throws IOException If it can't be created
+         */
+        RunWriter(Path directory, KeyCodec<T> codec, int size) throws IOException {
+            this.file = Files.createTempFile(directory, "run", ".keys");
+            this.channel = FileChannel.open(file, StandardOpenOption.WRITE);
+            this.codec = codec;
+            this.buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        /**
+         * Appends a key, which must not be smaller than the last one
+         *
+         * @param key The key
+         * @throws IOException If the buffer can't be written out
+         */
+        void add(T key) throws IOException {
+            if (last != null && last.compareTo(key) == 0)
+                return;
+            if (buffer.remaining() < codec.width())
+                flush();
+            codec.encode(key, buffer, buffer.position());
+            buffer.position(buffer.position() + codec.width());
+            last = key;
+            count++;
+        }
+
+        /**
+         * Writes out the buffer
+         *
+         * @throws IOException If the write fails
+         */
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            buffer.clear();
+        }
+
+        /**
+         * Writes out what is left
+         *
+         * @return The run
+         * @throws IOException If the write fails
+         */
+        Run finish() throws IOException {
+            flush();
+            return new Run(file, count);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * Reads a run back in order
+     *
+     * @param <T> Type of the keys
+     */
+    static final class RunReader<T extends Comparable<T>> implements Iterator<T>, AutoCloseable {
+
+        /**
+         * Open on the run file
+         */
+        private final FileChannel channel;
+
+        /**
+         * How keys are read
+         */
+        private final KeyCodec<T> codec;
+
+        /**
+         * Keys read ahead
+         */
+        private final ByteBuffer buffer;
+
+        /**
+         * Keys not read yet, from the file or the buffer
+         */
+        private long left;
+
+        /**
+         * The next key, or null at the end
+         */
+        private T head;
+
+        /**
+         * Constructor Opens a run and reads its first key
+         *
+         * @param run   The run
+         * @param codec How keys are read
+         * @param size  Bytes to buffer, a whole number of keys
+         * @throws IOException If it can't be read
+         */
+        RunReader(Run run, KeyCodec<T> codec, int size) throws IOException {
+            this.channel = FileChannel.open(run.file, StandardOpenOption.READ);
+            this.codec = codec;
+            this.buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+            this.buffer.flip();   // empty, so the first key triggers a read
+            this.left = run.count;
+            advance();
+        }
+
+        /**
+         * The next key without moving past it
+         *
+         * @return The next key, or null at the end
+         */
+        T peek() {
+            return head;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return head != null;
+        }
+
+        @Override
+        public T next() {
+            if (head == null)
+                throw new NoSuchElementException();
+            T key = head;
+            try {
+                advance();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return key;
+        }
+
+        /**
+         * Reads the key after head
+         *
+         * @throws IOException If the run can't be read or is shorter than it should be
+         */
+        private void advance() throws IOException {
+            if (left == 0) {
+                head = null;
+                return;
+            }
+            if (!buffer.hasRemaining()) {
+                buffer.clear();
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0)
+                    continue;
+                buffer.flip();
+                if (buffer.remaining() < codec.width())
+                    throw new IOException("a sort run is shorter than it should be");
+            }
+            head = codec.decode(buffer, buffer.position());
+            buffer.position(buffer.position() + codec.width());
+            left--;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
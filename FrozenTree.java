@@ -0,0 +1,263 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Frozen Tree An immutable copy of a BinarySearchTree laid out in one array in Eytzinger order: the root at index 1 and
+ * the children of index k at 2k and 2k + 1, like a binary heap. A search walks down the array instead of following
+ * pointers to nodes scattered over the heap, the first levels share a handful of cache lines that stay hot, and the 16
+ * descendants four levels below any index sit next to each other, so the hardware prefetcher sees a regular pattern.
+ * Every search goes all the way down without stopping at a match, so each step is a comparison feeding the next index
+ * (k = 2k + 1 or 2k) rather than a branch the processor has to guess, and the answer is read off the final index.
+ *
+ * The array holds references, so every step still has to load the key object wherever it lives. Freezing with a
+ * KeyCodec copies the keys themselves into the array instead, which is what makes the layout pay off once the tree is
+ * larger than the cache.
+ *
+ * @author Serena Jiao, yj5qe
+ * @param <T> Type of data stored in the tree
+ */
+public class FrozenTree<T extends Comparable<T>> {
+
+    /**
+     * Most elements a frozen tree can hold, so that every position a search steps through, up to 2 * size + 1, fits in
+     * an int
+     */
+    static final int MAX_SIZE = (Integer.MAX_VALUE - 1) / 2;
+
+    /**
+     * The elements in Eytzinger order, index 0 unused, or an empty array when the keys are packed
+     */
+    private final T[] keys;
+
+    /**
+     * The elements encoded in Eytzinger order, slot 0 unused, or null when the keys are kept as references
+     */
+    private final ByteBuffer packed;
+
+    /**
+     * How the packed elements are encoded, or null
+     */
+    private final KeyCodec<T> codec;
+
+    /**
+     * Bytes per packed element
+     */
+    private final int width;
+
+    /**
+     * Number of elements
+     */
+    private final int size;
+
+    /**
+     * Constructor Lays out the elements of a tree, which the tree's in-order traversal hands over already sorted
+     *
+     * @param tree  The tree to copy
+     * @param codec How to encode the keys into the array, or null to store references to them
+     * @throws IllegalStateException If the tree has more than MAX_SIZE elements, or its packed keys would not fit in
+     *                               one buffer
+     */
+    @SuppressWarnings("unchecked")
+    FrozenTree(BinarySearchTree<T> tree, KeyCodec<T> codec) {
+        size = tree.size();
+        this.codec = codec;
+        width = codec == null ? 0 : codec.width();
+        if (size > MAX_SIZE)
+            throw new IllegalStateException("can't freeze " + size + " elements, at most " + MAX_SIZE + " fit");
+        int bytes = 0;
+        if (codec != null) {
+            try {
+                bytes = Math.multiplyExact(size + 1, width);
+            } catch (ArithmeticException e) {
+                throw new IllegalStateException("can't freeze " + size + " keys of " + width
+                        + " bytes, they don't fit in one buffer of at most " + Integer.MAX_VALUE + " bytes", e);
+            }
+        }
+        keys = (T[]) new Comparable<?>[codec == null ? size + 1 : 0];
+        packed = codec == null ? null : ByteBuffer.allocate(bytes);
+        if (size == 0)
+            return;
+        // visit the implicit tree in order, filling each position with the next element
+        InOrderIterator<T> it = new InOrderIterator<T>(tree.getRoot());
+        int k = leftmost(1);
+        while (k != 0) {
+            if (codec == null)
+                keys[k] = it.next();
+            else
+                codec.encode(it.next(), packed, k * width);
+            k = next(k);
+        }
+    }
+
+    /**
+     * The position after k in order
+     *
+     * @param k A position
+     * @return The next position, or 0 after the last one
+     */
+    private int next(int k) {
+        if (2 * k + 1 <= size)
+            return leftmost(2 * k + 1);
+        return k >>> (Integer.numberOfTrailingZeros(~k) + 1);  // climb while k is a right child, then once more
+    }
+
+    /**
+     * The element at a position
+     *
+     * @param k The position
+     * @return The element, decoded if the keys are packed
+     */
+    private T key(int k) {
+        return packed == null ? keys[k] : codec.decode(packed, k * width);
+    }
+
+    /**
+     * The leftmost position in the subtree of k
+     *
+     * @param k The root of the subtree
+     * @return Its smallest position in order
+     */
+    private int leftmost(int k) {
+        while (2 * k <= size)
+            k *= 2;
+        return k;
+    }
+
+    /**
+     * Walks down the whole array, going right past every element below val (or up to and including val when inclusive
+     * is set)
+     *
+     * @param val       The value to look for
+     * @param inclusive Whether elements equal to val are passed too
+     * @return Position of the first element at or above val (above it when inclusive), or 0 if there is none
+     */
+    private int descend(T val, boolean inclusive) {
+        int n = size;
+        int k = 1;
+        int limit = inclusive ? 1 : 0;  // go right while compareTo < limit
+        if (packed == null) {
+            T[] keys = this.keys;
+            while (k <= n)
+                k = 2 * k + (keys[k].compareTo(val) < limit ? 1 : 0);
+        } else {
+            ByteBuffer packed = this.packed;
+            KeyCodec<T> codec = this.codec;
+            int width = this.width;
+            while (k <= n)
+                k = 2 * k + (codec.compare(packed, k * width, val) < limit ? 1 : 0);
+        }
+        // the right turns taken since the last left one are the trailing ones; undoing them and that left turn lands
+        // on the element where the search last went left, which is the answer
+        return k >>> (Integer.numberOfTrailingZeros(~k) + 1);
+    }
+
+    /**
+     * Find if an element exists Checks to see if the value val appears in the tree
+     *
+     * @param val The value to find
+     * @return True if the tree contains the value, false otherwise
+     */
+    public boolean find(T val) {
+        return contains(val);
+    }
+
+    /**
+     * Checks to see if the value val appears in the tree
+     *
+     * @param val The value to find
+     * @return True if the tree contains the value, false otherwise
+     */
+    public boolean contains(T val) {
+        if (val == null)
+            return false;
+        int k = descend(val, false);
+        return k != 0 && key(k).compareTo(val) == 0;
+    }
+
+    /**
+     * The largest element less than or equal to val
+     *
+     * @param val The value to look up
+     * @return The element, or null if there is none
+     */
+    public T floor(T val) {
+        if (val == null || size == 0)
+            return null;
+        int k = descend(val, true);   // the first element above val, whose predecessor is the answer
+        if (k == 0) {
+            k = 1;   // everything is at most val, so the answer is the largest element
+            while (2 * k + 1 <= size)
+                k = 2 * k + 1;
+            return key(k);
+        }
+        if (2 * k <= size) {   // the largest element of the left subtree
+            k *= 2;
+            while (2 * k + 1 <= size)
+                k = 2 * k + 1;
+            return key(k);
+        }
+        k >>>= Integer.numberOfTrailingZeros(k) + 1;  // climb while k is a left child, then once more
+        return k == 0 ? null : key(k);
+    }
+
+    /**
+     * The smallest element greater than or equal to val
+     *
+     * @param val The value to look up
+     * @return The element, or null if there is none
+     */
+    public T ceiling(T val) {
+        if (val == null)
+            return null;
+        int k = descend(val, false);
+        return k == 0 ? null : key(k);
+    }
+
+    /**
+     * Number of elements in the tree
+     *
+     * @return The number of elements
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Height of the implicit tree, which is as short as a tree of this size can be
+     *
+     * @return The number of levels, 0 when empty
+     */
+    public int height() {
+        return 32 - Integer.numberOfLeadingZeros(size);
+    }
+
+    /**
+     * Makes an ordinary tree again, holding the same elements in a balanced shape
+     *
+     * @param balancing The balancing mode of the new tree
+     * @return The new tree
+     */
+    public BinarySearchTree<T> thaw(BinarySearchTree.Balancing balancing) {
+        @SuppressWarnings("unchecked")
+        T[] sorted = (T[]) new Comparable<?>[size];
+        int k = size == 0 ? 0 : leftmost(1);
+        for (int i = 0; i < size; i++) {
+            sorted[i] = key(k);
+            k = next(k);
+        }
+        return new BinarySearchTree<T>(TreeNode.buildBalanced(sorted, 0, size), balancing);
+    }
+
+    /**
+     * To String Returns the elements in order, like BinarySearchTree.toString
+     *
+     * @return The elements, each in parentheses
+     */
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder();
+        int k = size == 0 ? 0 : leftmost(1);
+        for (; k != 0; k = next(k))
+            out.append('(').append(key(k)).append(')');
+        return out.toString();
+    }
+}
@@ -1,6 +1,31 @@
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 import org.junit.Test;
 
@@ -147,4 +172,1049 @@ public class HW7Tests {
         assertTrue(tree.delete(11));
         assertEquals("(3)(7)", tree.toString());  // print out the tree to check if the elements are deleted
     }
+
+    /**
+     * Testing that a balanced tree stays short when fed sorted input
+     */
+    @Test(timeout = 1000)
+    public void testBalancedInsert() {
+        BinarySearchTree<Integer> tree = new BinarySearchTree<Integer>(BinarySearchTree.Balancing.AVL);
+        for (int i = 0; i < 20000; i++)
+            assertTrue(tree.insert(i));   // sorted input would make a 20000 tall list without balancing
+        assertFalse(tree.insert(500));  // duplicates
+        assertEquals(20000, tree.size());
+        assertTrue(tree.height() <= 21);  // an AVL tree is at most about 1.44 log2(n) tall
+        assertTrue(tree.find(19999));
+        assertFalse(tree.find(20000));
+    }
+
+    /**
+     * Testing that a balanced tree keeps its order and stays short across deletes
+     */
+    @Test(timeout = 1000)
+    public void testBalancedDelete() {
+        BinarySearchTree<Integer> tree = new BinarySearchTree<Integer>(BinarySearchTree.Balancing.AVL);
+        for (int i = 1; i <= 7; i++)
+            tree.insert(i);
+        assertEquals("(1)(3)(2)(5)(7)(6)(4)", tree.postOrder());  // perfectly balanced shape
+        assertTrue(tree.delete(4));   // the root, which has two children
+        assertFalse(tree.delete(4));
+        assertEquals("(1)(2)(3)(5)(6)(7)", tree.inOrder());
+        for (int i = 0; i < 10000; i++)
+            tree.insert(i);
+        for (int i = 0; i < 10000; i += 2)
+            assertTrue(tree.delete(i));  // delete every other element
+        assertEquals(5000, tree.size());
+        assertTrue(tree.height() <= 18);
+        assertFalse(tree.find(0));
+        assertTrue(tree.find(9999));
+    }
+
+    /**
+     * Testing select and rank against the sorted order of the tree
+     */
+    @Test(timeout = 100)
+    public void testSelectRank() {
+        BinarySearchTree<Integer> tree = new BinarySearchTree<Integer>();
+        assertNull(tree.select(0));  // empty tree
+        int[] values = { 50, 20, 80, 10, 30, 70, 90, 60 };
+        for (int v : values)
+            tree.insert(v);
+        assertEquals(Integer.valueOf(10), tree.select(0));
+        assertEquals(Integer.valueOf(60), tree.select(4));
+        assertEquals(Integer.valueOf(90), tree.select(7));
+        assertNull(tree.select(8));   // out of range
+        assertEquals(0, tree.rank(10));
+        assertEquals(4, tree.rank(60));
+        assertEquals(4, tree.rank(55));  // not in the tree, still counts the smaller ones
+        assertEquals(8, tree.rank(100));
+        tree.delete(20);
+        assertEquals(7, tree.size());
+        assertEquals(Integer.valueOf(30), tree.select(1));
+        assertEquals(1, tree.rank(30));
+    }
+
+    /**
+     * Testing that sorted input on an unbalanced tree no longer overflows the stack
+     */
+    @Test(timeout = 2000)
+    public void testDegenerateTree() {
+        BinarySearchTree<Integer> tree = new BinarySearchTree<Integer>();
+        for (int i = 0; i < 15000; i++)
+            tree.insert(i);   // every node goes to the right, so the tree is a list
+        assertEquals(15000, tree.height());
+        assertTrue(tree.find(14999));
+        assertTrue(tree.delete(0));   // removing the root
+        assertTrue(tree.delete(14999));   // removing the deepest node
+        assertFalse(tree.delete(14999));
+        assertEquals(14998, tree.size());
+        assertEquals(14998, tree.height());
+    }
+
+    /**
+     * Testing that the streaming traversals write the same text as the string ones
+     */
+    @Test(timeout = 1000)
+    public void testStreamingTraversal() throws IOException {
+        TreeNode<Integer> root = new TreeNode<Integer>(7);
+        BinarySearchTree<Integer> tree = new BinarySearchTree<Integer>(root);
+        tree.insert(3);
+        tree.insert(9);
+        tree.insert(5);
+        StringBuilder in = new StringBuilder();
+        tree.inOrder(in);
+        assertEquals("(3)(5)(7)(9)", in.toString());
+        StringWriter post = new StringWriter();
+        tree.postOrder(post);
+        assertEquals("(5)(3)(9)(7)", post.toString());
+        BinarySearchTree<Integer> list = new BinarySearchTree<Integer>();
+        for (int i = 0; i < 10000; i++)
+            list.insert(i);   // a 10000 tall tree would overflow a recursive traversal
+        assertTrue(list.postOrder().startsWith("(9999)(9998)"));
+        assertTrue(list.inOrder().endsWith("(9998)(9999)"));
+    }
+
+    /**
+     * Testing the in order and post order iterators
+     */
+    @Test(timeout = 100)
+    public void testIterators() {
+        TreeNode<Integer> root = new TreeNode<Integer>(7);
+        BinarySearchTree<Integer> tree = new BinarySearchTree<Integer>(root);
+        int[] values = { 3, 9, 1, 5, 8 };
+        for (int v : values)
+            tree.insert(v);
+        StringBuilder in = new StringBuilder();
+        for (int v : tree)   // the tree is Iterable
+            in.append("(" + v + ")");
+        assertEquals(tree.inOrder(), in.toString());
+        StringBuilder post = new StringBuilder();
+        Iterator<Integer> it = tree.postOrderIterator();
+        while (it.hasNext())
+            post.append("(" + it.next() + ")");
+        assertEquals(tree.postOrder(), post.toString());
+        assertFalse(new BinarySearchTree<Integer>().iterator().hasNext());  // empty tree
+    }
+
+    /**
+     * Testing sequential and parallel streams over the tree
+     */
+    @Test(timeout = 2000)
+    public void testStreams() {
+        BinarySearchTree<Integer> tree = new BinarySearchTree<Integer>(BinarySearchTree.Balancing.AVL);
+        for (int i = 0; i < 100000; i++)
+            tree.insert(i);
+        assertEquals(100000, tree.spliterator().getExactSizeIfKnown());
+        assertEquals(4999950000L, tree.parallelStream().mapToLong(Integer::longValue).sum());
+        List<Integer> firstFew = tree.parallelStream().limit(3).collect(Collectors.toList());
+        assertEquals(Arrays.asList(0, 1, 2), firstFew);   // order survives the split
+        assertEquals(Integer.valueOf(99999), tree.stream().reduce((a, b) -> b).get());
+        BinarySearchTree<Integer> spine = new BinarySearchTree<Integer>();
+        for (int i = 0; i < 4000; i++)
+            spine.insert(i);   // sorted input, nothing but right children
+        Spliterator<Integer> rest = spine.spliterator();
+        Spliterator<Integer> half = rest.trySplit();   // still splits, along the right spine
+        assertEquals(2000, half.getExactSizeIfKnown());
+        assertEquals(2000, rest.getExactSizeIfKnown());
+        List<Integer> quarter = new ArrayList<Integer>();
+        half.trySplit().forEachRemaining(quarter::add);
+        assertEquals(1000, quarter.size());
+        assertEquals(Integer.valueOf(0), quarter.get(0));
+        assertEquals(Integer.valueOf(999), quarter.get(999));
+        half.tryAdvance(val -> assertEquals(Integer.valueOf(1000), val));
+        assertEquals(7998000L, spine.parallelStream().mapToLong(Integer::longValue).sum());
+        assertEquals(spine.toString(), spine.parallelStream().map(i -> "(" + i + ")").collect(Collectors.joining()));
+    }
+
+    /**
+     * Testing that building from a list makes a balanced tree and replaces the old contents
+     */
+    @Test(timeout = 2000)
+    public void testBuildFromListBalanced() {
+        BinarySearchTree<Integer> tree = new BinarySearchTree<Integer>();
+        tree.insert(100);
+        ArrayList<Integer> list = new ArrayList<Integer>();
+        for (int i = 1; i <= 7; i++)
+            list.add(i);
+        assertTrue(tree.buildFromList(list));
+        assertFalse(tree.find(100));  // the old tree is gone
+        assertEquals("(1)(3)(2)(5)(7)(6)(4)", tree.postOrder());  // middle element at the top of every subtree
+        list.add(3);
+        list.add(null);
+        list.add(0);   // out of order, with a duplicate and a null
+        tree.buildFromList(list);
+        assertEquals("(0)(1)(2)(3)(4)(5)(6)(7)", tree.inOrder());
+        assertEquals(8, tree.size());
+        assertEquals(4, tree.height());
+        list.clear();
+        for (int i = 0; i < 1000000; i++)
+            list.add(i);
+        tree.buildFromList(list);
+        assertEquals(1000000, tree.size());
+        assertEquals(20, tree.height());   // 2^20 > 1000000
+        assertEquals(Integer.valueOf(123456), tree.select(123456));
+    }
+
+    /**
+     * Testing the int and long specialized trees
+     */
+    @Test(timeout = 1000)
+    public void testPrimitiveTrees() {
+        IntBinarySearchTree ints = new IntBinarySearchTree();
+        assertNull(ints.inOrder());
+        assertEquals(0, ints.height());
+        for (int i = 0; i < 1000; i++)
+            assertTrue(ints.insert(i));   // sorted input, still balanced
+        assertFalse(ints.insert(10));
+        assertEquals(1000, ints.size());
+        assertEquals(10, ints.height());
+        for (int i = 0; i < 1000; i += 2)
+            assertTrue(ints.delete(i));
+        assertFalse(ints.delete(0));
+        assertFalse(ints.find(4));
+        assertTrue(ints.find(5));
+        assertTrue(ints.insert(4));   // reuses a freed slot
+        assertEquals(501, ints.size());
+        LongBinarySearchTree longs = new LongBinarySearchTree();
+        longs.insert(7L << 40);
+        longs.insert(3);
+        longs.insert(-5);
+        assertEquals("(-5)(3)(" + (7L << 40) + ")", longs.inOrder());
+        assertTrue(longs.delete(3));
+        assertEquals("(-5)(" + (7L << 40) + ")", longs.toString());
+    }
+
+    /**
+     * Testing the tree that keeps its nodes off the heap
+     */
+    @Test(timeout = 1000)
+    public void testOffHeapTree() {
+        OffHeapBinarySearchTree<Long> tree = new OffHeapBinarySearchTree<Long>(KeyCodec.LONG);
+        for (long i = 0; i < 100000; i++)
+            assertTrue(tree.insert(i * 3));   // enough nodes to need a second slab
+        assertFalse(tree.insert(3L));
+        assertEquals(100000, tree.size());
+        assertEquals(17, tree.height());
+        assertTrue(tree.find(299997L));
+        assertFalse(tree.find(299998L));
+        for (long i = 0; i < 100000; i += 2)
+            assertTrue(tree.delete(i * 3));
+        assertFalse(tree.find(0L));
+        assertEquals(50000, tree.size());
+        assertTrue(tree.insert(1L));   // reuses a freed slot
+        long before = directMemoryUsed();
+        tree.close();
+        assertTrue(before - directMemoryUsed() >= 2L << 16);   // both slabs are freed now, not at the next collection
+        try {
+            tree.find(1L);
+            fail("a closed tree can't be used");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        OffHeapBinarySearchTree<Integer> small = new OffHeapBinarySearchTree<Integer>(KeyCodec.INTEGER);
+        small.insert(7);
+        small.insert(4);
+        small.insert(3);
+        assertEquals("(3)(4)(7)", small.inOrder());
+        small.close();
+    }
+
+    /**
+     * Bytes of direct memory the JVM has handed out to buffers
+     *
+     * @return The bytes in use by the direct buffer pool
+     */
+    private static long directMemoryUsed() {
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class))
+            if (pool.getName().equals("direct"))
+                return pool.getMemoryUsed();
+        return 0;
+    }
+
+    /**
+     * Testing the concurrent tree on its own, without other threads
+     */
+    @Test(timeout = 100)
+    public void testConcurrentTree() {
+        ConcurrentBinarySearchTree<Integer> tree = new ConcurrentBinarySearchTree<Integer>();
+        assertNull(tree.inOrder());
+        int[] values = { 7, 4, 3, 9, 8, 10 };
+        for (int v : values)
+            assertTrue(tree.insert(v));
+        assertFalse(tree.insert(9));
+        assertTrue(tree.delete(9));   // two children, only marked
+        assertFalse(tree.find(9));
+        assertFalse(tree.delete(9));
+        assertTrue(tree.delete(3));   // a leaf, unlinked right away
+        assertTrue(tree.insert(9));   // brings the marked node back
+        assertEquals("(4)(7)(8)(9)(10)", tree.inOrder());
+        assertEquals(5, tree.size());
+        assertEquals(3, tree.height());
+    }
+
+    /**
+     * Stress test for the concurrent tree. Each writer thread owns its own keys, so the results it sees must match a
+     * plain set replayed in its own order. At the same time, readers check keys that are never touched after setup (always
+     * found) or never inserted (never found), and racing threads fighting over shared keys must see each insert and
+     * delete succeed exactly once.
+     */
+    @Test(timeout = 20000)
+    public void testConcurrentTreeStress() throws Exception {
+        final ConcurrentBinarySearchTree<Integer> tree = new ConcurrentBinarySearchTree<Integer>();
+        final int writers = 4;
+        for (int i = 0; i < 1000; i++)
+            tree.insert(-1 - i * 2);   // odd negative keys stay in the tree the whole time
+        final AtomicBoolean failed = new AtomicBoolean();
+        final AtomicInteger sharedInserts = new AtomicInteger();
+        final AtomicInteger sharedDeletes = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CyclicBarrier inserted = new CyclicBarrier(writers);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int w = 0; w < writers; w++) {
+            final int id = w;
+            threads.add(new Thread(() -> {
+                Random random = new Random(id);
+                TreeSet<Integer> mine = new TreeSet<Integer>();
+                awaitQuietly(start);
+                for (int i = 0; i < 50000; i++) {
+                    int key = random.nextInt(2000) * writers + id;   // keys only this thread uses
+                    boolean expected;
+                    boolean actual;
+                    switch (random.nextInt(3)) {
+                        case 0:
+                            expected = mine.add(key);
+                            actual = tree.insert(key);
+                            break;
+                        case 1:
+                            expected = mine.remove(key);
+                            actual = tree.delete(key);
+                            break;
+                        default:
+                            expected = mine.contains(key);
+                            actual = tree.find(key);
+                    }
+                    if (expected != actual)
+                        failed.set(true);
+                }
+                for (int key = 1000000; key < 1001000; key++) {   // every thread races for the same keys
+                    if (tree.insert(key))
+                        sharedInserts.incrementAndGet();
+                }
+                try {
+                    inserted.await();   // all inserts are done before anyone deletes
+                } catch (Exception e) {
+                    failed.set(true);
+                }
+                for (int key = 1000000; key < 1001000; key++) {
+                    if (tree.delete(key))
+                        sharedDeletes.incrementAndGet();
+                }
+                for (int key : mine)   // what this thread believes is in the tree
+                    if (!tree.find(key))
+                        failed.set(true);
+            }));
+        }
+        for (int r = 0; r < 2; r++) {
+            threads.add(new Thread(() -> {
+                awaitQuietly(start);
+                for (int round = 0; round < 100; round++) {
+                    for (int i = 0; i < 1000; i++) {
+                        if (!tree.find(-1 - i * 2) || tree.find(-2 - i * 2))
+                            failed.set(true);
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads)
+            thread.start();
+        start.countDown();
+        for (Thread thread : threads)
+            thread.join();
+        assertFalse(failed.get());
+        assertEquals(1000, sharedInserts.get());   // each shared key went in exactly once
+        assertEquals(1000, sharedDeletes.get());   // and came out exactly once
+        int count = 0;
+        for (String part : tree.inOrder().split("\\)"))
+            count += part.isEmpty() ? 0 : 1;
+        assertEquals(tree.size(), count);
+    }
+
+    /**
+     * Waits for a latch, for the worker threads of the stress tests
+     * 
+     * @param latch The latch to wait for
+     */
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Testing that snapshots of the persistent tree don't see later changes
+     */
+    @Test(timeout = 1000)
+    public void testPersistentSnapshots() {
+        PersistentBinarySearchTree<Integer> tree = new PersistentBinarySearchTree<Integer>();
+        for (int i = 1; i <= 7; i++)
+            assertTrue(tree.insert(i));
+        assertFalse(tree.insert(3));
+        assertEquals("(1)(3)(2)(5)(7)(6)(4)", tree.postOrder());   // kept balanced
+        PersistentBinarySearchTree<Integer> snapshot = tree.snapshot();
+        Iterator<Integer> reader = tree.iterator();
+        assertTrue(tree.delete(4));   // the root, which has two children
+        assertTrue(tree.insert(8));
+        assertEquals("(1)(2)(3)(5)(6)(7)(8)", tree.inOrder());
+        assertEquals("(1)(2)(3)(4)(5)(6)(7)", snapshot.inOrder());   // unchanged
+        int count = 0;
+        while (reader.hasNext()) {   // an iterator keeps the version it started on
+            reader.next();
+            count++;
+        }
+        assertEquals(7, count);
+        assertTrue(snapshot.delete(1));   // writing to the snapshot leaves the tree alone
+        assertTrue(tree.find(1));
+        for (int i = 9; i < 10000; i++)
+            tree.insert(i);
+        for (int i = 9; i < 10000; i += 3)
+            assertTrue(tree.delete(i));
+        assertEquals(6667, tree.size());
+        assertTrue(tree.height() <= 17);
+        assertEquals(6, snapshot.size());
+    }
+
+    /**
+     * Testing floor, ceiling, lower, higher, min and max
+     */
+    @Test(timeout = 100)
+    public void testNavigation() {
+        BinarySearchTree<Integer> tree = new BinarySearchTree<Integer>();
+        assertNull(tree.min());
+        assertNull(tree.floor(5));
+        int[] values = { 50, 20, 80, 10, 30, 70, 90 };
+        for (int v : values)
+            tree.insert(v);
+        assertEquals(Integer.valueOf(10), tree.min());
+        assertEquals(Integer.valueOf(90), tree.max());
+        assertEquals(Integer.valueOf(30), tree.floor(30));
+        assertEquals(Integer.valueOf(30), tree.floor(45));
+        assertEquals(Integer.valueOf(20), tree.lower(30));
+        assertEquals(Integer.valueOf(70), tree.ceiling(55));
+        assertEquals(Integer.valueOf(80), tree.higher(70));
+        assertNull(tree.floor(5));   // everything is larger
+        assertNull(tree.higher(90));
+    }
+
+    /**
+     * Testing range scans and range counts
+     */
+    @Test(timeout = 1000)
+    public void testRange() {
+        BinarySearchTree<Integer> tree = new BinarySearchTree<Integer>(BinarySearchTree.Balancing.AVL);
+        for (int i = 0; i < 1000; i += 10)
+            tree.insert(i);
+        StringBuilder scanned = new StringBuilder();
+        Iterator<Integer> it = tree.range(25, 60);
+        while (it.hasNext())
+            scanned.append("(" + it.next() + ")");
+        assertEquals("(30)(40)(50)(60)", scanned.toString());   // both ends included
+        assertEquals(4, tree.rangeCount(25, 60));
+        assertEquals(100, tree.rangeCount(-5, 5000));
+        assertEquals(1, tree.rangeCount(990, 990));
+        assertEquals(0, tree.rangeCount(60, 25));
+        assertFalse(tree.range(991, 999).hasNext());
+    }
+
+    /**
+     * Testing the batch versions of find, insert and delete
+     */
+    @Test(timeout = 1000)
+    public void testBatches() {
+        BinarySearchTree<Integer> tree = new BinarySearchTree<Integer>(BinarySearchTree.Balancing.AVL);
+        tree.insert(50);
+        List<Integer> batch = new ArrayList<Integer>();
+        for (int i = 0; i < 1000; i++)
+            batch.add((i * 37) % 1000);   // every key below 1000, shuffled
+        batch.add(50);   // already in the tree
+        assertEquals(999, tree.insertAll(batch));
+        assertEquals(1000, tree.size());
+        assertTrue(tree.height() <= 14);   // still balanced
+        BitSet hits = tree.findAll(Arrays.asList(5, 2000, null, 999, 5));
+        assertEquals("{0, 3, 4}", hits.toString());
+        List<Integer> evens = new ArrayList<Integer>();
+        for (int i = 0; i < 2000; i += 2)
+            evens.add(i);
+        assertEquals(500, tree.deleteAll(evens));   // only the ones below 1000 were there
+        assertEquals(500, tree.size());
+        assertTrue(tree.height() <= 12);
+        assertFalse(tree.find(500));
+        assertTrue(tree.find(501));
+        assertEquals(Integer.valueOf(1), tree.min());
+    }
+
+    /**
+     * Testing union, intersection and difference, which run in parallel on trees this large, and split and join
+     */
+    @Test(timeout = 10000)
+    public void testSetAlgebra() {
+        BinarySearchTree<Integer> multiples = new BinarySearchTree<Integer>(BinarySearchTree.Balancing.AVL);
+        BinarySearchTree<Integer> evens = new BinarySearchTree<Integer>();
+        for (int i = 0; i < 30000; i += 3)
+            multiples.insert(i);
+        for (int i = 0; i < 30000; i += 2)
+            evens.insert(i);   // sorted into an unbalanced tree, 15000 levels tall
+        BinarySearchTree<Integer> union = new BinarySearchTree<Integer>(BinarySearchTree.Balancing.AVL);
+        assertTrue(union.union(multiples));
+        assertTrue(union.union(evens));
+        assertFalse(union.union(evens));
+        assertEquals(20000, union.size());   // 10000 + 15000 - 5000 multiples of six
+        assertTrue(union.height() <= 20);
+        assertEquals(15000, evens.size());   // the other tree is left as it was
+        assertEquals(15000, evens.height());
+        BinarySearchTree<Integer> sixes = new BinarySearchTree<Integer>(BinarySearchTree.Balancing.AVL);
+        sixes.union(multiples);
+        assertTrue(sixes.intersection(evens));
+        assertEquals(5000, sixes.size());
+        assertTrue(sixes.find(29994));
+        assertFalse(sixes.find(3));
+        assertTrue(multiples.difference(evens));
+        assertEquals(5000, multiples.size());   // the odd multiples of three
+        assertTrue(multiples.find(3));
+        assertFalse(multiples.find(6));
+        assertFalse(multiples.difference(evens));
+        BinarySearchTree<Integer> upper = union.split(15000);
+        assertEquals(Integer.valueOf(15000), union.max());
+        assertEquals(Integer.valueOf(15002), upper.min());
+        assertEquals(20000, union.size() + upper.size());
+        assertNull(BinarySearchTree.join(union, 15001, union));
+        assertNull(BinarySearchTree.join(union, 15000, upper));   // already in the left tree
+        BinarySearchTree<Integer> joined = BinarySearchTree.join(union, 15001, upper);
+        assertEquals(20001, joined.size());
+        assertEquals(0, union.size());
+        assertEquals(0, upper.size());
+        assertTrue(joined.find(15001));
+        assertTrue(joined.height() <= 20);
+    }
+
+    /**
+     * Testing saving a tree to a file and searching it mapped into memory
+     */
+    @Test(timeout = 2000)
+    public void testMappedTree() throws IOException {
+        Path file = Files.createTempFile("tree", ".bst");
+        try {
+            BinarySearchTree<Long> tree = new BinarySearchTree<Long>(BinarySearchTree.Balancing.AVL);
+            for (long i = 0; i < 5000; i++)
+                tree.insert(i * 2 + 1);   // 10 pages of 512 keys
+            MappedBinarySearchTree.save(tree, KeyCodec.LONG, file);
+            try (MappedBinarySearchTree<Long> mapped = MappedBinarySearchTree.open(file, KeyCodec.LONG)) {
+                assertEquals(5000, mapped.size());
+                for (long i = 0; i <= 10000; i++)
+                    assertEquals(i % 2 == 1, mapped.find(i));   // every odd number up to 9999
+                assertEquals(Long.valueOf(1025), mapped.select(512));   // first key of the second page
+                assertNull(mapped.select(5000));
+                assertEquals(512, mapped.rank(1025L));
+                assertEquals(513, mapped.rank(1026L));
+                assertEquals(5000, mapped.rank(20000L));
+                Iterator<Long> it = mapped.iterator();
+                assertEquals(Long.valueOf(1), it.next());
+                assertEquals(Long.valueOf(3), it.next());
+                BinarySearchTree<Long> loaded = mapped.toBinarySearchTree(BinarySearchTree.Balancing.AVL);
+                assertEquals(tree.toString(), loaded.toString());
+                assertEquals(13, loaded.height());
+            }
+            try {
+                MappedBinarySearchTree.open(file, KeyCodec.INTEGER);
+                fail("the key width doesn't match");
+            } catch (IOException e) {
+                // expected
+            }
+            MappedBinarySearchTree.save(new BinarySearchTree<Long>(), KeyCodec.LONG, file);
+            MappedBinarySearchTree<Long> empty = MappedBinarySearchTree.open(file, KeyCodec.LONG);
+            assertEquals(0, empty.size());
+            assertFalse(empty.find(1L));
+            empty.close();
+            try {
+                empty.size();
+                fail("a closed tree can't be used");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Testing that the durable tree recovers its elements from the checkpoint and the log, torn records included
+     */
+    @Test(timeout = 10000)
+    public void testDurableTree() throws IOException {
+        Path directory = Files.createTempDirectory("durable");
+        try {
+            DurableBinarySearchTree<Integer> tree = DurableBinarySearchTree.open(directory, KeyCodec.INTEGER, 16, 1000);
+            for (int i = 0; i < 2500; i++)
+                assertTrue(tree.insert(i));
+            assertFalse(tree.insert(7));
+            for (int i = 0; i < 2500; i += 2)
+                assertTrue(tree.delete(i));
+            assertFalse(tree.delete(0));
+            assertEquals(1250, tree.size());
+            assertTrue(tree.logLength() < 1000);   // checkpoints keep the log short
+            tree.sync();
+            // a crash: open the directory again without closing the first tree
+            DurableBinarySearchTree<Integer> recovered = DurableBinarySearchTree.open(directory, KeyCodec.INTEGER, 16,
+                    1000);
+            assertEquals(1250, recovered.size());
+            assertEquals(tree.toString(), recovered.toString());
+            assertTrue(recovered.find(2499));
+            assertFalse(recovered.find(2498));
+            assertTrue(recovered.insert(2498));
+            recovered.close();
+            try {
+                recovered.find(1);
+                fail("a closed tree can't be used");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+            // a record torn halfway through is dropped
+            Files.write(directory.resolve(DurableBinarySearchTree.LOG), new byte[] { 1, 5, 0 },
+                    StandardOpenOption.APPEND);
+            DurableBinarySearchTree<Integer> reopened = DurableBinarySearchTree.open(directory, KeyCodec.INTEGER, 16,
+                    1000);
+            assertEquals(1251, reopened.size());
+            assertTrue(reopened.find(2498));
+            reopened.checkpoint();
+            assertEquals(0, reopened.logLength());
+            assertTrue(reopened.delete(2498));
+            reopened.close();
+            DurableBinarySearchTree<Integer> last = DurableBinarySearchTree.open(directory, KeyCodec.INTEGER, 16, 1000);
+            assertEquals(1250, last.size());
+            assertEquals(1, last.logLength());
+            last.close();
+        } finally {
+            for (String name : new String[] { DurableBinarySearchTree.LOG, DurableBinarySearchTree.CHECKPOINT })
+                Files.deleteIfExists(directory.resolve(name));
+            Files.delete(directory);
+        }
+    }
+
+    /**
+     * Testing the counters and histograms the metrics keep, snapshots, and registering them with JMX
+     */
+    @Test(timeout = 2000)
+    public void testMetrics() {
+        BinarySearchTree<Integer> tree = new BinarySearchTree<Integer>(BinarySearchTree.Balancing.AVL);
+        assertNull(tree.getMetrics());
+        TreeMetrics metrics = tree.enableMetrics();
+        assertSame(metrics, tree.enableMetrics());
+        for (int i = 1; i <= 7; i++)
+            tree.insert(i);   // sorted input, rebalanced with 4 single rotations
+        assertEquals(7, metrics.getInserts());
+        assertEquals(4, metrics.getRotations());
+        assertEquals(3, tree.height());
+        assertTrue(tree.find(1));   // the root is 4, then 2, then 1
+        assertFalse(tree.find(8));   // 4, 6, 7
+        assertEquals(2, metrics.getFinds());
+        assertEquals(2, metrics.getFindPathLengths()[3]);
+        assertEquals(3.0, metrics.meanPathLength(TreeMetrics.Operation.FIND), 0.0);
+        assertTrue(tree.delete(4));   // two children: 4 is compared, then the walk goes on to 5
+        assertEquals(1, metrics.getDeletePathLengths()[3]);
+        TreeMetrics before = metrics.snapshot();
+        assertEquals(21, before.getComparisons());   // 14 for the inserts, 6 for the finds, 1 for the delete
+        assertNull(before.getLeafDepths());
+        assertArrayEquals(new long[] { 0, 0, 3 }, tree.leafDepths());
+        assertArrayEquals(new long[] { 0, 0, 3 }, metrics.getLeafDepths());
+        assertTrue(metrics.register("testMetrics"));
+        assertFalse(metrics.register("testMetrics"));
+        tree.find(2);
+        assertEquals(2, before.getFinds());   // the snapshot doesn't move
+        assertEquals(3, metrics.getFinds());
+        metrics.reset();
+        assertEquals(0, metrics.getComparisons());
+        tree.disableMetrics();
+        assertNull(tree.getMetrics());
+        assertFalse(metrics.unregister());
+        tree.find(2);
+        assertEquals(0, metrics.getFinds());
+        BinarySearchTree<Integer> list = new BinarySearchTree<Integer>(BinarySearchTree.Balancing.NONE);
+        TreeMetrics deep = list.enableMetrics();
+        for (int i = 1; i <= 100; i++)
+            list.insert(i);   // sorted input without balancing, a path of 100 nodes
+        assertTrue(list.find(100));
+        assertEquals(1, deep.getFindPathLengths()[TreeMetrics.BUCKETS - 1]);   // the histogram caps it
+        assertEquals(100.0, deep.meanPathLength(TreeMetrics.Operation.FIND), 0.0);   // the mean doesn't
+    }
+
+    /**
+     * Testing searches on frozen copies of a tree, with references and with packed keys
+     */
+    @Test(timeout = 1000)
+    public void testFrozenTree() {
+        BinarySearchTree<Integer> tree = new BinarySearchTree<Integer>();
+        for (int i = 0; i < 1000; i++)
+            tree.insert((i * 7) % 1000 * 2);   // the even numbers below 2000
+        FrozenTree<Integer> frozen = tree.freeze();
+        FrozenTree<Integer> packed = tree.freeze(KeyCodec.INTEGER);
+        assertEquals(1000, frozen.size());
+        assertEquals(10, frozen.height());
+        for (int i = -1; i <= 2000; i++) {
+            assertEquals(i >= 0 && i % 2 == 0 && i < 2000, frozen.contains(i));
+            assertEquals(tree.floor(i), frozen.floor(i));
+            assertEquals(tree.ceiling(i), frozen.ceiling(i));
+            assertEquals(frozen.contains(i), packed.contains(i));
+            assertEquals(frozen.floor(i), packed.floor(i));
+        }
+        assertEquals(tree.toString(), frozen.toString());
+        assertEquals(tree.toString(), packed.toString());
+        assertEquals(tree.toString(), frozen.thaw(BinarySearchTree.Balancing.AVL).toString());
+        tree.insert(1);
+        assertFalse(frozen.find(1));   // a copy, not a view
+        FrozenTree<Integer> empty = new BinarySearchTree<Integer>().freeze();
+        assertFalse(empty.contains(1));
+        assertNull(empty.floor(1));
+        assertNull(empty.ceiling(1));
+        assertEquals("", empty.toString());
+        KeyCodec<Integer> wide = new KeyCodec<Integer>() {   // 3 slots of 2^30 bytes overflow an int
+            public int width() {
+                return 1 << 30;
+            }
+
+            public void encode(Integer key, ByteBuffer buffer, int offset) {
+                fail("nothing should be encoded");
+            }
+
+            public Integer decode(ByteBuffer buffer, int offset) {
+                return null;
+            }
+        };
+        BinarySearchTree<Integer> two = new BinarySearchTree<Integer>();
+        two.insert(1);
+        two.insert(2);
+        try {
+            two.freeze(wide);
+            fail("the packed keys don't fit in one buffer");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Testing that the splay tree moves what it reaches to the root
+     */
+    @Test(timeout = 1000)
+    public void testSplayTree() {
+        BinarySearchTree<Integer> tree = new BinarySearchTree<Integer>(BinarySearchTree.Balancing.SPLAY);
+        for (int i = 1; i <= 1000; i++)
+            assertTrue(tree.insert(i));   // every new element becomes the root
+        assertFalse(tree.insert(500));
+        assertEquals(Integer.valueOf(500), tree.getRoot().getData());
+        assertTrue(tree.find(1));
+        assertEquals(Integer.valueOf(1), tree.getRoot().getData());
+        assertTrue(tree.height() < 600);   // splaying the deepest node roughly halved the height
+        TreeMetrics metrics = tree.enableMetrics();
+        for (int i = 0; i < 10; i++)
+            assertTrue(tree.find(777));
+        assertEquals(9, metrics.getFindPathLengths()[1]);   // after the first find, 777 is at the root
+        assertFalse(tree.find(1001));
+        assertEquals(Integer.valueOf(1000), tree.getRoot().getData());
+        assertTrue(tree.delete(777));
+        assertFalse(tree.find(777));
+        assertTrue(tree.delete(1));
+        assertEquals(998, tree.size());
+        assertEquals(Integer.valueOf(2), tree.min());
+        assertEquals(Integer.valueOf(500), tree.select(498));   // 2 to 500 come first
+        assertEquals(BinarySearchTree.Balancing.SPLAY, tree.getBalancing());
+    }
+
+    /**
+     * Testing that lazy deletion leaves tombstones and sweeps them once there are enough
+     */
+    @Test(timeout = 1000)
+    public void testLazyDeletion() {
+        BinarySearchTree<Integer> tree = new BinarySearchTree<Integer>(BinarySearchTree.Balancing.AVL);
+        assertFalse(tree.enableLazyDeletion(0));
+        assertTrue(tree.enableLazyDeletion(1));   // never sweeps, so the tombstones can be seen
+        for (int i = 1; i <= 100; i++)
+            tree.insert(i);
+        int height = tree.height();
+        for (int i = 2; i <= 100; i += 2)
+            assertTrue(tree.delete(i));
+        assertFalse(tree.delete(50));
+        assertEquals(50, tree.tombstones());
+        assertEquals(height, tree.height());   // nothing was unlinked
+        assertEquals(50, tree.size());
+        assertFalse(tree.find(50));
+        assertTrue(tree.find(51));
+        assertEquals("(1)(3)(5)", tree.inOrder().substring(0, 9));
+        assertEquals(50, tree.stream().count());
+        assertEquals(Integer.valueOf(99), tree.max());
+        assertEquals(Integer.valueOf(49), tree.floor(50));
+        assertEquals(Integer.valueOf(51), tree.higher(49));
+        assertEquals(Integer.valueOf(21), tree.select(10));
+        assertEquals(25, tree.rank(50));
+        assertTrue(tree.insert(50));   // brings the tombstone back
+        assertEquals(49, tree.tombstones());
+        assertEquals(51, tree.size());
+        tree.enableLazyDeletion(0.25);
+        assertTrue(tree.delete(1));   // pushes the share past the threshold and starts a sweep
+        for (int i = 101; i <= 104; i++)
+            tree.insert(i);   // each call unlinks the tombstones among the next few nodes
+        assertEquals(0, tree.tombstones());
+        assertEquals(54, tree.size());
+        assertFalse(tree.find(1));
+        assertTrue(tree.delete(3));
+        tree.disableLazyDeletion();   // rebuilds without the tombstone
+        assertEquals(0, tree.tombstones());
+        assertEquals(53, tree.size());
+        assertTrue(tree.delete(5));
+        assertEquals(0, tree.tombstones());
+        assertEquals(52, tree.size());
+    }
+
+    /**
+     * Testing building a tree and a mapped index from unsorted keys on disk, through sorted runs that are merged
+     */
+    @Test(timeout = 5000)
+    public void testExternalSort() throws IOException {
+        Path keys = Files.createTempFile("keys", ".bin");
+        Path index = Files.createTempFile("sorted", ".bst");
+        try {
+            ByteBuffer dump = ByteBuffer.allocate(40000 * 4).order(ByteOrder.LITTLE_ENDIAN);
+            Random random = new Random(21);
+            TreeSet<Integer> expected = new TreeSet<Integer>();
+            for (int i = 0; i < 40000; i++) {
+                int key = random.nextInt(30000);   // plenty of duplicates
+                dump.putInt(key);
+                expected.add(key);
+            }
+            Files.write(keys, dump.array());
+            // the smallest budget sorts runs of under 2000 keys, more than one pass can merge
+            BinarySearchTree<Integer> tree = ExternalSorter.toTree(keys, KeyCodec.INTEGER, 0,
+                    BinarySearchTree.Balancing.AVL);
+            assertEquals(expected.size(), tree.size());
+            assertEquals(new ArrayList<Integer>(expected), tree.stream().collect(Collectors.toList()));
+            assertEquals(32 - Integer.numberOfLeadingZeros(expected.size()), tree.height());   // as short as it can be
+            assertTrue(tree.insert(30000));   // a working AVL tree
+            ExternalSorter.toIndex(keys, KeyCodec.INTEGER, 1 << 20, index);
+            try (MappedBinarySearchTree<Integer> mapped = MappedBinarySearchTree.open(index, KeyCodec.INTEGER)) {
+                assertEquals(expected.size(), mapped.size());
+                assertEquals(expected.first(), mapped.select(0));
+                assertEquals(expected.last(), mapped.select(expected.size() - 1));
+            }
+            assertEquals(0, ExternalSorter.toTree(new ByteArrayInputStream(new byte[0]), KeyCodec.INTEGER, 0,
+                    BinarySearchTree.Balancing.NONE).size());
+            try {
+                ExternalSorter.toTree(new ByteArrayInputStream(new byte[6]), KeyCodec.INTEGER, 0,
+                        BinarySearchTree.Balancing.NONE);
+                fail("the input ends in the middle of a key");
+            } catch (IOException e) {
+                // expected
+            }
+        } finally {
+            Files.deleteIfExists(keys);
+            Files.deleteIfExists(index);
+        }
+    }
+
+    /**
+     * Testing the sharded tree: routing calls to shards, rebalancing them, and iterating across them
+     */
+    @Test(timeout = 5000)
+    public void testShardedTree() {
+        ShardedBinarySearchTree<Integer> tree = new ShardedBinarySearchTree<Integer>(4);
+        try {
+            List<Integer> keys = new ArrayList<Integer>();
+            for (int i = 0; i < 20000; i++)
+                keys.add(i);
+            Collections.shuffle(keys, new Random(22));
+            assertEquals(Integer.valueOf(20000), tree.insertAll(keys).join());
+            assertEquals(20000, tree.size());
+            assertArrayEquals(new int[] { 20000, 0, 0, 0 }, tree.shardSizes());   // nothing spread out yet
+            assertTrue(tree.delete(7).join());   // the first shard grew too large, so this call rebalances first
+            assertArrayEquals(new int[] { 4999, 5000, 5000, 5000 }, tree.shardSizes());
+            assertFalse(tree.find(7).join());
+            assertTrue(tree.find(19999).join());
+            assertTrue(tree.insert(7).join());
+            assertFalse(tree.insert(15000).join());
+            List<CompletableFuture<Boolean>> deletes = new ArrayList<CompletableFuture<Boolean>>();
+            for (int i = 0; i < 20000; i += 2)
+                deletes.add(tree.delete(i));
+            for (CompletableFuture<Boolean> done : deletes)
+                assertTrue(done.join());
+            int expected = 1;
+            for (int key : tree) {   // in order across the shards
+                assertEquals(expected, key);
+                expected += 2;
+            }
+            assertEquals(20001, expected);
+            assertEquals(Integer.valueOf(3), tree.deleteAll(Arrays.asList(1, 3, 5, 6)).join());
+            assertEquals(9997, tree.size());
+        } finally {
+            tree.close();
+        }
+        try {
+            tree.find(1);
+            fail("a closed tree can't be used");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Testing continuations that wait on the sharded tree, which must not run on the worker they wait for
+     */
+    @Test(timeout = 10000)
+    public void testShardedTreeContinuations() {
+        ShardedBinarySearchTree<Integer> tree = new ShardedBinarySearchTree<Integer>(2);
+        try {
+            List<Integer> keys = new ArrayList<Integer>();
+            for (int i = 0; i < 10000; i++)
+                keys.add(i);
+            assertEquals(Integer.valueOf(10000), tree.insertAll(keys).join());
+            // continuations that wait on the index, which would stall a worker that completed their future
+            assertTrue(tree.insert(-1).thenCompose(x -> {
+                tree.rebalance();
+                return tree.find(-1);
+            }).join());
+            assertArrayEquals(new int[] { 5000, 5001 }, tree.shardSizes());
+            assertTrue(tree.find(0).thenApply(x -> tree.find(1).join() && tree.find(9999).join()).join());
+        } finally {
+            tree.close();
+        }
+    }
+
+    /**
+     * Testing the String tree against a TreeSet, with long shared prefixes and keys that differ only in a zero char
+     */
+    @Test(timeout = 1000)
+    public void testStringTree() {
+        StringBinarySearchTree tree = new StringBinarySearchTree();
+        assertNull(tree.inOrder());
+        TreeSet<String> expected = new TreeSet<String>();
+        Random random = new Random(23);
+        for (int i = 0; i < 2000; i++) {   // long shared prefixes, and keys that differ only in length or a zero char
+            String key = "/srv/data/p" + random.nextInt(4) + "/file" + random.nextInt(300);
+            if (i % 3 == 0)
+                key += i % 2 == 0 ? "\0" : "\0\0";
+            assertEquals(expected.add(key), tree.insert(key));
+        }
+        assertEquals(expected.size(), tree.size());
+        assertTrue(tree.height() <= 2 * 11);
+        for (int i = 0; i < 1000; i++) {
+            String key = "/srv/data/p" + random.nextInt(4) + "/file" + random.nextInt(300);
+            assertEquals(expected.remove(key), tree.delete(key));
+            assertFalse(tree.find(key));
+        }
+        StringBuilder order = new StringBuilder();
+        for (String key : expected) {
+            assertTrue(tree.find(key));
+            order.append('(').append(key).append(')');
+        }
+        assertEquals(order.toString(), tree.inOrder());   // same order as String.compareTo
+        assertFalse(tree.insert(null));
+        assertFalse(tree.find(null));
+    }
+
+    /**
+     * Testing that subtree hashes depend only on the elements, not the shape, and that diff finds what differs
+     */
+    @Test(timeout = 1000)
+    public void testTreeHashes() {
+        BinarySearchTree<Integer> avl = new BinarySearchTree<Integer>(BinarySearchTree.Balancing.AVL);
+        BinarySearchTree<Integer> plain = new BinarySearchTree<Integer>();
+        assertEquals(0, avl.rootHash());
+        assertTrue(avl.diff(plain).isEmpty());
+        for (int i = 0; i < 1000; i++) {
+            avl.insert(i);
+            plain.insert((i * 37) % 1000);   // same keys, different shape
+        }
+        assertEquals(avl.rootHash(), plain.rootHash());
+        assertTrue(avl.diff(plain).isEmpty());
+        assertTrue(plain.delete(500));
+        assertTrue(plain.insert(2000));
+        avl.enableLazyDeletion(0.5);
+        assertTrue(avl.delete(7));   // a tombstone holds no element
+        assertTrue(avl.rootHash() != plain.rootHash());
+        assertEquals(avl.rangeHash(0, 6), plain.rangeHash(0, 6));
+        assertTrue(avl.rangeHash(0, 7) != plain.rangeHash(0, 7));
+        assertEquals(Arrays.asList(7, 500, 2000), avl.diff(plain));
+        assertEquals(Arrays.asList(7, 500, 2000), plain.diff(avl));
+        for (int key : avl.diff(plain)) {   // sync plain with avl
+            if (avl.find(key))
+                plain.insert(key);
+            else
+                plain.delete(key);
+        }
+        assertEquals(avl.rootHash(), plain.rootHash());
+        assertEquals(avl.inOrder(), plain.inOrder());
+    }
+
+    /**
+     * Testing that elements with equal hashCodes still hash differently, since the hashes come from their contents
+     */
+    @Test(timeout = 1000)
+    public void testTreeHashCollisions() {
+        BinarySearchTree<String> aa = new BinarySearchTree<String>();
+        BinarySearchTree<String> bb = new BinarySearchTree<String>();
+        for (String key : new String[] { "/a/b", "/c/d" }) {
+            aa.insert(key);
+            bb.insert(key);
+        }
+        aa.insert("Aa");
+        bb.insert("BB");   // "Aa".hashCode() == "BB".hashCode()
+        assertTrue(aa.rootHash() != bb.rootHash());
+        assertEquals(Arrays.asList("Aa", "BB"), aa.diff(bb));
+        BinarySearchTree<Long> low = new BinarySearchTree<Long>();
+        BinarySearchTree<Long> high = new BinarySearchTree<Long>();
+        low.insert(5L);
+        low.insert(0L);
+        high.insert(5L);
+        high.insert(1L << 32 | 1);   // same Long.hashCode() as 0
+        assertTrue(low.rootHash() != high.rootHash());
+        assertEquals(Arrays.asList(0L, 1L << 32 | 1), low.diff(high));
+        long byContents = low.rootHash();
+        low.setHasher(BinarySearchTree.hasher(KeyCodec.LONG, 42, 43));   // a keyed hash of the encoded elements
+        high.setHasher(BinarySearchTree.hasher(KeyCodec.LONG, 42, 43));
+        assertTrue(low.rootHash() != byContents);
+        assertTrue(low.rootHash() != high.rootHash());
+        assertEquals(Arrays.asList(0L, 1L << 32 | 1), low.diff(high));
+        BinarySearchTree<UUID> ids = new BinarySearchTree<UUID>();
+        ids.insert(new UUID(1, 2));
+        try {
+            ids.rootHash();
+            fail("a UUID has no content hash of its own");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Testing that decoding an encoded tree gives back the same shape and balancing, and that damaged input is rejected
+     */
+    @Test(timeout = 1000)
+    public void testEncodeDecode() {
+        BinarySearchTree<Integer> plain = new BinarySearchTree<Integer>();
+        for (int key : new int[] { 50, 30, 70, 20, 40, 80, 35, 90 })
+            plain.insert(key);
+        byte[] encoded = plain.encode(KeyCodec.INTEGER);
+        assertEquals(16 + 2 + 8 * 4, encoded.length);   // header, two bits per node, the keys
+        BinarySearchTree<Integer> copy = BinarySearchTree.decode(encoded, KeyCodec.INTEGER);
+        assertEquals(BinarySearchTree.Balancing.NONE, copy.getBalancing());
+        assertEquals(plain.postOrder(), copy.postOrder());   // the same shape, not just the same keys
+        assertEquals(plain.height(), copy.height());
+        assertEquals(plain.rootHash(), copy.rootHash());
+        assertTrue(copy.insert(60));
+        assertFalse(plain.find(60));
+        BinarySearchTree<Long> empty = BinarySearchTree.decode(
+                new BinarySearchTree<Long>(BinarySearchTree.Balancing.SPLAY).encode(KeyCodec.LONG), KeyCodec.LONG);
+        assertEquals(0, empty.size());
+        assertEquals(BinarySearchTree.Balancing.SPLAY, empty.getBalancing());
+        assertNull(BinarySearchTree.decode(encoded, KeyCodec.LONG));   // keys of the wrong width
+        assertNull(BinarySearchTree.decode(Arrays.copyOf(encoded, encoded.length - 1), KeyCodec.INTEGER));
+        encoded[16] = 0;   // the first nodes claim no children, leaving subtrees that are never joined up
+        assertNull(BinarySearchTree.decode(encoded, KeyCodec.INTEGER));
+    }
 }
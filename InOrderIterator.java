@@ -0,0 +1,148 @@
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * In Order Iterator Lazily walks a tree from the smallest to the largest element. The walk keeps its own stack of at
+ * most height() nodes instead of recursing, and does no work until next() asks for the next element. The tree must not
+ * be changed while an iterator is in use.
+ * 
+ * @author Serena Jiao, yj5qe
+ * @param <T> The type of data stored in the tree
+ */
+class InOrderIterator<T extends Comparable<T>> implements Iterator<T> {
+
+    /**
+     * Nodes whose left subtree is being walked, the next node to return is on top
+     */
+    private TreeNode<T>[] stack;
+
+    /**
+     * Number of nodes on the stack
+     */
+    private int top;
+
+    /**
+     * The largest element to return, or null for no limit
+     */
+    private final T high;
+
+    /**
+     * Whether tombstones are returned too, rather than skipped
+     */
+    private final boolean tombstones;
+
+    /**
+     * Constructor Starts an iterator at the smallest element of the given subtree
+     * 
+     * @param root The root of the subtree to walk, may be null for an empty one
+     */
+    InOrderIterator(TreeNode<T> root) {
+        this(root, null, null);
+    }
+
+    /**
+     * Constructor Starts an iterator at the smallest element of the given subtree that is at least low, and stops it after
+     * the largest one that is at most high. Finding the start takes one walk down, skipping the subtrees that are
+     * entirely below low.
+     * 
+     * @param root The root of the subtree to walk, may be null for an empty one
+     * @param low  The smallest element to return, or null for no limit
+     * @param high The largest element to return, or null for no limit
+     */
+    InOrderIterator(TreeNode<T> root, T low, T high) {
+        this(root, low, high, false);
+    }
+
+    /**
+     * Constructor Like the one above, but optionally also returning tombstones, which the lazy deletion sweep of
+     * BinarySearchTree needs to find
+     * 
+     * @param root       The root of the subtree to walk, may be null for an empty one
+     * @param low        The smallest element to return, or null for no limit
+     * @param high       The largest element to return, or null for no limit
+     * @param tombstones Whether to return tombstones as well
+     */
+    @SuppressWarnings("unchecked")
+    InOrderIterator(TreeNode<T> root, T low, T high, boolean tombstones) {
+        stack = (TreeNode<T>[]) new TreeNode<?>[TreeNode.heightOf(root)];
+        this.high = high;
+        this.tombstones = tombstones;
+        TreeNode<T> node = root;
+        while (node != null) {
+            if (low != null && node.getData().compareTo(low) < 0) {
+                node = node.getRight();  // this node and its left subtree are too small
+            } else {
+                push(node);  // still needed, everything on its left is visited first
+                node = node.getLeft();
+            }
+        }
+        skipDeleted();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return top > 0 && (high == null || stack[top - 1].getData().compareTo(high) <= 0);
+    }
+
+    @Override
+    public T next() {
+        return nextNode().getData();
+    }
+
+    /**
+     * Returns the next node rather than its data
+     * 
+     * @return The node holding the next element
+     */
+    TreeNode<T> nextNode() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        TreeNode<T> node = pop();
+        skipDeleted();
+        return node;
+    }
+
+    /**
+     * Takes the node on top of the stack and moves on to the one after it
+     * 
+     * @return The node that was on top
+     */
+    private TreeNode<T> pop() {
+        TreeNode<T> node = stack[--top];
+        stack[top] = null;
+        pushLeft(node.getRight());  // everything in the right subtree comes before the rest of the stack
+        return node;
+    }
+
+    /**
+     * Moves past tombstones until the node on top of the stack holds an element, unless they are wanted
+     */
+    private void skipDeleted() {
+        while (!tombstones && top > 0 && stack[top - 1].isDeleted())
+            pop();
+    }
+
+    /**
+     * Pushes node and its chain of left children, so that the smallest of them ends up on top
+     * 
+     * @param node The root of the subtree to descend into
+     */
+    private void pushLeft(TreeNode<T> node) {
+        while (node != null) {
+            push(node);
+            node = node.getLeft();
+        }
+    }
+
+    /**
+     * Pushes one node on the stack
+     * 
+     * @param node The node to push
+     */
+    private void push(TreeNode<T> node) {
+        if (top == stack.length)
+            stack = Arrays.copyOf(stack, stack.length * 2 + 1);  // only if the stored heights are stale
+        stack[top++] = node;
+    }
+}
@@ -0,0 +1,99 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Key Codec Turns keys into a fixed number of bytes and back, so trees that keep their nodes outside the Java heap can
+ * store them. Codecs for Integer and Long keys are provided.
+ * 
+ * @author Serena Jiao, yj5qe
+ * @param <T> The type of key
+ */
+public interface KeyCodec<T extends Comparable<T>> {
+
+    /**
+     * Codec for Integer keys, 4 bytes each
+     */
+    KeyCodec<Integer> INTEGER = new KeyCodec<Integer>() {
+        @Override
+        public int width() {
+            return Integer.BYTES;
+        }
+
+        @Override
+        public void encode(Integer key, ByteBuffer buffer, int offset) {
+            buffer.putInt(offset, key);
+        }
+
+        @Override
+        public Integer decode(ByteBuffer buffer, int offset) {
+            return buffer.getInt(offset);
+        }
+
+        @Override
+        public int compare(ByteBuffer buffer, int offset, Integer key) {
+            return Integer.compare(buffer.getInt(offset), key);  // no need to box the stored key
+        }
+    };
+
+    /**
+     * Codec for Long keys, 8 bytes each
+     */
+    KeyCodec<Long> LONG = new KeyCodec<Long>() {
+        @Override
+        public int width() {
+            return Long.BYTES;
+        }
+
+        @Override
+        public void encode(Long key, ByteBuffer buffer, int offset) {
+            buffer.putLong(offset, key);
+        }
+
+        @Override
+        public Long decode(ByteBuffer buffer, int offset) {
+            return buffer.getLong(offset);
+        }
+
+        @Override
+        public int compare(ByteBuffer buffer, int offset, Long key) {
+            return Long.compare(buffer.getLong(offset), key);
+        }
+    };
+
+    /**
+     * The number of bytes every key takes
+     * 
+     * @return The width of an encoded key
+     */
+    int width();
+
+    /**
+     * Writes a key into the buffer
+     * 
+     * @param key    The key to write
+     * @param buffer Where to write it
+     * @param offset The position of the first byte, the buffer's own position is left alone
+     */
+    void encode(T key, ByteBuffer buffer, int offset);
+
+    /**
+     * Reads a key back from the buffer
+     * 
+     * @param buffer Where to read it from
+     * @param offset The position of the first byte, the buffer's own position is left alone
+     * @return The key
+     */
+    T decode(ByteBuffer buffer, int offset);
+
+    /**
+     * Compares a stored key with the given one. By default the stored key is decoded and compared with compareTo, codecs
+     * can override this to compare the bytes directly.
+     * 
+     * @param buffer Where the stored key is
+     * @param offset The position of its first byte
+     * @param key    The key to compare it with
+     * @return A negative number, zero or a positive number as the stored key is smaller than, equal to or larger than key
+     */
+    default int compare(ByteBuffer buffer, int offset, T key) {
+        return decode(buffer, offset).compareTo(key);
+    }
+}
@@ -0,0 +1,373 @@
+import java.util.Arrays;
+
+/**
+ * Long Binary Search Tree A binary search tree specialized for long keys. Instead of a TreeNode object and a boxed
+ * Long per key, nodes are slots in parallel arrays (key, left child, right child, height) and children are int indices,
+ * so a node costs 17 bytes and comparisons are plain long comparisons. The tree is always AVL balanced. Deleted slots
+ * are chained into a free list and reused by later inserts.
+ * 
+ * @author Serena Jiao, yj5qe
+ */
+public class LongBinarySearchTree {
+
+    /**
+     * Index that stands for "no node". Slot 0 is never used, its height stays 0.
+     */
+    private static final int NIL = 0;
+
+    /**
+     * Key stored in each slot
+     */
+    private long[] keys;
+
+    /**
+     * Index of the left child of each slot, or NIL
+     */
+    private int[] left;
+
+    /**
+     * Index of the right child of each slot, or NIL, also links the free list
+     */
+    private int[] right;
+
+    /**
+     * Height of the subtree rooted at each slot, never more than about 45 in an AVL tree
+     */
+    private byte[] height;
+
+    /**
+     * Index of the root, or NIL for an empty tree
+     */
+    private int root = NIL;
+
+    /**
+     * Number of keys in the tree
+     */
+    private int size;
+
+    /**
+     * First slot that has never been used
+     */
+    private int unused = 1;
+
+    /**
+     * Head of the list of slots freed by delete, or NIL
+     */
+    private int free = NIL;
+
+    /**
+     * Scratch buffer holding the path from the root during insert and delete
+     */
+    private int[] path = new int[16];
+
+    /**
+     * Default constructor Creates an empty tree
+     */
+    public LongBinarySearchTree() {
+        this(16);
+    }
+
+    /**
+     * Constructor Creates an empty tree with room for the given number of keys before the arrays have to grow
+     * 
+     * @param capacity The number of keys to make room for
+     */
+    public LongBinarySearchTree(int capacity) {
+        int slots = Math.max(capacity, 1) + 1;  // plus the NIL slot
+        keys = new long[slots];
+        left = new int[slots];
+        right = new int[slots];
+        height = new byte[slots];
+    }
+
+    /**
+     * Find if an element exists Checks to see if the value val appears in the tree
+     * 
+     * @param val The value to find
+     * @return True if the tree contains the value, false otherwise
+     */
+    public boolean find(long val) {
+        int node = root;
+        while (node != NIL) {
+            long key = keys[node];
+            if (val < key)
+                node = left[node];
+            else if (val > key)
+                node = right[node];
+            else
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Insert an element Inserts val into the tree where it should appear, returning true on success and false if it is
+     * already there
+     * 
+     * @param val The value to insert
+     * @return True on success, false if the value was already in the tree
+     */
+    public boolean insert(long val) {
+        if (root == NIL) {
+            root = newNode(val);
+            size++;
+            return true;
+        }
+        int[] path = pathFor(height[root]);
+        int depth = 0;
+        int node = root;
+        while (true) {
+            long key = keys[node];
+            if (val == key)   // duplicate
+                return false;
+            path[depth++] = node;
+            int next = val < key ? left[node] : right[node];
+            if (next == NIL) {   // found the empty spot
+                int created = newNode(val);
+                if (val < key)
+                    left[node] = created;
+                else
+                    right[node] = created;
+                break;
+            }
+            node = next;
+        }
+        size++;
+        fixPath(path, depth);
+        return true;
+    }
+
+    /**
+     * Delete an element from the tree Deletes val from the tree if it appears, returning true on success and false
+     * otherwise
+     * 
+     * @param val The value to delete
+     * @return True on success, false otherwise
+     */
+    public boolean delete(long val) {
+        if (root == NIL)
+            return false;
+        int[] path = pathFor(height[root]);
+        int depth = 0;
+        int node = root;
+        while (keys[node] != val) {
+            path[depth++] = node;
+            node = val < keys[node] ? left[node] : right[node];
+            if (node == NIL)   // the value does not exist
+                return false;
+        }
+        int removed = node;  // the slot that actually comes out of the tree
+        if (left[node] != NIL && right[node] != NIL) {
+            // two children: move the smallest key of the right subtree up and unlink its slot instead
+            path[depth++] = node;
+            removed = right[node];
+            while (left[removed] != NIL) {
+                path[depth++] = removed;
+                removed = left[removed];
+            }
+            keys[node] = keys[removed];
+        }
+        int child = left[removed] != NIL ? left[removed] : right[removed];
+        replaceChild(depth == 0 ? NIL : path[depth - 1], removed, child);
+        release(removed);
+        size--;
+        fixPath(path, depth);
+        return true;
+    }
+
+    /**
+     * The method will return an int that represents the size of the total tree
+     * 
+     * @return the number of keys in the tree
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * The method will return an int that represents the height of the total tree
+     * 
+     * @return the height of the tree, 0 when it is empty
+     */
+    public int height() {
+        return height[root];
+    }
+
+    /**
+     * Returns a String of the keys from the smallest to the largest in the same "(a)(b)(c)" format as
+     * BinarySearchTree.inOrder()
+     * 
+     * @return a string that traverses the tree from the smallest to the largest, or null if the tree is empty
+     */
+    public String inOrder() {
+        if (root == NIL)
+            return null;
+        StringBuilder out = new StringBuilder(size * 4);
+        int[] stack = new int[height[root]];
+        int top = 0;
+        int node = root;
+        while (node != NIL || top > 0) {
+            while (node != NIL) {  // go as far left as possible, remembering the way back
+                stack[top++] = node;
+                node = left[node];
+            }
+            node = stack[--top];
+            out.append('(').append(keys[node]).append(')');
+            node = right[node];
+        }
+        return out.toString();
+    }
+
+    /**
+     * toString method
+     */
+    @Override
+    public String toString() {
+        if (root == NIL)
+            return "";
+        return inOrder();
+    }
+
+    /**
+     * Takes a slot for a new leaf, from the free list if possible, growing the arrays when they are full
+     * 
+     * @param val The key for the new node
+     * @return The index of the new node
+     */
+    private int newNode(long val) {
+        int node = free;
+        if (node != NIL) {
+            free = right[node];
+        } else {
+            if (unused == keys.length) {
+                int slots = keys.length * 2;
+                keys = Arrays.copyOf(keys, slots);
+                left = Arrays.copyOf(left, slots);
+                right = Arrays.copyOf(right, slots);
+                height = Arrays.copyOf(height, slots);
+            }
+            node = unused++;
+        }
+        keys[node] = val;
+        left[node] = NIL;
+        right[node] = NIL;
+        height[node] = 1;
+        return node;
+    }
+
+    /**
+     * Puts a slot that is no longer in the tree on the free list
+     * 
+     * @param node The slot to free
+     */
+    private void release(int node) {
+        left[node] = NIL;
+        right[node] = free;
+        height[node] = 0;
+        free = node;
+    }
+
+    /**
+     * Walks a remembered path from the bottom back up to the root, refreshing heights and rebalancing
+     * 
+     * @param path  The nodes from the root down
+     * @param depth The number of nodes on the path
+     */
+    private void fixPath(int[] path, int depth) {
+        for (int i = depth - 1; i >= 0; i--) {
+            int node = path[i];
+            int top = rebalance(node);
+            if (top != node)   // a rotation lifted a different node into this spot
+                replaceChild(i == 0 ? NIL : path[i - 1], node, top);
+        }
+    }
+
+    /**
+     * Points whichever link referred to oldChild at newChild instead
+     * 
+     * @param parent   The parent of oldChild, or NIL if oldChild is the root
+     * @param oldChild The subtree being replaced
+     * @param newChild The subtree taking its place, may be NIL
+     */
+    private void replaceChild(int parent, int oldChild, int newChild) {
+        if (parent == NIL)
+            root = newChild;
+        else if (left[parent] == oldChild)
+            left[parent] = newChild;
+        else
+            right[parent] = newChild;
+    }
+
+    /**
+     * Restores the AVL condition at a node whose subtrees already satisfy it
+     * 
+     * @param node The node to rebalance
+     * @return The root of this subtree after at most two rotations
+     */
+    private int rebalance(int node) {
+        update(node);
+        int balance = height[left[node]] - height[right[node]];
+        if (balance > 1) {  // left side is too tall
+            if (height[left[left[node]]] < height[right[left[node]]])
+                left[node] = rotateLeft(left[node]);
+            return rotateRight(node);
+        }
+        if (balance < -1) {  // right side is too tall
+            if (height[right[right[node]]] < height[left[right[node]]])
+                right[node] = rotateRight(right[node]);
+            return rotateLeft(node);
+        }
+        return node;
+    }
+
+    /**
+     * Rotates node down to the right, lifting its left child into its place
+     * 
+     * @param node The node to rotate
+     * @return The new root of this subtree
+     */
+    private int rotateRight(int node) {
+        int pivot = left[node];
+        left[node] = right[pivot];
+        right[pivot] = node;
+        update(node);
+        update(pivot);
+        return pivot;
+    }
+
+    /**
+     * Rotates node down to the left, lifting its right child into its place
+     * 
+     * @param node The node to rotate
+     * @return The new root of this subtree
+     */
+    private int rotateLeft(int node) {
+        int pivot = right[node];
+        right[node] = left[pivot];
+        left[pivot] = node;
+        update(node);
+        update(pivot);
+        return pivot;
+    }
+
+    /**
+     * Recomputes the height of a node from its children
+     * 
+     * @param node The node to update
+     */
+    private void update(int node) {
+        height[node] = (byte) (Math.max(height[left[node]], height[right[node]]) + 1);
+    }
+
+    /**
+     * Hands out the path buffer, growing it if the tree has grown taller than it
+     * 
+     * @param height The height of the tree
+     * @return A buffer with room for at least height nodes
+     */
+    private int[] pathFor(int height) {
+        if (path.length < height)
+            path = new int[height * 2];
+        return path;
+    }
+}
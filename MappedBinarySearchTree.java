@@ -0,0 +1,393 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Mapped Binary Search Tree A read-only tree kept in a file and read through memory maps, so opening one only reads its
+ * header: the operating system pages keys in as find touches them. The file holds the keys in sorted order, written by
+ * a KeyCodec, which is an implicit balanced tree (the middle key of any range is its root). The keys are grouped into
+ * pages of 4096 bytes, and the first key of every page is repeated in a fence index at the end of the file, so a find
+ * searches the small fence index first and then a single page, like a two-level B-tree. Call close() when done.
+ *
+ * The file starts with a header page: the magic number, the format version, the key width, the number of keys, the
+ * number of keys per page and the number of fences, all little-endian ints. The keys start at byte 4096.
+ *
+ * @author Serena Jiao, yj5qe
+ * @param <T> Type of data stored in the file
+ */
+public class MappedBinarySearchTree<T extends Comparable<T>> implements AutoCloseable {
+
+    /**
+     * First four bytes of every file, "BSTM"
+     */
+    static final int MAGIC = 0x4d545342;
+
+    /**
+     * Version of the layout described above
+     */
+    static final int VERSION = 1;
+
+    /**
+     * Bytes per page, and the size of the header
+     */
+    static final int PAGE = 4096;
+
+    /**
+     * Largest number of bytes mapped by one buffer, kept well below the 2 GB limit of a ByteBuffer
+     */
+    private static final int CHUNK = 1 << 30;
+
+    /**
+     * How keys are read from the file
+     */
+    private final KeyCodec<T> codec;
+
+    /**
+     * Number of keys in the file
+     */
+    private final int size;
+
+    /**
+     * Number of keys in every page but the last
+     */
+    private final int pageKeys;
+
+    /**
+     * Number of fences, one per page
+     */
+    private final int fenceCount;
+
+    /**
+     * Number of keys mapped by each buffer in keys and fences
+     */
+    private final int chunkKeys;
+
+    /**
+     * The mapped keys, null once the tree is closed
+     */
+    private ByteBuffer[] keys;
+
+    /**
+     * The mapped fence index
+     */
+    private ByteBuffer[] fences;
+
+    /**
+     * Constructor Used by open once the header has been checked and the file mapped
+     *
+     * @param codec      How keys are read from the file
+     * @param size       Number of keys
+     * @param pageKeys   Number of keys per page
+     * @param fenceCount Number of fences
+     * @param chunkKeys  Number of keys per mapped buffer
+     * @param keys       The mapped keys
+     * @param fences     The mapped fences
+     */
+    private MappedBinarySearchTree(KeyCodec<T> codec, int size, int pageKeys, int fenceCount, int chunkKeys,
+            ByteBuffer[] keys, ByteBuffer[] fences) {
+        this.codec = codec;
+        this.size = size;
+        this.pageKeys = pageKeys;
+        this.fenceCount = fenceCount;
+        this.chunkKeys = chunkKeys;
+        this.keys = keys;
+        this.fences = fences;
+    }
+
+    /**
+     * Saves a tree to a file in the mapped format. The file is written under a temporary name and moved into place, so
+     * a crash halfway never leaves a partial file behind, and the move itself is on disk once this returns.
+     *
+     * @param tree  The tree to save
+     * @param codec How to write its keys
+     * @param file  Where to save it
+     * @throws IOException If the file can't be written
+     */
+    public static <T extends Comparable<T>> void save(BinarySearchTree<T> tree, KeyCodec<T> codec, Path file)
+            throws IOException {
+        write(tree.iterator(), tree.size(), codec, file);
+    }
+
+    /**
+     * Writes keys to a file in the mapped format. The file is forced to disk, moved into place and then its directory is
+     * forced too: the move only changes the directory, and until that is on disk a crash may bring back the old file.
+     *
+     * @param sorted The keys, in strictly increasing order
+     * @param count  The number of keys sorted will return
+     * @param codec  How to write the keys
+     * @param file   Where to write them
+     * @throws IOException If the file can't be written
+     */
+    static <T extends Comparable<T>> void write(Iterator<? extends T> sorted, int count, KeyCodec<T> codec, Path file)
+            throws IOException {
+        int width = codec.width();
+        int pageKeys = Math.max(1, PAGE / width);
+        int fenceCount = (int) (((long) count + pageKeys - 1) / pageKeys);
+        ByteBuffer fenceBytes = ByteBuffer.allocate(fenceCount * width).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer buffer = ByteBuffer.allocate(Math.max(PAGE, 256 * pageKeys * width)).order(ByteOrder.LITTLE_ENDIAN);
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(width).putInt(count).putInt(pageKeys).putInt(fenceCount);
+            buffer.position(PAGE);
+            buffer.flip();
+            writeFully(channel, buffer);
+            for (int i = 0; i < count; i++) {
+                if (buffer.remaining() < width)
+                    writeFully(channel, buffer.flip());
+                T key = sorted.next();
+                codec.encode(key, buffer, buffer.position());
+                if (i % pageKeys == 0)
+                    codec.encode(key, fenceBytes, (i / pageKeys) * width);
+                buffer.position(buffer.position() + width);
+            }
+            writeFully(channel, buffer.flip());
+            writeFully(channel, fenceBytes);
+            channel.force(true);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        forceDirectory(file.toAbsolutePath().getParent());
+    }
+
+    /**
+     * Forces a directory to disk, so that files created, renamed or deleted in it stay that way after a crash
+     *
+     * @param directory The directory
+     * @throws IOException If it can't be forced
+     */
+    static void forceDirectory(Path directory) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            if (!System.getProperty("os.name").startsWith("Windows"))   // which can't open a directory, nor needs to
+                throw e;
+        }
+    }
+
+    /**
+     * Writes everything left in a buffer and clears it
+     *
+     * @param channel Where to write
+     * @param buffer  What to write, flipped for reading
+     * @throws IOException If the write fails
+     */
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+
+    /**
+     * Opens a file written by save. Only the header is read; the keys are mapped and read on demand.
+     *
+     * @param file  The file to open
+     * @param codec How to read its keys, which must have the width the file was written with
+     * @return The tree stored in the file
+     * @throws IOException If the file can't be read or is not in the mapped format
+     */
+    public static <T extends Comparable<T>> MappedBinarySearchTree<T> open(Path file, KeyCodec<T> codec)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(24).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining() && channel.read(header) >= 0)
+                continue;
+            header.flip();
+            if (header.remaining() < 24 || header.getInt() != MAGIC)
+                throw new IOException(file + " is not a mapped tree file");
+            if (header.getInt() != VERSION)
+                throw new IOException(file + " has an unknown format version");
+            int width = header.getInt();
+            if (width != codec.width())
+                throw new IOException(file + " holds keys of " + width + " bytes, the codec reads " + codec.width());
+            int size = header.getInt();
+            int pageKeys = header.getInt();
+            int fenceCount = header.getInt();
+            long fenceStart = PAGE + (long) size * width;
+            if (size < 0 || pageKeys != Math.max(1, PAGE / width)
+                    || fenceCount != (int) (((long) size + pageKeys - 1) / pageKeys)
+                    || channel.size() != fenceStart + (long) fenceCount * width)
+                throw new IOException(file + " is damaged");
+            int chunkKeys = CHUNK / (pageKeys * width) * pageKeys;  // whole pages only
+            ByteBuffer[] keys = map(channel, PAGE, size, width, chunkKeys);
+            ByteBuffer[] fences = map(channel, fenceStart, fenceCount, width, chunkKeys);
+            // the mappings stay valid after the channel is closed
+            return new MappedBinarySearchTree<T>(codec, size, pageKeys, fenceCount, chunkKeys, keys, fences);
+        }
+    }
+
+    /**
+     * Maps a run of keys as read-only buffers of at most chunkKeys keys each
+     *
+     * @param channel   The open file
+     * @param start     Offset of the first key
+     * @param count     Number of keys
+     * @param width     Bytes per key
+     * @param chunkKeys Keys per buffer
+     * @return The buffers
+     * @throws IOException If the file can't be mapped
+     */
+    private static ByteBuffer[] map(FileChannel channel, long start, int count, int width, int chunkKeys)
+            throws IOException {
+        ByteBuffer[] chunks = new ByteBuffer[(int) (((long) count + chunkKeys - 1) / chunkKeys)];
+        for (int i = 0; i < chunks.length; i++) {
+            int keys = Math.min(chunkKeys, count - i * chunkKeys);
+            chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start + (long) i * chunkKeys * width,
+                    (long) keys * width).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return chunks;
+    }
+
+    /**
+     * Find if an element exists Checks to see if the value val appears in the file, reading the fence index and one
+     * page
+     *
+     * @param val The value to find
+     * @return True if the file contains the value, false otherwise
+     */
+    public boolean find(T val) {
+        checkOpen();
+        if (val == null || size == 0)
+            return false;
+        int page = search(fences, 0, fenceCount, val);
+        if (page >= 0)
+            return true;  // the first key of a page
+        page = -page - 2;  // the page whose first key is the largest one below val
+        if (page < 0)
+            return false;
+        int from = page * pageKeys + 1;
+        return search(keys, from, Math.min(size, from - 1 + pageKeys), val) >= 0;
+    }
+
+    /**
+     * Binary search over a range of mapped keys
+     *
+     * @param area The buffers to search
+     * @param from First index of the range
+     * @param to   One past the last index of the range
+     * @param val  The value to look for
+     * @return Its index if found, otherwise -(insertion point) - 1 like Arrays.binarySearch
+     */
+    private int search(ByteBuffer[] area, int from, int to, T val) {
+        int lo = from;
+        int hi = to - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int comp = codec.compare(area[mid / chunkKeys], (mid % chunkKeys) * codec.width(), val);
+            if (comp < 0)
+                lo = mid + 1;
+            else if (comp > 0)
+                hi = mid - 1;
+            else
+                return mid;
+        }
+        return -(lo + 1);
+    }
+
+    /**
+     * Number of elements in the file
+     *
+     * @return The number of keys
+     */
+    public int size() {
+        checkOpen();
+        return size;
+    }
+
+    /**
+     * The kth smallest element, counting from 0, read straight from its position in the file
+     *
+     * @param k The position of the element in sorted order
+     * @return The element, or null if k is out of range
+     */
+    public T select(int k) {
+        checkOpen();
+        if (k < 0 || k >= size)
+            return null;
+        return codec.decode(keys[k / chunkKeys], (k % chunkKeys) * codec.width());
+    }
+
+    /**
+     * Number of elements smaller than val
+     *
+     * @param val The value to rank
+     * @return The position val has or would have in sorted order
+     */
+    public int rank(T val) {
+        checkOpen();
+        if (val == null || size == 0)
+            return 0;
+        int page = search(fences, 0, fenceCount, val);
+        if (page >= 0)
+            return page * pageKeys;
+        page = -page - 2;
+        if (page < 0)
+            return 0;
+        int from = page * pageKeys + 1;
+        int found = search(keys, from, Math.min(size, from - 1 + pageKeys), val);
+        return found >= 0 ? found : -found - 1;
+    }
+
+    /**
+     * Iterates over the elements in increasing order, reading the file front to back
+     *
+     * @return An iterator over the elements
+     */
+    public Iterator<T> iterator() {
+        checkOpen();
+        return new Iterator<T>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return select(next++);
+            }
+        };
+    }
+
+    /**
+     * Loads the whole file into a balanced BinarySearchTree. The keys are already sorted, so this makes no comparisons.
+     *
+     * @param balancing The balancing mode of the new tree
+     * @return A tree holding every element of the file
+     */
+    public BinarySearchTree<T> toBinarySearchTree(BinarySearchTree.Balancing balancing) {
+        checkOpen();
+        @SuppressWarnings("unchecked")
+        T[] all = (T[]) new Comparable<?>[size];
+        for (int i = 0; i < size; i++)
+            all[i] = select(i);
+        return new BinarySearchTree<T>(TreeNode.buildBalanced(all, 0, size), balancing);
+    }
+
+    /**
+     * Drops the mappings. The pages are unmapped once the buffers are collected. Any later use of the tree throws an
+     * IllegalStateException.
+     */
+    @Override
+    public void close() {
+        keys = null;
+        fences = null;
+    }
+
+    /**
+     * Makes sure the tree has not been closed
+     */
+    private void checkOpen() {
+        if (keys == null)
+            throw new IllegalStateException("tree is closed");
+    }
+}
@@ -0,0 +1,558 @@
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Off Heap Binary Search Tree A binary search tree whose nodes live outside the Java heap, in direct memory slabs that
+ * are allocated as the tree grows. A node is addressed by an int index (slab number and position inside the slab) and
+ * holds its left and right child indices, its height and its key, written by a KeyCodec. The garbage collector only sees
+ * the handful of slab objects, however many nodes there are. The tree is always AVL balanced, and slots freed by delete
+ * are chained into a free list for reuse. Call close() when done with the tree, which frees the slabs right away
+ * instead of waiting for the garbage collector.
+ * 
+ * @author Serena Jiao, yj5qe
+ * @param <T> Type of data to store in the tree
+ */
+public class OffHeapBinarySearchTree<T extends Comparable<T>> implements AutoCloseable {
+
+    /**
+     * Index that stands for "no node". Slot 0 is never used.
+     */
+    private static final int NIL = 0;
+
+    /**
+     * Each slab holds 2^SLAB_SHIFT nodes
+     */
+    private static final int SLAB_SHIFT = 16;
+
+    /**
+     * Frees a direct buffer on demand: sun.misc.Unsafe.invokeCleaner, from jdk.unsupported, or null if it can't be had
+     */
+    private static final MethodHandle FREE = cleaner();
+
+    /**
+     * Mask for the position of a node inside its slab
+     */
+    private static final int SLAB_MASK = (1 << SLAB_SHIFT) - 1;
+
+    /**
+     * Offset of the left child index inside a node
+     */
+    private static final int LEFT = 0;
+
+    /**
+     * Offset of the right child index inside a node, which also links the free list
+     */
+    private static final int RIGHT = 4;
+
+    /**
+     * Offset of the height byte inside a node
+     */
+    private static final int HEIGHT = 8;
+
+    /**
+     * Offset of the key inside a node
+     */
+    private static final int KEY = 9;
+
+    /**
+     * How keys are written into and read from the nodes
+     */
+    private final KeyCodec<T> codec;
+
+    /**
+     * Number of bytes per node
+     */
+    private final int nodeBytes;
+
+    /**
+     * The memory holding the nodes, null once the tree is closed
+     */
+    private ByteBuffer[] slabs;
+
+    /**
+     * Index of the root, or NIL for an empty tree
+     */
+    private int root = NIL;
+
+    /**
+     * Number of keys in the tree
+     */
+    private int size;
+
+    /**
+     * First slot that has never been used
+     */
+    private int unused = 1;
+
+    /**
+     * Head of the list of slots freed by delete, or NIL
+     */
+    private int free = NIL;
+
+    /**
+     * Scratch buffer holding the path from the root during insert and delete
+     */
+    private int[] path = new int[16];
+
+    /**
+     * Constructor Creates an empty tree storing keys with the given codec
+     * 
+     * @param codec How to write keys into the nodes
+     */
+    public OffHeapBinarySearchTree(KeyCodec<T> codec) {
+        this.codec = codec;
+        this.nodeBytes = KEY + codec.width();
+        this.slabs = new ByteBuffer[0];
+    }
+
+    /**
+     * Find if an element exists Checks to see if the value val appears in the tree
+     * 
+     * @param val The value to find
+     * @return True if the tree contains the value, false otherwise
+     */
+    public boolean find(T val) {
+        checkOpen();
+        if (val == null)
+            return false;
+        int node = root;
+        while (node != NIL) {
+            int comp = compare(node, val);
+            if (comp == 0)
+                return true;
+            node = comp > 0 ? left(node) : right(node);
+        }
+        return false;
+    }
+
+    /**
+     * Insert an element Inserts val into the tree where it should appear, returning true on success and false if it is
+     * already there
+     * 
+     * @param val The value to insert
+     * @return True on success, false otherwise
+     */
+    public boolean insert(T val) {
+        checkOpen();
+        if (val == null)
+            return false;
+        if (root == NIL) {
+            root = newNode(val);
+            size++;
+            return true;
+        }
+        int[] path = pathFor(height(root));
+        int depth = 0;
+        int node = root;
+        while (true) {
+            int comp = compare(node, val);
+            if (comp == 0)   // duplicate
+                return false;
+            path[depth++] = node;
+            int next = comp > 0 ? left(node) : right(node);
+            if (next == NIL) {   // found the empty spot
+                int created = newNode(val);
+                if (comp > 0)
+                    setLeft(node, created);
+                else
+                    setRight(node, created);
+                break;
+            }
+            node = next;
+        }
+        size++;
+        fixPath(path, depth);
+        return true;
+    }
+
+    /**
+     * Delete an element from the tree Deletes val from the tree if it appears, returning true on success and false
+     * otherwise. The node's slot goes on the free list.
+     * 
+     * @param val The value to delete
+     * @return True on success, false otherwise
+     */
+    public boolean delete(T val) {
+        checkOpen();
+        if (root == NIL || val == null)
+            return false;
+        int[] path = pathFor(height(root));
+        int depth = 0;
+        int node = root;
+        while (true) {
+            int comp = compare(node, val);
+            if (comp == 0)
+                break;
+            path[depth++] = node;
+            node = comp > 0 ? left(node) : right(node);
+            if (node == NIL)   // the value does not exist
+                return false;
+        }
+        int removed = node;  // the slot that actually comes out of the tree
+        if (left(node) != NIL && right(node) != NIL) {
+            // two children: move the smallest key of the right subtree up and unlink its slot instead
+            path[depth++] = node;
+            removed = right(node);
+            while (left(removed) != NIL) {
+                path[depth++] = removed;
+                removed = left(removed);
+            }
+            copyKey(removed, node);
+        }
+        int child = left(removed) != NIL ? left(removed) : right(removed);
+        replaceChild(depth == 0 ? NIL : path[depth - 1], removed, child);
+        release(removed);
+        size--;
+        fixPath(path, depth);
+        return true;
+    }
+
+    /**
+     * The method will return an int that represents the size of the total tree
+     * 
+     * @return the number of keys in the tree
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * The method will return an int that represents the height of the total tree
+     * 
+     * @return the height of the tree, 0 when it is empty
+     */
+    public int height() {
+        return root == NIL ? 0 : height(root);
+    }
+
+    /**
+     * Returns a String of the keys from the smallest to the largest in the same "(a)(b)(c)" format as
+     * BinarySearchTree.inOrder()
+     * 
+     * @return a string that traverses the tree from the smallest to the largest, or null if the tree is empty
+     */
+    public String inOrder() {
+        checkOpen();
+        if (root == NIL)
+            return null;
+        StringBuilder out = new StringBuilder(size * 4);
+        int[] stack = new int[height(root)];
+        int top = 0;
+        int node = root;
+        while (node != NIL || top > 0) {
+            while (node != NIL) {  // go as far left as possible, remembering the way back
+                stack[top++] = node;
+                node = left(node);
+            }
+            node = stack[--top];
+            out.append('(').append(codec.decode(slab(node), offset(node) + KEY)).append(')');
+            node = right(node);
+        }
+        return out.toString();
+    }
+
+    /**
+     * toString method
+     */
+    @Override
+    public String toString() {
+        if (root == NIL)
+            return "";
+        return inOrder();
+    }
+
+    /**
+     * Frees the slabs, handing their direct memory back to the operating system now rather than whenever the garbage
+     * collector gets to the buffers. Only if the JDK has no sun.misc.Unsafe is it left to the collector after all. Any
+     * later use of the tree throws an IllegalStateException; like every other method, close() must not run while
+     * another thread uses the tree, since touching a freed slab would crash the JVM.
+     */
+    @Override
+    public void close() {
+        ByteBuffer[] freed = slabs;
+        slabs = null;
+        root = NIL;
+        size = 0;
+        if (freed == null || FREE == null)
+            return;
+        for (ByteBuffer slab : freed) {
+            try {
+                FREE.invokeExact(slab);
+            } catch (Throwable e) {
+                throw new IllegalStateException("can't free a slab", e);
+            }
+        }
+    }
+
+    /**
+     * Looks up invokeCleaner on sun.misc.Unsafe, which jdk.unsupported exports without any command line flags. It is
+     * found at run time so the build doesn't depend on an internal API.
+     * 
+     * @return A handle taking the buffer to free, or null if this JDK doesn't have one
+     */
+    private static MethodHandle cleaner() {
+        try {
+            Class<?> unsafe = Class.forName("sun.misc.Unsafe");
+            Field field = unsafe.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            return MethodHandles.lookup()
+                    .findVirtual(unsafe, "invokeCleaner", MethodType.methodType(void.class, ByteBuffer.class))
+                    .bindTo(field.get(null));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Makes sure the tree has not been closed
+     */
+    private void checkOpen() {
+        if (slabs == null)
+            throw new IllegalStateException("tree is closed");
+    }
+
+    /**
+     * The slab holding a node
+     * 
+     * @param node The node index
+     * @return Its slab
+     */
+    private ByteBuffer slab(int node) {
+        return slabs[node >>> SLAB_SHIFT];
+    }
+
+    /**
+     * The offset of a node inside its slab
+     * 
+     * @param node The node index
+     * @return The offset of its first byte
+     */
+    private int offset(int node) {
+        return (node & SLAB_MASK) * nodeBytes;
+    }
+
+    /**
+     * Compares the key of a node with val
+     * 
+     * @param node The node index
+     * @param val  The value to compare with
+     * @return The sign of (node's key - val)
+     */
+    private int compare(int node, T val) {
+        return codec.compare(slab(node), offset(node) + KEY, val);
+    }
+
+    /**
+     * Left child getter
+     * 
+     * @param node The node index
+     * @return The index of its left child, or NIL
+     */
+    private int left(int node) {
+        return slab(node).getInt(offset(node) + LEFT);
+    }
+
+    /**
+     * Right child getter
+     * 
+     * @param node The node index
+     * @return The index of its right child, or NIL
+     */
+    private int right(int node) {
+        return slab(node).getInt(offset(node) + RIGHT);
+    }
+
+    /**
+     * Height getter
+     * 
+     * @param node The node index, NIL counts as an empty subtree
+     * @return The height of its subtree
+     */
+    private int height(int node) {
+        return node == NIL ? 0 : slab(node).get(offset(node) + HEIGHT);
+    }
+
+    /**
+     * Left child setter
+     * 
+     * @param node  The node index
+     * @param child The new left child, or NIL
+     */
+    private void setLeft(int node, int child) {
+        slab(node).putInt(offset(node) + LEFT, child);
+    }
+
+    /**
+     * Right child setter
+     * 
+     * @param node  The node index
+     * @param child The new right child, or NIL
+     */
+    private void setRight(int node, int child) {
+        slab(node).putInt(offset(node) + RIGHT, child);
+    }
+
+    /**
+     * Copies the key bytes of one node into another
+     * 
+     * @param from The node to copy from
+     * @param to   The node to copy to
+     */
+    private void copyKey(int from, int to) {
+        ByteBuffer source = slab(from);
+        ByteBuffer target = slab(to);
+        int sourceOffset = offset(from) + KEY;
+        int targetOffset = offset(to) + KEY;
+        for (int i = 0; i < codec.width(); i++)
+            target.put(targetOffset + i, source.get(sourceOffset + i));
+    }
+
+    /**
+     * Takes a slot for a new leaf, from the free list if possible, adding a slab when all of them are full
+     * 
+     * @param val The key for the new node
+     * @return The index of the new node
+     */
+    private int newNode(T val) {
+        int node = free;
+        if (node != NIL) {
+            free = right(node);
+        } else {
+            if ((unused >>> SLAB_SHIFT) == slabs.length) {
+                slabs = Arrays.copyOf(slabs, slabs.length + 1);
+                slabs[slabs.length - 1] = ByteBuffer.allocateDirect(nodeBytes << SLAB_SHIFT)
+                        .order(ByteOrder.nativeOrder());
+            }
+            node = unused++;
+        }
+        ByteBuffer slab = slab(node);
+        int offset = offset(node);
+        slab.putInt(offset + LEFT, NIL);
+        slab.putInt(offset + RIGHT, NIL);
+        slab.put(offset + HEIGHT, (byte) 1);
+        codec.encode(val, slab, offset + KEY);
+        return node;
+    }
+
+    /**
+     * Puts a slot that is no longer in the tree on the free list
+     * 
+     * @param node The slot to free
+     */
+    private void release(int node) {
+        setLeft(node, NIL);
+        setRight(node, free);
+        free = node;
+    }
+
+    /**
+     * Walks a remembered path from the bottom back up to the root, refreshing heights and rebalancing
+     * 
+     * @param path  The nodes from the root down
+     * @param depth The number of nodes on the path
+     */
+    private void fixPath(int[] path, int depth) {
+        for (int i = depth - 1; i >= 0; i--) {
+            int node = path[i];
+            int top = rebalance(node);
+            if (top != node)   // a rotation lifted a different node into this spot
+                replaceChild(i == 0 ? NIL : path[i - 1], node, top);
+        }
+    }
+
+    /**
+     * Points whichever link referred to oldChild at newChild instead
+     * 
+     * @param parent   The parent of oldChild, or NIL if oldChild is the root
+     * @param oldChild The subtree being replaced
+     * @param newChild The subtree taking its place, may be NIL
+     */
+    private void replaceChild(int parent, int oldChild, int newChild) {
+        if (parent == NIL)
+            root = newChild;
+        else if (left(parent) == oldChild)
+            setLeft(parent, newChild);
+        else
+            setRight(parent, newChild);
+    }
+
+    /**
+     * Restores the AVL condition at a node whose subtrees already satisfy it
+     * 
+     * @param node The node to rebalance
+     * @return The root of this subtree after at most two rotations
+     */
+    private int rebalance(int node) {
+        update(node);
+        int left = left(node);
+        int right = right(node);
+        int balance = height(left) - height(right);
+        if (balance > 1) {  // left side is too tall
+            if (height(left(left)) < height(right(left)))
+                setLeft(node, rotateLeft(left));
+            return rotateRight(node);
+        }
+        if (balance < -1) {  // right side is too tall
+            if (height(right(right)) < height(left(right)))
+                setRight(node, rotateRight(right));
+            return rotateLeft(node);
+        }
+        return node;
+    }
+
+    /**
+     * Rotates node down to the right, lifting its left child into its place
+     * 
+     * @param node The node to rotate
+     * @return The new root of this subtree
+     */
+    private int rotateRight(int node) {
+        int pivot = left(node);
+        setLeft(node, right(pivot));
+        setRight(pivot, node);
+        update(node);
+        update(pivot);
+        return pivot;
+    }
+
+    /**
+     * Rotates node down to the left, lifting its right child into its place
+     * 
+     * @param node The node to rotate
+     * @return The new root of this subtree
+     */
+    private int rotateLeft(int node) {
+        int pivot = right(node);
+        setRight(node, left(pivot));
+        setLeft(pivot, node);
+        update(node);
+        update(pivot);
+        return pivot;
+    }
+
+    /**
+     * Recomputes the height of a node from its children
+     * 
+     * @param node The node to update
+     */
+    private void update(int node) {
+        slab(node).put(offset(node) + HEIGHT, (byte) (Math.max(height(left(node)), height(right(node))) + 1));
+    }
+
+    /**
+     * Hands out the path buffer, growing it if the tree has grown taller than it
+     * 
+     * @param height The height of the tree
+     * @return A buffer with room for at least height nodes
+     */
+    private int[] pathFor(int height) {
+        if (path.length < height)
+            path = new int[height * 2];
+        return path;
+    }
+}
@@ -0,0 +1,240 @@
+import java.util.Iterator;
+
+/**
+ * Persistent Binary Search Tree An AVL tree whose nodes are never changed once they are in the tree. An insert or delete
+ * copies only the nodes on the path it walks (O(log n) of them) and builds a new root that shares every other subtree
+ * with the old one. The old root, and so the old version of the tree, stays valid. That makes snapshot() O(1): a
+ * snapshot is just another handle on the current root, and it can be read, or iterated for as long as needed, without
+ * locks while this tree keeps changing.
+ * 
+ * Writes to one handle are serialized with each other and never affect other handles, including snapshots. The nodes are
+ * TreeNodes but are never handed out, so nothing can call their setters.
+ * 
+ * @author Serena Jiao, yj5qe
+ * @param <T> Type of data to store in the tree
+ */
+public class PersistentBinarySearchTree<T extends Comparable<T>> implements Iterable<T> {
+
+    /**
+     * The current version of the tree. Nodes reachable from it are never modified, so reading the root once gives a
+     * consistent view.
+     */
+    private volatile TreeNode<T> root;
+
+    /**
+     * Default constructor Creates an empty tree
+     */
+    public PersistentBinarySearchTree() {
+        this(null);
+    }
+
+    /**
+     * Constructor Creates a handle on an existing version of a tree
+     * 
+     * @param root The root of that version
+     */
+    private PersistentBinarySearchTree(TreeNode<T> root) {
+        this.root = root;
+    }
+
+    /**
+     * Returns a handle on the current version of the tree in O(1). Later writes to this tree don't show up in the
+     * snapshot, and writes to the snapshot don't show up here.
+     * 
+     * @return A snapshot of the tree
+     */
+    public PersistentBinarySearchTree<T> snapshot() {
+        return new PersistentBinarySearchTree<T>(root);
+    }
+
+    /**
+     * Find if an element exists Checks to see if the value val appears in the tree
+     * 
+     * @param val The value to find
+     * @return True if the tree contains the value, false otherwise
+     */
+    public boolean find(T val) {
+        TreeNode<T> current = root;
+        return current != null && current.find(val);
+    }
+
+    /**
+     * Insert an element Builds a new version of the tree with val in it and makes it the current one. Only the nodes on
+     * the path to the new leaf are copied.
+     * 
+     * @param val The value to insert
+     * @return True on success, false if the value is null or already in the tree
+     */
+    public synchronized boolean insert(T val) {
+        if (val == null)
+            return false;
+        TreeNode<T> current = root;
+        @SuppressWarnings("unchecked")
+        TreeNode<T>[] path = (TreeNode<T>[]) new TreeNode<?>[TreeNode.heightOf(current)];
+        int depth = 0;
+        TreeNode<T> node = current;
+        while (node != null) {
+            int comp = node.getData().compareTo(val);
+            if (comp == 0)   // duplicate, the current version stays
+                return false;
+            path[depth++] = node;
+            node = comp > 0 ? node.getLeft() : node.getRight();
+        }
+        root = copyPath(path, depth, new TreeNode<T>(val), val, null);
+        return true;
+    }
+
+    /**
+     * Delete an element from the tree Builds a new version of the tree without val and makes it the current one. When
+     * the node has two children the path is extended down to its successor, which is dropped from the bottom while the
+     * copy of the node takes over its data.
+     * 
+     * @param val The value to delete
+     * @return True on success, false otherwise
+     */
+    public synchronized boolean delete(T val) {
+        TreeNode<T> current = root;
+        if (current == null || val == null)
+            return false;
+        @SuppressWarnings("unchecked")
+        TreeNode<T>[] path = (TreeNode<T>[]) new TreeNode<?>[current.height()];
+        int depth = 0;
+        TreeNode<T> node = current;
+        while (true) {
+            int comp = node.getData().compareTo(val);
+            if (comp == 0)
+                break;
+            path[depth++] = node;
+            node = comp > 0 ? node.getLeft() : node.getRight();
+            if (node == null)   // the value does not exist
+                return false;
+        }
+        TreeNode<T> target = node;
+        TreeNode<T> removed = node;  // the node that actually comes out of the tree
+        if (node.getLeft() != null && node.getRight() != null) {
+            path[depth++] = node;
+            removed = node.getRight();
+            while (removed.getLeft() != null) {
+                path[depth++] = removed;
+                removed = removed.getLeft();
+            }
+        }
+        TreeNode<T> child = removed.getLeft() != null ? removed.getLeft() : removed.getRight();
+        // the path is walked by value, so the copy of target can carry its successor's data
+        root = copyPath(path, depth, child, removed.getData(), target == removed ? null : target);
+        return true;
+    }
+
+    /**
+     * Rebuilds the path from the bottom up, giving each node on it a fresh copy that points at the rebuilt child below
+     * it and rebalancing as it goes. The original nodes are left untouched.
+     * 
+     * @param path     The nodes from the root down
+     * @param depth    The number of nodes on the path
+     * @param bottom   The new subtree that replaces the child of the last node on the path
+     * @param val      The value that was inserted or unlinked, used to tell which side of each node the path went
+     * @param replaced A node on the path whose copy takes val as its data, or null
+     * @return The new root
+     */
+    private TreeNode<T> copyPath(TreeNode<T>[] path, int depth, TreeNode<T> bottom, T val, TreeNode<T> replaced) {
+        TreeNode<T> child = bottom;
+        for (int i = depth - 1; i >= 0; i--) {
+            TreeNode<T> node = path[i];
+            T data = node == replaced ? val : node.getData();
+            // the path went right from the node being replaced, it is where its successor came from
+            boolean wentLeft = node != replaced && node.getData().compareTo(val) > 0;
+            if (wentLeft)
+                child = balanced(data, child, node.getRight());
+            else
+                child = balanced(data, node.getLeft(), child);
+        }
+        return child;
+    }
+
+    /**
+     * Makes a new node with the given data and children, rotating by creating new nodes if the children differ in height
+     * by two
+     * 
+     * @param data  The data for the node
+     * @param left  Its left subtree
+     * @param right Its right subtree
+     * @return The root of a balanced subtree holding all of them
+     */
+    private static <T extends Comparable<T>> TreeNode<T> balanced(T data, TreeNode<T> left, TreeNode<T> right) {
+        int leftHeight = TreeNode.heightOf(left);
+        int rightHeight = TreeNode.heightOf(right);
+        if (leftHeight > rightHeight + 1) {  // left side is too tall
+            TreeNode<T> inner = left.getRight();
+            if (TreeNode.heightOf(left.getLeft()) >= TreeNode.heightOf(inner))  // single rotation
+                return new TreeNode<T>(left.getData(), left.getLeft(), new TreeNode<T>(data, inner, right));
+            return new TreeNode<T>(inner.getData(), new TreeNode<T>(left.getData(), left.getLeft(), inner.getLeft()),
+                    new TreeNode<T>(data, inner.getRight(), right));  // double rotation
+        }
+        if (rightHeight > leftHeight + 1) {  // right side is too tall
+            TreeNode<T> inner = right.getLeft();
+            if (TreeNode.heightOf(right.getRight()) >= TreeNode.heightOf(inner))
+                return new TreeNode<T>(right.getData(), new TreeNode<T>(data, left, inner), right.getRight());
+            return new TreeNode<T>(inner.getData(), new TreeNode<T>(data, left, inner.getLeft()),
+                    new TreeNode<T>(right.getData(), inner.getRight(), right.getRight()));
+        }
+        return new TreeNode<T>(data, left, right);
+    }
+
+    /**
+     * The method will return an int that represents the size of the total tree
+     * 
+     * @return the size of the tree
+     */
+    public int size() {
+        return TreeNode.sizeOf(root);
+    }
+
+    /**
+     * The method will return an int that represents the height of the total tree
+     * 
+     * @return the height of the tree
+     */
+    public int height() {
+        return TreeNode.heightOf(root);
+    }
+
+    /**
+     * Returns a String of the data from the smallest to the largest, in the same format as BinarySearchTree.inOrder()
+     * 
+     * @return a string that traverses the tree from the smallest to the largest, or null if the tree is empty
+     */
+    public String inOrder() {
+        TreeNode<T> current = root;
+        return current == null ? null : current.inOrder();
+    }
+
+    /**
+     * Returns a String of the data in post order, in the same format as BinarySearchTree.postOrder()
+     * 
+     * @return a string that traverses the tree following the post order, or null if the tree is empty
+     */
+    public String postOrder() {
+        TreeNode<T> current = root;
+        return current == null ? null : current.postOrder();
+    }
+
+    /**
+     * Returns an iterator over the version of the tree that is current when it is created. It keeps working however the
+     * tree changes afterwards.
+     * 
+     * @return An in order iterator
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return new InOrderIterator<T>(root);
+    }
+
+    /**
+     * toString method
+     */
+    @Override
+    public String toString() {
+        TreeNode<T> current = root;
+        return current == null ? "" : current.inOrder();
+    }
+}
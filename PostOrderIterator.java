@@ -0,0 +1,99 @@
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Post Order Iterator Lazily walks a tree in post order: both subtrees of a node before the node itself. Like
+ * InOrderIterator it keeps its own stack of at most height() nodes. The tree must not be changed while an iterator is in
+ * use.
+ * 
+ * @author Serena Jiao, yj5qe
+ * @param <T> The type of data stored in the tree
+ */
+class PostOrderIterator<T extends Comparable<T>> implements Iterator<T> {
+
+    /**
+     * The path from the root down to the node returned next, which is on top
+     */
+    private TreeNode<T>[] stack;
+
+    /**
+     * Number of nodes on the stack
+     */
+    private int top;
+
+    /**
+     * Constructor Starts an iterator at the first node in post order of the given subtree
+     * 
+     * @param root The root of the subtree to walk, may be null for an empty one
+     */
+    @SuppressWarnings("unchecked")
+    PostOrderIterator(TreeNode<T> root) {
+        stack = (TreeNode<T>[]) new TreeNode<?>[TreeNode.heightOf(root)];
+        descend(root);
+        skipDeleted();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return top > 0;
+    }
+
+    @Override
+    public T next() {
+        return nextNode().getData();
+    }
+
+    /**
+     * Returns the next node rather than its data
+     * 
+     * @return The node holding the next element
+     */
+    TreeNode<T> nextNode() {
+        if (top == 0)
+            throw new NoSuchElementException();
+        TreeNode<T> node = pop();
+        skipDeleted();
+        return node;
+    }
+
+    /**
+     * Takes the node on top of the stack and moves on to the one after it
+     * 
+     * @return The node that was on top
+     */
+    private TreeNode<T> pop() {
+        TreeNode<T> node = stack[--top];
+        stack[top] = null;
+        if (top > 0) {
+            TreeNode<T> parent = stack[top - 1];
+            // coming up from a left child, the parent's right subtree is next
+            if (parent.getLeft() == node && parent.getRight() != null)
+                descend(parent.getRight());
+        }
+        return node;
+    }
+
+    /**
+     * Moves past tombstones until the node on top of the stack holds an element
+     */
+    private void skipDeleted() {
+        while (top > 0 && stack[top - 1].isDeleted())
+            pop();
+    }
+
+    /**
+     * Pushes the path from node down to the first node of its subtree in post order, going left whenever possible and
+     * right otherwise
+     * 
+     * @param node The root of the subtree to descend into
+     */
+    private void descend(TreeNode<T> node) {
+        while (node != null) {
+            if (top == stack.length)
+                stack = Arrays.copyOf(stack, stack.length * 2 + 1);  // only if the stored heights are stale
+            stack[top++] = node;
+            node = node.getLeft() != null ? node.getLeft() : node.getRight();
+        }
+    }
+}
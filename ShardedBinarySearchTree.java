@@ -0,0 +1,574 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+/**
+ * Sharded Binary Search Tree An index that splits the key space into ranges, one per shard, each held by its own AVL
+ * BinarySearchTree. Every shard is owned by a worker thread, the only thread that ever touches its tree: calls are
+ * routed to the shard whose range holds the key and queued there, and the worker takes whatever has queued up as one
+ * batch, runs it and hands the CompletableFutures it handed out to a pool that completes them. Writers to different
+ * shards run in parallel, and no tree needs a lock. Since no future is completed by a worker, a continuation such as
+ * thenCompose may wait on the index, even on the shard that ran it, without stalling the worker it waits for.
+ *
+ * Shard i holds the keys above bound i - 1 and up to bound i. They all start out in the first shard. When a worker
+ * sees its shard grow to more than twice the average plus REBALANCE_SLACK, the next call rebalances: the shards are
+ * joined into one tree and split again at evenly spaced ranks, O(shards * log n) with TreeAlgebra, while no calls are
+ * being routed. Iteration walks the shards in order a chunk at a time and, like the iterators of java.util.concurrent,
+ * is weakly consistent. Call close() when done to stop the workers; calls still queued when a worker stops, because of
+ * close() or an interrupt, complete exceptionally with an IllegalStateException.
+ *
+ * @author Serena Jiao, yj5qe
+ * @param <T> Type of data to store in the tree
+ */
+public class ShardedBinarySearchTree<T extends Comparable<T>> implements AutoCloseable, Iterable<T> {
+
+    /**
+     * How much larger than twice the average a shard may grow before the shards are rebalanced
+     */
+    static final int REBALANCE_SLACK = 4096;
+
+    /**
+     * Most elements one step of an iterator fetches from a shard
+     */
+    static final int CHUNK = 1024;
+
+    /**
+     * Most calls a worker takes off its queue at once
+     */
+    static final int BATCH = 256;
+
+    /**
+     * One queued call: the work to run on a shard's tree and the future that hands back its result
+     *
+     * @param <T> Type of data stored in the tree
+     * @param <R> Type of the result
+     */
+    private static final class Task<T extends Comparable<T>, R> {
+
+        /**
+         * What to run on the tree, or null to stop the worker
+         */
+        final Function<BinarySearchTree<T>, R> work;
+
+        /**
+         * Completed off the worker after the whole batch has run
+         */
+        final CompletableFuture<R> future = new CompletableFuture<R>();
+
+        /**
+         * The result, kept until the future is completed
+         */
+        private R result;
+
+        /**
+         * What the work threw, if anything
+         */
+        private Throwable failure;
+
+        /**
+         * Constructor
+         *
+         * @param work What to run on the tree, or null to stop the worker
+         */
+        Task(Function<BinarySearchTree<T>, R> work) {
+            this.work = work;
+        }
+
+        /**
+         * Runs the work, keeping its result or what it threw
+         *
+         * @param tree The shard's tree
+         */
+        void run(BinarySearchTree<T> tree) {
+            try {
+                result = work.apply(tree);
+            } catch (Throwable e) {   // an Error too, or the caller would wait forever
+                failure = e;
+            }
+        }
+
+        /**
+         * Hands the result to whoever waits on the future
+         */
+        void complete() {
+            if (failure != null)
+                future.completeExceptionally(failure);
+            else
+                future.complete(result);
+        }
+
+        /**
+         * Fails the future of a call that will never run
+         *
+         * @param why What stopped it
+         */
+        void fail(RuntimeException why) {
+            future.completeExceptionally(why);
+        }
+    }
+
+    /**
+     * One range of keys with its tree, queue and worker
+     *
+     * @param <T> Type of data stored in the tree
+     */
+    private static final class Shard<T extends Comparable<T>> {
+
+        /**
+         * The keys of the range, touched only by the worker, or by a rebalance while the worker is idle
+         */
+        BinarySearchTree<T> tree = new BinarySearchTree<T>(BinarySearchTree.Balancing.AVL);
+
+        /**
+         * Calls waiting for the worker
+         */
+        final LinkedBlockingQueue<Task<T, ?>> queue = new LinkedBlockingQueue<Task<T, ?>>();
+
+        /**
+         * Number of elements after the last batch
+         */
+        volatile int size;
+
+        /**
+         * The worker
+         */
+        Thread worker;
+
+        /**
+         * Why the worker stopped, null while it runs; anything queued after that fails with it
+         */
+        volatile RuntimeException stopped;
+    }
+
+    /**
+     * The shards in key order
+     */
+    private final Shard<T>[] shards;
+
+    /**
+     * The largest key of every shard but the last, null while the keys have not been spread out yet
+     */
+    private volatile T[] bounds;
+
+    /**
+     * Completes the futures of each batch, so no continuation runs on a worker. A continuation that blocks holds up only
+     * its own pool thread, hence a cached pool rather than a fixed one.
+     */
+    private final ExecutorService completer = Executors.newCachedThreadPool(run -> {
+        Thread thread = new Thread(run, "shard-completer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Routing holds the read lock, a rebalance the write lock
+     */
+    private final ReentrantReadWriteLock routing = new ReentrantReadWriteLock();
+
+    /**
+     * Set by a worker whose shard has grown too large
+     */
+    private volatile boolean unbalanced;
+
+    /**
+     * Set once close() has been called
+     */
+    private volatile boolean closed;
+
+    /**
+     * Constructor Starts an empty index with a worker thread per shard
+     *
+     * @param shards Number of shards, at least 1
+     */
+    @SuppressWarnings("unchecked")
+    public ShardedBinarySearchTree(int shards) {
+        this.shards = (Shard<T>[]) new Shard<?>[Math.max(1, shards)];
+        this.bounds = (T[]) new Comparable<?>[this.shards.length - 1];
+        for (int i = 0; i < this.shards.length; i++) {
+            Shard<T> shard = new Shard<T>();
+            shard.worker = new Thread(() -> drain(shard), "shard-" + i);
+            shard.worker.setDaemon(true);
+            this.shards[i] = shard;
+            shard.worker.start();
+        }
+    }
+
+    /**
+     * The loop of a worker: takes a batch off the queue, runs it, notes whether the shard has grown too large and only
+     * then hands the futures to the completer, so a caller that has its result knows the worker is done with the tree.
+     * Once it stops, whatever is still queued fails.
+     *
+     * @param shard The shard the worker owns
+     */
+    private void drain(Shard<T> shard) {
+        RuntimeException why = new IllegalStateException("tree is closed");
+        try {
+            boolean stop = false;
+            while (!stop) {
+                List<Task<T, ?>> batch = new ArrayList<Task<T, ?>>(BATCH);
+                try {
+                    batch.add(shard.queue.take());
+                } catch (InterruptedException e) {
+                    why = new IllegalStateException("shard worker was interrupted", e);
+                    return;
+                }
+                shard.queue.drainTo(batch, BATCH - 1);
+                for (Task<T, ?> task : batch) {
+                    if (task.work == null)
+                        stop = true;
+                    else
+                        task.run(shard.tree);
+                }
+                shard.size = shard.tree.size();
+                if (shard.size > 2L * total() / shards.length + REBALANCE_SLACK)
+                    unbalanced = true;
+                completer.execute(() -> {
+                    for (Task<T, ?> task : batch)
+                        task.complete();
+                });
+            }
+        } finally {
+            shard.stopped = why;
+            failPending(shard, why);
+        }
+    }
+
+    /**
+     * Fails every call queued for a shard whose worker has stopped
+     *
+     * @param shard The shard
+     * @param why   What stopped the worker
+     */
+    private static <T extends Comparable<T>> void failPending(Shard<T> shard, RuntimeException why) {
+        for (Task<T, ?> task = shard.queue.poll(); task != null; task = shard.queue.poll())
+            task.fail(why);
+    }
+
+    /**
+     * Find if an element exists
+     *
+     * @param val The value to find
+     * @return Completes with true if the index contains the value, false otherwise
+     */
+    public CompletableFuture<Boolean> find(T val) {
+        return submit(val, tree -> tree.find(val));
+    }
+
+    /**
+     * Insert an element
+     *
+     * @param val The value to insert
+     * @return Completes with true on success, false if it is already there
+     */
+    public CompletableFuture<Boolean> insert(T val) {
+        return submit(val, tree -> tree.insert(val));
+    }
+
+    /**
+     * Delete an element
+     *
+     * @param val The value to delete
+     * @return Completes with true on success, false if it was not there
+     */
+    public CompletableFuture<Boolean> delete(T val) {
+        return submit(val, tree -> tree.delete(val));
+    }
+
+    /**
+     * Insert a batch of elements. The batch is split by shard and each part goes in with one BinarySearchTree.insertAll.
+     *
+     * @param vals The values to insert
+     * @return Completes with the number of values that were inserted
+     */
+    public CompletableFuture<Integer> insertAll(Collection<? extends T> vals) {
+        return submitAll(vals, true);
+    }
+
+    /**
+     * Delete a batch of elements, split by shard like insertAll
+     *
+     * @param vals The values to delete
+     * @return Completes with the number of values that were deleted
+     */
+    public CompletableFuture<Integer> deleteAll(Collection<? extends T> vals) {
+        return submitAll(vals, false);
+    }
+
+    /**
+     * Routes one call to the shard of its key
+     *
+     * @param val  The key, null goes nowhere
+     * @param work What to run on that shard's tree
+     * @return The future of the call
+     */
+    private CompletableFuture<Boolean> submit(T val, Function<BinarySearchTree<T>, Boolean> work) {
+        checkOpen();
+        if (val == null)
+            return CompletableFuture.completedFuture(false);
+        if (unbalanced)
+            rebalance();
+        routing.readLock().lock();
+        try {
+            return enqueue(route(val), work);
+        } finally {
+            routing.readLock().unlock();
+        }
+    }
+
+    /**
+     * Splits a batch by shard and queues each part
+     *
+     * @param vals   The values
+     * @param insert True to insert them, false to delete them
+     * @return Completes with the total number of values inserted or deleted
+     */
+    private CompletableFuture<Integer> submitAll(Collection<? extends T> vals, boolean insert) {
+        checkOpen();
+        if (unbalanced)
+            rebalance();
+        routing.readLock().lock();
+        try {
+            List<List<T>> parts = new ArrayList<List<T>>();
+            for (int i = 0; i < shards.length; i++)
+                parts.add(new ArrayList<T>());
+            for (T val : vals)
+                if (val != null)
+                    parts.get(route(val)).add(val);
+            CompletableFuture<Integer> changed = CompletableFuture.completedFuture(0);
+            for (int i = 0; i < shards.length; i++) {
+                List<T> part = parts.get(i);
+                if (part.isEmpty())
+                    continue;
+                CompletableFuture<Integer> done = enqueue(i,
+                        tree -> insert ? tree.insertAll(part) : tree.deleteAll(part));
+                changed = changed.thenCombine(done, Integer::sum);
+            }
+            return changed;
+        } finally {
+            routing.readLock().unlock();
+        }
+    }
+
+    /**
+     * Queues work for a shard
+     *
+     * @param shard The index of the shard
+     * @param work  What to run on its tree
+     * @return The future of the work
+     */
+    private <R> CompletableFuture<R> enqueue(int shard, Function<BinarySearchTree<T>, R> work) {
+        Task<T, R> task = new Task<T, R>(work);
+        shards[shard].queue.add(task);
+        RuntimeException why = shards[shard].stopped;
+        if (why != null)   // the worker may have emptied the queue before this call was added
+            failPending(shards[shard], why);
+        return task.future;
+    }
+
+    /**
+     * The shard whose range holds a key, by binary search over the bounds
+     *
+     * @param val The key
+     * @return The index of its shard
+     */
+    private int route(T val) {
+        T[] bounds = this.bounds;
+        if (bounds.length == 0 || bounds[0] == null)   // not spread out yet, everything is in the first shard
+            return 0;
+        int lo = 0;
+        int hi = bounds.length;
+        while (lo < hi) {  // the first bound at or above val
+            int mid = (lo + hi) >>> 1;
+            if (bounds[mid].compareTo(val) < 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Spreads the keys evenly over the shards again. Waits for every worker to finish what is queued, joins the shard
+     * trees into one and splits it at every shards-th rank, while calls wait for the routing lock. Does nothing while
+     * there are fewer elements than shards.
+     */
+    public void rebalance() {
+        checkOpen();
+        routing.writeLock().lock();
+        try {
+            unbalanced = false;
+            List<CompletableFuture<Object>> idle = new ArrayList<CompletableFuture<Object>>();
+            for (int i = 0; i < shards.length; i++)
+                idle.add(enqueue(i, tree -> null));
+            for (CompletableFuture<Object> done : idle)
+                done.join();   // the workers are now waiting for calls that can't be routed until this is over
+            if (total() < shards.length)
+                return;
+            BinarySearchTree<T> all = shards[0].tree;
+            for (int i = 1; i < shards.length; i++) {
+                BinarySearchTree<T> next = shards[i].tree;
+                if (next.size() == 0)
+                    continue;
+                T key = next.min();   // every key of all is smaller, every other key of next larger
+                next.delete(key);
+                all = BinarySearchTree.join(all, key, next);
+            }
+            int total = all.size();
+            @SuppressWarnings("unchecked")
+            T[] bounds = (T[]) new Comparable<?>[shards.length - 1];
+            for (int i = 0; i < bounds.length; i++)
+                bounds[i] = all.select((int) ((long) (i + 1) * total / shards.length) - 1);
+            for (int i = shards.length - 1; i > 0; i--) {  // split off the top shard first
+                shards[i].tree = all.split(bounds[i - 1]);
+                shards[i].size = shards[i].tree.size();
+            }
+            shards[0].tree = all;
+            shards[0].size = all.size();
+            this.bounds = bounds;   // the next calls queued hand the new trees over to the workers
+        } finally {
+            routing.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Number of elements, as of the last batch each worker ran
+     *
+     * @return The number of elements
+     */
+    public int size() {
+        return (int) total();
+    }
+
+    /**
+     * Number of elements in each shard, as of the last batch each worker ran
+     *
+     * @return The sizes in key order
+     */
+    public int[] shardSizes() {
+        int[] sizes = new int[shards.length];
+        for (int i = 0; i < sizes.length; i++)
+            sizes[i] = shards[i].size;
+        return sizes;
+    }
+
+    /**
+     * Sum of the shard sizes
+     *
+     * @return The number of elements
+     */
+    private long total() {
+        long total = 0;
+        for (Shard<T> shard : shards)
+            total += shard.size;
+        return total;
+    }
+
+    /**
+     * Returns an iterator over the elements in increasing order. Each step that runs out of elements asks the shard
+     * holding the last one returned for up to CHUNK more above it, moving on to the next shard when that one has none.
+     * Elements changed while it runs may or may not show up, but every element it returns is larger than the one before.
+     *
+     * @return An in order iterator
+     */
+    @Override
+    public Iterator<T> iterator() {
+        checkOpen();
+        return new Iterator<T>() {
+            private List<T> chunk = new ArrayList<T>();
+            private int next;
+            private T last;
+            private boolean done;
+
+            @Override
+            public boolean hasNext() {
+                if (next == chunk.size() && !done)
+                    fetch();
+                return next < chunk.size();
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                last = chunk.get(next++);
+                return last;
+            }
+
+            /**
+             * Fetches the next chunk, or finds that there is none
+             */
+            private void fetch() {
+                checkOpen();
+                T after = last;
+                routing.readLock().lock();
+                try {
+                    for (int shard = after == null ? 0 : route(after); shard < shards.length; shard++) {
+                        chunk = enqueue(shard, tree -> above(tree, after)).join();
+                        next = 0;
+                        if (!chunk.isEmpty())
+                            return;
+                    }
+                    done = true;
+                } finally {
+                    routing.readLock().unlock();
+                }
+            }
+        };
+    }
+
+    /**
+     * Up to CHUNK elements of a tree that are larger than a key, run by the tree's worker
+     *
+     * @param tree  The shard's tree
+     * @param after The key, or null to start at the smallest element
+     * @return The elements in increasing order
+     */
+    private static <T extends Comparable<T>> List<T> above(BinarySearchTree<T> tree, T after) {
+        List<T> chunk = new ArrayList<T>();
+        Iterator<T> it = after == null ? tree.iterator() : tree.range(after, null);
+        while (it.hasNext() && chunk.size() < CHUNK) {
+            T val = it.next();
+            if (after == null || val.compareTo(after) > 0)
+                chunk.add(val);
+        }
+        return chunk;
+    }
+
+    /**
+     * Stops the workers once they have run everything queued so far. Any later call throws an IllegalStateException,
+     * and a call that raced with close() and was queued too late completes exceptionally with one.
+     */
+    @Override
+    public void close() {
+        if (closed)
+            return;
+        closed = true;
+        for (Shard<T> shard : shards)
+            shard.queue.add(new Task<T, Object>(null));
+        for (Shard<T> shard : shards) {
+            try {
+                shard.worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        completer.shutdown();   // after the last batches were handed to it
+    }
+
+    /**
+     * Makes sure the index has not been closed
+     */
+    private void checkOpen() {
+        if (closed)
+            throw new IllegalStateException("tree is closed");
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ * SipHash SipHash-2-4, a keyed 64-bit hash of a byte string, used to hash the contents of tree elements (see
+ * BinarySearchTree.rootHash). Unlike a hashCode, two different byte strings collide only by chance, and without the key
+ * nobody can pick elements that collide on purpose.
+ *
+ * @author Serena Jiao, yj5qe
+ */
+final class SipHash {
+
+    /**
+     * First half of the key used when the caller does not give one. Replicas compared by hash must use the same key.
+     */
+    static final long KEY0 = 0x0706050403020100L;
+
+    /**
+     * Second half of the default key
+     */
+    static final long KEY1 = 0x0f0e0d0c0b0a0908L;
+
+    /**
+     * No instances
+     */
+    private SipHash() {
+    }
+
+    /**
+     * Hashes length bytes of data
+     *
+     * @param key0   First half of the key
+     * @param key1   Second half of the key
+     * @param data   The bytes to hash
+     * @param length How many bytes of data, from the start, to hash
+     * @return The 64-bit hash
+     */
+    static long hash(long key0, long key1, byte[] data, int length) {
+        long[] v = { key0 ^ 0x736f6d6570736575L, key1 ^ 0x646f72616e646f6dL, key0 ^ 0x6c7967656e657261L,
+                key1 ^ 0x7465646279746573L };
+        int whole = length & ~7;
+        for (int i = 0; i < whole; i += 8)
+            compress(v, word(data, i, 8));
+        compress(v, word(data, whole, length - whole) | (long) length << 56);  // the last bytes and the length
+        v[2] ^= 0xff;
+        for (int i = 0; i < 4; i++)
+            round(v);
+        return v[0] ^ v[1] ^ v[2] ^ v[3];
+    }
+
+    /**
+     * Hashes the eight little-endian bytes of a long, the same as hash on those bytes but without an array
+     *
+     * @param key0  First half of the key
+     * @param key1  Second half of the key
+     * @param value The long to hash
+     * @return The 64-bit hash
+     */
+    static long hash(long key0, long key1, long value) {
+        long[] v = { key0 ^ 0x736f6d6570736575L, key1 ^ 0x646f72616e646f6dL, key0 ^ 0x6c7967656e657261L,
+                key1 ^ 0x7465646279746573L };
+        compress(v, value);
+        compress(v, (long) Long.BYTES << 56);
+        v[2] ^= 0xff;
+        for (int i = 0; i < 4; i++)
+            round(v);
+        return v[0] ^ v[1] ^ v[2] ^ v[3];
+    }
+
+    /**
+     * Mixes one word of the message into the state with two rounds
+     *
+     * @param v The state
+     * @param m The word
+     */
+    private static void compress(long[] v, long m) {
+        v[3] ^= m;
+        round(v);
+        round(v);
+        v[0] ^= m;
+    }
+
+    /**
+     * One SipRound
+     *
+     * @param v The state, four words
+     */
+    private static void round(long[] v) {
+        v[0] += v[1];
+        v[1] = Long.rotateLeft(v[1], 13) ^ v[0];
+        v[0] = Long.rotateLeft(v[0], 32);
+        v[2] += v[3];
+        v[3] = Long.rotateLeft(v[3], 16) ^ v[2];
+        v[0] += v[3];
+        v[3] = Long.rotateLeft(v[3], 21) ^ v[0];
+        v[2] += v[1];
+        v[1] = Long.rotateLeft(v[1], 17) ^ v[2];
+        v[2] = Long.rotateLeft(v[2], 32);
+    }
+
+    /**
+     * Reads up to eight bytes as a little-endian long
+     *
+     * @param data  The bytes
+     * @param from  Index of the first byte
+     * @param count Number of bytes, at most 8
+     * @return The bytes, the first one lowest
+     */
+    private static long word(byte[] data, int from, int count) {
+        long m = 0;
+        for (int i = count - 1; i >= 0; i--)
+            m = m << 8 | (data[from + i] & 0xff);
+        return m;
+    }
+}
@@ -0,0 +1,549 @@
+import java.util.Arrays;
+
+/**
+ * String Binary Search Tree A binary search tree specialized for String keys that share long prefixes, such as paths or
+ * URLs. Like IntBinarySearchTree, nodes are slots in parallel arrays and the tree is always AVL balanced. Every slot also
+ * remembers how many leading chars its key shares with the nearest smaller and the nearest larger ancestor, and caches
+ * the four chars that follow the shorter of those two shared prefixes packed into a long. Every key that can reach a
+ * node during a search starts with that shared prefix, so the search skips it and most steps are decided by comparing
+ * two longs, without touching the node's String at all. The order is the same as String.compareTo.
+ *
+ * @author Serena Jiao, yj5qe
+ */
+public class StringBinarySearchTree {
+
+    /**
+     * Index that stands for "no node". Slot 0 is never used, its height stays 0.
+     */
+    private static final int NIL = 0;
+
+    /**
+     * Number of chars packed into a window, 16 bits each
+     */
+    private static final int WINDOW = 4;
+
+    /**
+     * Key stored in each slot
+     */
+    private String[] keys;
+
+    /**
+     * Length of the key in each slot, so that short keys can be told apart without loading them
+     */
+    private int[] lengths;
+
+    /**
+     * The chars of each key starting at its offset, packed so that unsigned order is String order, zero past the end
+     */
+    private long[] windows;
+
+    /**
+     * Number of leading chars each key shares with its nearest smaller ancestor, 0 if there is none. This may be lower
+     * than the true count after a delete, which is always safe.
+     */
+    private int[] low;
+
+    /**
+     * Number of leading chars each key shares with its nearest larger ancestor, 0 if there is none
+     */
+    private int[] high;
+
+    /**
+     * Index of the left child of each slot, or NIL
+     */
+    private int[] left;
+
+    /**
+     * Index of the right child of each slot, or NIL, also links the free list
+     */
+    private int[] right;
+
+    /**
+     * Height of the subtree rooted at each slot
+     */
+    private byte[] height;
+
+    /**
+     * Index of the root, or NIL for an empty tree
+     */
+    private int root = NIL;
+
+    /**
+     * Number of keys in the tree
+     */
+    private int size;
+
+    /**
+     * First slot that has never been used
+     */
+    private int unused = 1;
+
+    /**
+     * Head of the list of slots freed by delete, or NIL
+     */
+    private int free = NIL;
+
+    /**
+     * Scratch buffer holding the path from the root during insert and delete
+     */
+    private int[] path = new int[16];
+
+    /**
+     * Number of leading chars the key shared with the node in the last call to compare
+     */
+    private int shared;
+
+    /**
+     * Default constructor Creates an empty tree
+     */
+    public StringBinarySearchTree() {
+        this(16);
+    }
+
+    /**
+     * Constructor Creates an empty tree with room for the given number of keys before the arrays have to grow
+     *
+     * @param capacity The number of keys to make room for
+     */
+    public StringBinarySearchTree(int capacity) {
+        int slots = Math.max(capacity, 1) + 1;  // plus the NIL slot
+        keys = new String[slots];
+        lengths = new int[slots];
+        windows = new long[slots];
+        low = new int[slots];
+        high = new int[slots];
+        left = new int[slots];
+        right = new int[slots];
+        height = new byte[slots];
+    }
+
+    /**
+     * Find if an element exists Checks to see if the value val appears in the tree
+     *
+     * @param val The value to find
+     * @return True if the tree contains the value, false otherwise
+     */
+    public boolean find(String val) {
+        if (val == null)
+            return false;
+        int below = 0;  // chars val shares with the nearest smaller node passed so far
+        int above = 0;  // and with the nearest larger one
+        int node = root;
+        while (node != NIL) {
+            int cmp = compare(val, node, Math.min(below, above));
+            if (cmp == 0)
+                return true;
+            if (cmp < 0) {
+                above = shared;
+                node = left[node];
+            } else {
+                below = shared;
+                node = right[node];
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Insert an element Inserts val into the tree where it should appear, returning true on success and false if it is
+     * already there or null
+     *
+     * @param val The value to insert
+     * @return True on success, false if the value was already in the tree
+     */
+    public boolean insert(String val) {
+        if (val == null)
+            return false;
+        if (root == NIL) {
+            root = newNode(val, 0, 0);
+            size++;
+            return true;
+        }
+        int[] path = pathFor(height[root]);
+        int depth = 0;
+        int below = 0;
+        int above = 0;
+        int node = root;
+        while (true) {
+            int cmp = compare(val, node, Math.min(below, above));
+            if (cmp == 0)   // duplicate
+                return false;
+            path[depth++] = node;
+            if (cmp < 0)
+                above = shared;
+            else
+                below = shared;
+            int next = cmp < 0 ? left[node] : right[node];
+            if (next == NIL) {   // found the empty spot, its bounds are the last nodes passed on either side
+                int created = newNode(val, below, above);
+                if (cmp < 0)
+                    left[node] = created;
+                else
+                    right[node] = created;
+                break;
+            }
+            node = next;
+        }
+        size++;
+        fixPath(path, depth);
+        return true;
+    }
+
+    /**
+     * Delete an element Deletes val from the tree if it appears, returning true on success and false otherwise
+     *
+     * @param val The value to delete
+     * @return True on success, false otherwise
+     */
+    public boolean delete(String val) {
+        if (val == null || root == NIL)
+            return false;
+        int[] path = pathFor(height[root]);
+        int depth = 0;
+        int below = 0;
+        int above = 0;
+        int node = root;
+        while (true) {
+            int cmp = compare(val, node, Math.min(below, above));
+            if (cmp == 0)
+                break;
+            path[depth++] = node;
+            if (cmp < 0) {
+                above = shared;
+                node = left[node];
+            } else {
+                below = shared;
+                node = right[node];
+            }
+            if (node == NIL)   // the value does not exist
+                return false;
+        }
+        int removed = node;  // the slot that actually comes out of the tree
+        if (left[node] != NIL && right[node] != NIL) {
+            // two children: move the smallest key of the right subtree up and unlink its slot instead
+            path[depth++] = node;
+            removed = right[node];
+            int toHigh = high[removed];  // chars the successor shares with node's larger bound, lowered along the way
+            while (left[removed] != NIL) {
+                path[depth++] = removed;
+                removed = left[removed];
+                toHigh = Math.min(toHigh, high[removed]);
+            }
+            // the keys in the left subtree that were bounded by node above are now bounded by its successor
+            lowerHigh(left[node], low[removed]);
+            keys[node] = keys[removed];
+            lengths[node] = lengths[removed];
+            setShared(node, Math.min(low[node], low[removed]), toHigh);
+        } else if (left[removed] != NIL) {
+            lowerHigh(left[removed], high[removed]);  // the child inherits the larger bound of the removed node
+        } else if (right[removed] != NIL) {
+            lowerLow(right[removed], low[removed]);
+        }
+        int child = left[removed] != NIL ? left[removed] : right[removed];
+        replaceChild(depth == 0 ? NIL : path[depth - 1], removed, child);
+        release(removed);
+        size--;
+        fixPath(path, depth);
+        return true;
+    }
+
+    /**
+     * The method will return an int that represents the size of the total tree
+     *
+     * @return the number of keys in the tree
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * The method will return an int that represents the height of the total tree
+     *
+     * @return the height of the tree, 0 when it is empty
+     */
+    public int height() {
+        return height[root];
+    }
+
+    /**
+     * Returns a String of the keys from the smallest to the largest in the same "(a)(b)(c)" format as
+     * BinarySearchTree.inOrder()
+     *
+     * @return a string that traverses the tree from the smallest to the largest, or null if the tree is empty
+     */
+    public String inOrder() {
+        if (root == NIL)
+            return null;
+        StringBuilder out = new StringBuilder();
+        int[] stack = new int[height[root]];
+        int top = 0;
+        int node = root;
+        while (node != NIL || top > 0) {
+            while (node != NIL) {  // go as far left as possible, remembering the way back
+                stack[top++] = node;
+                node = left[node];
+            }
+            node = stack[--top];
+            out.append('(').append(keys[node]).append(')');
+            node = right[node];
+        }
+        return out.toString();
+    }
+
+    /**
+     * toString method
+     */
+    @Override
+    public String toString() {
+        if (root == NIL)
+            return "";
+        return inOrder();
+    }
+
+    /**
+     * Compares val with the key of a node, reading the node's key only when its cached window cannot decide. Leaves the
+     * number of leading chars the two share in the shared field.
+     *
+     * @param val   The key being searched for
+     * @param node  The node to compare with
+     * @param known A number of leading chars val is already known to share with the node's key
+     * @return A negative number, zero or a positive number as val is less than, equal to or greater than the key
+     */
+    private int compare(String val, int node, int known) {
+        int offset = Math.min(low[node], high[node]);  // never more than known
+        int valLength = val.length();
+        int keyLength = lengths[node];
+        long mine = pack(val, offset);
+        long theirs = windows[node];
+        if (mine != theirs) {
+            int at = offset + Long.numberOfLeadingZeros(mine ^ theirs) / 16;
+            shared = Math.min(at, Math.min(valLength, keyLength));  // a zero char and the end look alike in a window
+            return Long.compareUnsigned(mine, theirs);
+        }
+        int end = Math.min(valLength, keyLength);
+        if (end <= offset + WINDOW) {  // one of them ends inside the window, so the windows saw all of it
+            shared = end;
+            return valLength - keyLength;
+        }
+        String key = keys[node];
+        int i = Math.max(known, offset + WINDOW);
+        while (i < end && val.charAt(i) == key.charAt(i))
+            i++;
+        shared = i;
+        return i < end ? val.charAt(i) - key.charAt(i) : valLength - keyLength;
+    }
+
+    /**
+     * Packs the chars of a string starting at offset into a long, the first one in the top 16 bits
+     *
+     * @param s      The string to read
+     * @param offset The index of the first char to pack
+     * @return The packed chars, with zeros for positions past the end of s
+     */
+    private static long pack(String s, int offset) {
+        long window = 0;
+        int end = Math.min(s.length(), offset + WINDOW);
+        for (int i = offset; i < end; i++)
+            window = window << 16 | s.charAt(i);
+        return window << 16 * (offset + WINDOW - Math.max(end, offset));
+    }
+
+    /**
+     * Records what a node shares with its bounds and packs its window again
+     *
+     * @param node  The node to update
+     * @param below Chars its key shares with its nearest smaller ancestor
+     * @param above Chars its key shares with its nearest larger ancestor
+     */
+    private void setShared(int node, int below, int above) {
+        windows[node] = pack(keys[node], Math.min(below, above));
+        low[node] = below;
+        high[node] = above;
+    }
+
+    /**
+     * Lowers what the nodes on the right spine of a subtree share with their larger bound, after that bound was
+     * replaced by a larger key sharing only limit chars with the old one
+     *
+     * @param node  The top of the spine
+     * @param limit The new most the spine can share with its larger bound
+     */
+    private void lowerHigh(int node, int limit) {
+        for (; node != NIL; node = right[node])
+            if (high[node] > limit)
+                setShared(node, low[node], limit);
+    }
+
+    /**
+     * Lowers what the nodes on the left spine of a subtree share with their smaller bound, the mirror of lowerHigh
+     *
+     * @param node  The top of the spine
+     * @param limit The new most the spine can share with its smaller bound
+     */
+    private void lowerLow(int node, int limit) {
+        for (; node != NIL; node = left[node])
+            if (low[node] > limit)
+                setShared(node, limit, high[node]);
+    }
+
+    /**
+     * Takes a slot for a new leaf, from the free list if possible, growing the arrays when they are full
+     *
+     * @param val   The key for the new node
+     * @param below Chars it shares with its nearest smaller ancestor
+     * @param above Chars it shares with its nearest larger ancestor
+     * @return The index of the new node
+     */
+    private int newNode(String val, int below, int above) {
+        int node = free;
+        if (node != NIL) {
+            free = right[node];
+        } else {
+            if (unused == keys.length) {
+                int slots = keys.length * 2;
+                keys = Arrays.copyOf(keys, slots);
+                lengths = Arrays.copyOf(lengths, slots);
+                windows = Arrays.copyOf(windows, slots);
+                low = Arrays.copyOf(low, slots);
+                high = Arrays.copyOf(high, slots);
+                left = Arrays.copyOf(left, slots);
+                right = Arrays.copyOf(right, slots);
+                height = Arrays.copyOf(height, slots);
+            }
+            node = unused++;
+        }
+        keys[node] = val;
+        lengths[node] = val.length();
+        windows[node] = pack(val, Math.min(below, above));
+        low[node] = below;
+        high[node] = above;
+        left[node] = NIL;
+        right[node] = NIL;
+        height[node] = 1;
+        return node;
+    }
+
+    /**
+     * Puts a slot that is no longer in the tree on the free list
+     *
+     * @param node The slot to free
+     */
+    private void release(int node) {
+        keys[node] = null;  // let the string go
+        left[node] = NIL;
+        right[node] = free;
+        height[node] = 0;
+        free = node;
+    }
+
+    /**
+     * Walks a remembered path from the bottom back up to the root, refreshing heights and rebalancing
+     *
+     * @param path  The nodes from the root down
+     * @param depth The number of nodes on the path
+     */
+    private void fixPath(int[] path, int depth) {
+        for (int i = depth - 1; i >= 0; i--) {
+            int node = path[i];
+            int top = rebalance(node);
+            if (top != node)   // a rotation lifted a different node into this spot
+                replaceChild(i == 0 ? NIL : path[i - 1], node, top);
+        }
+    }
+
+    /**
+     * Points whichever link referred to oldChild at newChild instead
+     *
+     * @param parent   The parent of oldChild, or NIL if oldChild is the root
+     * @param oldChild The subtree being replaced
+     * @param newChild The subtree taking its place, may be NIL
+     */
+    private void replaceChild(int parent, int oldChild, int newChild) {
+        if (parent == NIL)
+            root = newChild;
+        else if (left[parent] == oldChild)
+            left[parent] = newChild;
+        else
+            right[parent] = newChild;
+    }
+
+    /**
+     * Restores the AVL condition at a node whose subtrees already satisfy it
+     *
+     * @param node The node to rebalance
+     * @return The root of this subtree after at most two rotations
+     */
+    private int rebalance(int node) {
+        update(node);
+        int balance = height[left[node]] - height[right[node]];
+        if (balance > 1) {  // left side is too tall
+            if (height[left[left[node]]] < height[right[left[node]]])
+                left[node] = rotateLeft(left[node]);
+            return rotateRight(node);
+        }
+        if (balance < -1) {  // right side is too tall
+            if (height[right[right[node]]] < height[left[right[node]]])
+                right[node] = rotateRight(right[node]);
+            return rotateLeft(node);
+        }
+        return node;
+    }
+
+    /**
+     * Rotates node down to the right, lifting its left child into its place. The pivot takes over the larger bound of
+     * node, and node gets the pivot as its smaller bound; the subtree that changes parents keeps both of its bounds.
+     *
+     * @param node The node to rotate
+     * @return The new root of this subtree
+     */
+    private int rotateRight(int node) {
+        int pivot = left[node];
+        left[node] = right[pivot];
+        right[pivot] = node;
+        int pivotToNode = high[pivot];
+        setShared(pivot, low[pivot], Math.min(pivotToNode, high[node]));
+        setShared(node, pivotToNode, high[node]);
+        update(node);
+        update(pivot);
+        return pivot;
+    }
+
+    /**
+     * Rotates node down to the left, lifting its right child into its place, the mirror of rotateRight
+     *
+     * @param node The node to rotate
+     * @return The new root of this subtree
+     */
+    private int rotateLeft(int node) {
+        int pivot = right[node];
+        right[node] = left[pivot];
+        left[pivot] = node;
+        int pivotToNode = low[pivot];
+        setShared(pivot, Math.min(pivotToNode, low[node]), high[pivot]);
+        setShared(node, low[node], pivotToNode);
+        update(node);
+        update(pivot);
+        return pivot;
+    }
+
+    /**
+     * Recomputes the height of a node from its children
+     *
+     * @param node The node to update
+     */
+    private void update(int node) {
+        height[node] = (byte) (Math.max(height[left[node]], height[right[node]]) + 1);
+    }
+
+    /**
+     * Hands out the path buffer, growing it if the tree has grown taller than it
+     *
+     * @param height The height of the tree
+     * @return A buffer with room for at least height nodes
+     */
+    private int[] pathFor(int height) {
+        if (path.length < height)
+            path = new int[height * 2];
+        return path;
+    }
+}
@@ -0,0 +1,354 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Tree Algebra Split and join for AVL trees of TreeNodes, and the set operations built on them. join(left, node, right)
+ * hangs the shorter tree at the right height along the spine of the taller one and rebalances on the way back, in time
+ * proportional to the difference in their heights. split cuts a tree along the path to a key and joins the pieces back
+ * together on the way up, in O(log n). Union, intersection and difference split one tree by the root of the other and
+ * then work on the two halves independently, which run in parallel on a ForkJoinPool.
+ * 
+ * All of these take their input trees apart and reuse the nodes; the results satisfy the AVL condition if the inputs do.
+ * 
+ * @author Serena Jiao, yj5qe
+ */
+final class TreeAlgebra {
+
+    /**
+     * Below this many nodes in total a set operation runs in the calling thread, since handing it to another thread
+     * would cost more than it saves
+     */
+    private static final int SEQUENTIAL_THRESHOLD = 4096;
+
+    /**
+     * The result of a split: everything smaller than the key, the node holding the key if there was one, and everything
+     * larger
+     * 
+     * @param <T> The type of data in the tree
+     */
+    static final class Split<T extends Comparable<T>> {
+
+        /**
+         * Root of the tree of elements smaller than the key
+         */
+        final TreeNode<T> left;
+
+        /**
+         * The node that held the key, detached from its children, or null
+         */
+        final TreeNode<T> match;
+
+        /**
+         * Root of the tree of elements larger than the key
+         */
+        final TreeNode<T> right;
+
+        /**
+         * Constructor
+         * 
+         * @param left  Elements smaller than the key
+         * @param match The node with the key, or null
+         * @param right Elements larger than the key
+         */
+        Split(TreeNode<T> left, TreeNode<T> match, TreeNode<T> right) {
+            this.left = left;
+            this.match = match;
+            this.right = right;
+        }
+    }
+
+    /**
+     * No instances, everything here is static
+     */
+    private TreeAlgebra() {
+    }
+
+    /**
+     * Joins two AVL trees and a node in between them into one AVL tree. Every element of left must be smaller than the
+     * node's data and every element of right larger.
+     * 
+     * @param left  Root of the smaller elements, may be null
+     * @param node  The node to put between them, its old children are dropped
+     * @param right Root of the larger elements, may be null
+     * @return The root of the joined tree
+     */
+    static <T extends Comparable<T>> TreeNode<T> join(TreeNode<T> left, TreeNode<T> node, TreeNode<T> right) {
+        if (TreeNode.heightOf(left) > TreeNode.heightOf(right) + 1)
+            return joinRight(left, node, right);
+        if (TreeNode.heightOf(right) > TreeNode.heightOf(left) + 1)
+            return joinLeft(left, node, right);
+        return attach(left, node, right);
+    }
+
+    /**
+     * Join for a left tree more than one level taller: walks down its right spine to a subtree about as tall as right,
+     * joins there, and rebalances on the way back up
+     * 
+     * @param left  The taller tree
+     * @param node  The node to put in between
+     * @param right The shorter tree
+     * @return The root of the joined tree
+     */
+    private static <T extends Comparable<T>> TreeNode<T> joinRight(TreeNode<T> left, TreeNode<T> node,
+            TreeNode<T> right) {
+        TreeNode<T> inner = left.getRight();
+        if (TreeNode.heightOf(inner) <= TreeNode.heightOf(right) + 1) {
+            TreeNode<T> joined = attach(inner, node, right);
+            if (TreeNode.heightOf(joined) <= TreeNode.heightOf(left.getLeft()) + 1)
+                return attach(left.getLeft(), left, joined);
+            left.setRight(joined.rotateRight());  // right-left case, a double rotation
+            return left.rotateLeft();
+        }
+        TreeNode<T> joined = joinRight(inner, node, right);
+        left.setRight(joined);
+        if (TreeNode.heightOf(joined) <= TreeNode.heightOf(left.getLeft()) + 1)
+            return left;
+        return left.rotateLeft();
+    }
+
+    /**
+     * Join for a right tree more than one level taller, the mirror image of joinRight
+     * 
+     * @param left  The shorter tree
+     * @param node  The node to put in between
+     * @param right The taller tree
+     * @return The root of the joined tree
+     */
+    private static <T extends Comparable<T>> TreeNode<T> joinLeft(TreeNode<T> left, TreeNode<T> node,
+            TreeNode<T> right) {
+        TreeNode<T> inner = right.getLeft();
+        if (TreeNode.heightOf(inner) <= TreeNode.heightOf(left) + 1) {
+            TreeNode<T> joined = attach(left, node, inner);
+            if (TreeNode.heightOf(joined) <= TreeNode.heightOf(right.getRight()) + 1)
+                return attach(joined, right, right.getRight());
+            right.setLeft(joined.rotateLeft());
+            return right.rotateRight();
+        }
+        TreeNode<T> joined = joinLeft(left, node, inner);
+        right.setLeft(joined);
+        if (TreeNode.heightOf(joined) <= TreeNode.heightOf(right.getRight()) + 1)
+            return right;
+        return right.rotateRight();
+    }
+
+    /**
+     * Gives a node new children and refreshes it
+     * 
+     * @param left  The new left child
+     * @param node  The node
+     * @param right The new right child
+     * @return The node
+     */
+    private static <T extends Comparable<T>> TreeNode<T> attach(TreeNode<T> left, TreeNode<T> node, TreeNode<T> right) {
+        node.setLeft(left);
+        node.setRight(right);
+        return node;
+    }
+
+    /**
+     * Joins two AVL trees where every element of left is smaller than every element of right
+     * 
+     * @param left  Root of the smaller elements, may be null
+     * @param right Root of the larger elements, may be null
+     * @return The root of the joined tree
+     */
+    static <T extends Comparable<T>> TreeNode<T> join(TreeNode<T> left, TreeNode<T> right) {
+        if (left == null)
+            return right;
+        if (right == null)
+            return left;
+        // take the largest node out of left and use it to join the two
+        TreeNode<T> rest = left;
+        TreeNode<T>[] spine = spine(left);
+        int depth = 0;
+        while (rest.getRight() != null) {
+            spine[depth++] = rest;
+            rest = rest.getRight();
+        }
+        TreeNode<T> largest = rest;
+        rest = largest.getLeft();
+        for (int i = depth - 1; i >= 0; i--)  // put the right spine back together without it
+            rest = join(spine[i].getLeft(), spine[i], rest);
+        return join(rest, largest, right);
+    }
+
+    /**
+     * Splits an AVL tree by a key. The tree is taken apart along the path to the key, and the pieces on each side are
+     * joined back together on the way up.
+     * 
+     * @param root The root of the tree to split, may be null
+     * @param key  The key to split by
+     * @return The parts of the tree smaller than, equal to and larger than the key
+     */
+    static <T extends Comparable<T>> Split<T> split(TreeNode<T> root, T key) {
+        TreeNode<T>[] path = spine(root);
+        int depth = 0;
+        TreeNode<T> node = root;
+        TreeNode<T> match = null;
+        while (node != null) {  // walk down to the key, remembering the way
+            int comp = node.getData().compareTo(key);
+            if (comp == 0) {
+                match = node;
+                break;
+            }
+            path[depth++] = node;
+            node = comp > 0 ? node.getLeft() : node.getRight();
+        }
+        TreeNode<T> left = match == null ? null : match.getLeft();
+        TreeNode<T> right = match == null ? null : match.getRight();
+        for (int i = depth - 1; i >= 0; i--) {  // each node on the path joins the side it belongs to
+            TreeNode<T> step = path[i];
+            if (step.getData().compareTo(key) > 0)
+                right = join(right, step, step.getRight());
+            else
+                left = join(step.getLeft(), step, left);
+        }
+        if (match != null)
+            attach(null, match, null);
+        return new Split<T>(left, match, right);
+    }
+
+    /**
+     * A buffer long enough for any path in a tree
+     * 
+     * @param root The root of the tree
+     * @return An empty array of height() slots
+     */
+    @SuppressWarnings("unchecked")
+    private static <T extends Comparable<T>> TreeNode<T>[] spine(TreeNode<T> root) {
+        return (TreeNode<T>[]) new TreeNode<?>[TreeNode.heightOf(root)];
+    }
+
+    /**
+     * Union of two AVL trees, both of which are used up
+     * 
+     * @param a One tree
+     * @param b The other tree
+     * @return The root of a tree holding every element of either
+     */
+    static <T extends Comparable<T>> TreeNode<T> union(TreeNode<T> a, TreeNode<T> b) {
+        return ForkJoinPool.commonPool().invoke(new SetOperation<T>(SetOperation.UNION, a, b));
+    }
+
+    /**
+     * Intersection of two AVL trees, both of which are used up
+     * 
+     * @param a One tree
+     * @param b The other tree
+     * @return The root of a tree holding the elements that are in both
+     */
+    static <T extends Comparable<T>> TreeNode<T> intersection(TreeNode<T> a, TreeNode<T> b) {
+        return ForkJoinPool.commonPool().invoke(new SetOperation<T>(SetOperation.INTERSECTION, a, b));
+    }
+
+    /**
+     * Difference of two AVL trees, both of which are used up
+     * 
+     * @param a The tree to take elements from
+     * @param b The elements to take away
+     * @return The root of a tree holding the elements of a that are not in b
+     */
+    static <T extends Comparable<T>> TreeNode<T> difference(TreeNode<T> a, TreeNode<T> b) {
+        return ForkJoinPool.commonPool().invoke(new SetOperation<T>(SetOperation.DIFFERENCE, a, b));
+    }
+
+    /**
+     * One step of a set operation: split b by the root of a, recurse on both halves (the left half in another task when
+     * they are big enough) and join the results
+     * 
+     * @param <T> The type of data in the tree
+     */
+    private static final class SetOperation<T extends Comparable<T>> extends RecursiveTask<TreeNode<T>> {
+
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Operation code for union
+         */
+        static final int UNION = 0;
+
+        /**
+         * Operation code for intersection
+         */
+        static final int INTERSECTION = 1;
+
+        /**
+         * Operation code for difference
+         */
+        static final int DIFFERENCE = 2;
+
+        /**
+         * Which operation to run
+         */
+        private final int operation;
+
+        /**
+         * The first tree
+         */
+        private final TreeNode<T> a;
+
+        /**
+         * The second tree
+         */
+        private final TreeNode<T> b;
+
+        /**
+         * Constructor
+         * 
+         * @param operation UNION, INTERSECTION or DIFFERENCE
+         * @param a         The first tree
+         * @param b         The second tree
+         */
+        SetOperation(int operation, TreeNode<T> a, TreeNode<T> b) {
+            this.operation = operation;
+            this.a = a;
+            this.b = b;
+        }
+
+        @Override
+        protected TreeNode<T> compute() {
+            if (a == null || b == null || a.size() + b.size() < SEQUENTIAL_THRESHOLD)
+                return apply(operation, a, b);
+            Split<T> halves = split(b, a.getData());
+            SetOperation<T> leftTask = new SetOperation<T>(operation, a.getLeft(), halves.left);
+            leftTask.fork();
+            TreeNode<T> rightResult = new SetOperation<T>(operation, a.getRight(), halves.right).compute();
+            return combine(operation, leftTask.join(), a, halves.match != null, rightResult);
+        }
+    }
+
+    /**
+     * Runs a set operation in the calling thread
+     * 
+     * @param operation UNION, INTERSECTION or DIFFERENCE
+     * @param a         The first tree
+     * @param b         The second tree
+     * @return The root of the result
+     */
+    private static <T extends Comparable<T>> TreeNode<T> apply(int operation, TreeNode<T> a, TreeNode<T> b) {
+        if (a == null)
+            return operation == SetOperation.UNION ? b : null;
+        if (b == null)
+            return operation == SetOperation.INTERSECTION ? null : a;
+        Split<T> halves = split(b, a.getData());
+        TreeNode<T> left = apply(operation, a.getLeft(), halves.left);
+        TreeNode<T> right = apply(operation, a.getRight(), halves.right);
+        return combine(operation, left, a, halves.match != null, right);
+    }
+
+    /**
+     * Puts the results for the two halves back together, with the node they were split by if the operation keeps it
+     * 
+     * @param operation UNION, INTERSECTION or DIFFERENCE
+     * @param left      The result for the smaller elements
+     * @param node      The node the halves were split by, from the first tree
+     * @param matched   Whether the second tree held the node's data too
+     * @param right     The result for the larger elements
+     * @return The root of the combined result
+     */
+    private static <T extends Comparable<T>> TreeNode<T> combine(int operation, TreeNode<T> left, TreeNode<T> node,
+            boolean matched, TreeNode<T> right) {
+        boolean keep = operation == SetOperation.UNION || (operation == SetOperation.INTERSECTION) == matched;
+        return keep ? join(left, node, right) : join(left, right);
+    }
+}
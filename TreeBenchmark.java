@@ -0,0 +1,926 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Benchmark Rough timings for the tree operations, run from the command line. Every key counts how many times it is
+ * compared, which is exactly the number of nodes an operation visits, so the numbers show how many nodes each operation
+ * touches as well as how long it takes.
+ * 
+ * @author Serena Jiao, yj5qe
+ */
+public class TreeBenchmark {
+
+    /**
+     * Integer key that counts every comparison made against it
+     */
+    static final class CountingKey implements Comparable<CountingKey> {
+
+        /**
+         * Total number of comparisons since the last reset
+         */
+        static long comparisons;
+
+        /**
+         * The wrapped value
+         */
+        final int value;
+
+        /**
+         * Constructor
+         * 
+         * @param value The value to wrap
+         */
+        CountingKey(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public int compareTo(CountingKey other) {
+            comparisons++;
+            return Integer.compare(value, other.value);
+        }
+
+        @Override
+        public String toString() {
+            return Integer.toString(value);
+        }
+    }
+
+    /**
+     * Main method Runs one of the benchmarks
+     * 
+     * @param args The name of the benchmark (traversal by default) and optionally the number of keys
+     */
+    public static void main(String[] args) {
+        String benchmark = args.length > 0 ? args[0] : "traversal";
+        int n = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+        if (benchmark.equals("traversal")) {
+            System.out.println("operation   mode  input   nodes/op     ns/op");
+            for (BinarySearchTree.Balancing balancing : BinarySearchTree.Balancing.values()) {
+                traversals(balancing, "random", shuffled(n, new Random(42)));
+                // sorted input turns an unbalanced tree into a list, so keep it small enough to finish
+                traversals(balancing, "sorted",
+                        sorted(balancing == BinarySearchTree.Balancing.NONE ? Math.min(n, 20000) : n));
+            }
+        } else if (benchmark.equals("primitive")) {
+            primitive(n);
+        } else if (benchmark.equals("concurrent")) {
+            concurrent(n);
+        } else if (benchmark.equals("batch")) {
+            batch(n);
+        } else if (benchmark.equals("setops")) {
+            setOperations(n, false);
+            setOperations(n, true);
+        } else if (benchmark.equals("mapped")) {
+            mapped(n);
+        } else if (benchmark.equals("durable")) {
+            durable(n);
+        } else if (benchmark.equals("metrics")) {
+            metrics(n);
+        } else if (benchmark.equals("frozen")) {
+            frozen(n);
+        } else if (benchmark.equals("zipf")) {
+            zipf(n);
+        } else if (benchmark.equals("churn")) {
+            churn(n);
+        } else if (benchmark.equals("ingest")) {
+            ingest(n);
+        } else if (benchmark.equals("strings")) {
+            strings(n);
+        } else if (benchmark.equals("replicas")) {
+            replicas(n);
+        } else if (benchmark.equals("encode")) {
+            encode(n);
+        } else {
+            System.out.println("unknown benchmark " + benchmark);
+        }
+    }
+
+    /**
+     * Compares the heap used and the time taken by a BinarySearchTree of boxed Integers with an IntBinarySearchTree
+     * holding the same random keys
+     * 
+     * @param n The number of keys
+     */
+    static void primitive(int n) {
+        Random random = new Random(42);
+        int[] keys = new int[n];
+        for (int i = 0; i < n; i++)
+            keys[i] = random.nextInt();
+        long before = usedHeap();
+        long start = System.nanoTime();
+        BinarySearchTree<Integer> boxed = new BinarySearchTree<Integer>(BinarySearchTree.Balancing.AVL);
+        for (int key : keys)
+            boxed.insert(key);
+        long insertTime = System.nanoTime() - start;
+        long heap = usedHeap() - before;
+        start = System.nanoTime();
+        int hits = 0;
+        for (int key : keys)
+            hits += boxed.find(key) ? 1 : 0;
+        long findTime = System.nanoTime() - start;
+        System.out.printf("BinarySearchTree<Integer> %6.1f bytes/key %7.1f ns/insert %7.1f ns/find (%d)%n",
+                (double) heap / n, (double) insertTime / n, (double) findTime / n, hits);
+        boxed = null;
+        before = usedHeap();
+        start = System.nanoTime();
+        IntBinarySearchTree primitive = new IntBinarySearchTree();
+        for (int key : keys)
+            primitive.insert(key);
+        insertTime = System.nanoTime() - start;
+        heap = usedHeap() - before;
+        start = System.nanoTime();
+        hits = 0;
+        for (int key : keys)
+            hits += primitive.find(key) ? 1 : 0;
+        findTime = System.nanoTime() - start;
+        System.out.printf("IntBinarySearchTree       %6.1f bytes/key %7.1f ns/insert %7.1f ns/find (%d)%n",
+                (double) heap / n, (double) insertTime / n, (double) findTime / n, hits);
+    }
+
+    /**
+     * Measures throughput of a mixed workload (90% find, 5% insert, 5% delete on random keys) with 1 to 8 threads, for a
+     * BinarySearchTree behind one global lock, for ConcurrentBinarySearchTree and for a ShardedBinarySearchTree of four
+     * shards, whose callers each wait for their result
+     * 
+     * @param n The key range, half of which is inserted up front
+     */
+    static void concurrent(int n) {
+        System.out.println("tree         threads     ops/s");
+        for (int threads = 1; threads <= 8; threads *= 2) {
+            final BinarySearchTree<Integer> locked = new BinarySearchTree<Integer>(BinarySearchTree.Balancing.AVL);
+            final ConcurrentBinarySearchTree<Integer> concurrent = new ConcurrentBinarySearchTree<Integer>();
+            final ShardedBinarySearchTree<Integer> sharded = new ShardedBinarySearchTree<Integer>(4);
+            Random random = new Random(42);
+            List<Integer> initial = new ArrayList<Integer>();
+            for (int i = 0; i < n / 2; i++) {
+                int key = random.nextInt(n);
+                locked.insert(key);
+                concurrent.insert(key);
+                initial.add(key);
+            }
+            sharded.insertAll(initial).join();
+            sharded.rebalance();
+            long lockedOps = throughput(threads, n, (op, key) -> {
+                synchronized (locked) {
+                    if (op == 0)
+                        locked.insert(key);
+                    else if (op == 1)
+                        locked.delete(key);
+                    else
+                        locked.find(key);
+                }
+            });
+            long concurrentOps = throughput(threads, n, (op, key) -> {
+                if (op == 0)
+                    concurrent.insert(key);
+                else if (op == 1)
+                    concurrent.delete(key);
+                else
+                    concurrent.find(key);
+            });
+            long shardedOps = throughput(threads, n, (op, key) -> {   // each thread waits for every call
+                if (op == 0)
+                    sharded.insert(key).join();
+                else if (op == 1)
+                    sharded.delete(key).join();
+                else
+                    sharded.find(key).join();
+            });
+            sharded.close();
+            System.out.printf("global lock  %7d %9d%n", threads, lockedOps);
+            System.out.printf("concurrent   %7d %9d%n", threads, concurrentOps);
+            System.out.printf("sharded (4)  %7d %9d%n", threads, shardedOps);
+        }
+    }
+
+    /**
+     * Compares the cost per key of findAll/insertAll/deleteAll with one call per key, for batches of 1k to 100k random
+     * keys against a tree of n keys. The comparison counts of the batches include sorting them. Everything runs twice
+     * and only the second round is printed, so neither side is measured before the JIT has compiled it.
+     * 
+     * @param n The number of keys in the tree
+     */
+    static void batch(int n) {
+        batch(n, false);
+        batch(n, true);
+    }
+
+    /**
+     * One round of the batch benchmark
+     * 
+     * @param n     The number of keys in the tree
+     * @param print Whether to print the results
+     */
+    static void batch(int n, boolean print) {
+        if (print)
+            System.out.println("batch     operation    single ns/key  batch ns/key  single nodes/key  batch nodes/key");
+        Random random = new Random(42);
+        ArrayList<CountingKey> initial = new ArrayList<CountingKey>();
+        for (int i = 0; i < n; i++)
+            initial.add(new CountingKey(random.nextInt(4 * n)));
+        for (int size = 1000; size <= 100000; size *= 10) {
+            List<CountingKey> keys = new ArrayList<CountingKey>();
+            for (int i = 0; i < size; i++)
+                keys.add(new CountingKey(random.nextInt(4 * n)));
+            for (String operation : new String[] { "find", "insert", "delete" }) {
+                BinarySearchTree<CountingKey> single = new BinarySearchTree<CountingKey>(BinarySearchTree.Balancing.AVL);
+                single.buildFromList(initial);
+                BinarySearchTree<CountingKey> batched = new BinarySearchTree<CountingKey>(BinarySearchTree.Balancing.AVL);
+                batched.buildFromList(initial);
+                CountingKey.comparisons = 0;
+                long start = System.nanoTime();
+                for (CountingKey key : keys) {
+                    if (operation.equals("find"))
+                        single.find(key);
+                    else if (operation.equals("insert"))
+                        single.insert(key);
+                    else
+                        single.delete(key);
+                }
+                long singleTime = System.nanoTime() - start;
+                long singleNodes = CountingKey.comparisons;
+                CountingKey.comparisons = 0;
+                start = System.nanoTime();
+                if (operation.equals("find"))
+                    batched.findAll(keys);
+                else if (operation.equals("insert"))
+                    batched.insertAll(keys);
+                else
+                    batched.deleteAll(keys);
+                long batchTime = System.nanoTime() - start;
+                if (print)
+                        System.out.printf("%6d    %-9s %13.1f %13.1f %17.1f %16.1f%n", size, operation,
+                            (double) singleTime / size, (double) batchTime / size, (double) singleNodes / size,
+                            (double) CountingKey.comparisons / size);
+            }
+        }
+    }
+
+    /**
+     * Compares union, intersection and difference of a tree of n keys with one of n / 100 to n keys against doing the
+     * same with one insert, find or delete per key of the smaller tree. Runs twice, printing only the second round.
+     * 
+     * @param n     The number of keys in the larger tree
+     * @param print Whether to print the results
+     */
+    static void setOperations(int n, boolean print) {
+        if (print)
+            System.out.println("other     operation    per-key ms   set-op ms");
+        Random random = new Random(42);
+        ArrayList<Integer> large = new ArrayList<Integer>();
+        for (int i = 0; i < n; i++)
+            large.add(random.nextInt(4 * n));
+        for (int m = Math.max(1, n / 100); m <= n; m *= 10) {
+            ArrayList<Integer> small = new ArrayList<Integer>();
+            for (int i = 0; i < m; i++)
+                small.add(random.nextInt(4 * n));
+            BinarySearchTree<Integer> other = new BinarySearchTree<Integer>(BinarySearchTree.Balancing.AVL);
+            other.buildFromList(small);
+            for (String operation : new String[] { "union", "intersect", "difference" }) {
+                BinarySearchTree<Integer> single = new BinarySearchTree<Integer>(BinarySearchTree.Balancing.AVL);
+                single.buildFromList(large);
+                BinarySearchTree<Integer> algebra = new BinarySearchTree<Integer>(BinarySearchTree.Balancing.AVL);
+                algebra.buildFromList(large);
+                long start = System.nanoTime();
+                if (operation.equals("union")) {
+                    for (Integer key : other)
+                        single.insert(key);
+                } else if (operation.equals("intersect")) {
+                    BinarySearchTree<Integer> kept = new BinarySearchTree<Integer>(BinarySearchTree.Balancing.AVL);
+                    for (Integer key : other)
+                        if (single.find(key))
+                            kept.insert(key);
+                    single = kept;
+                } else {
+                    for (Integer key : other)
+                        single.delete(key);
+                }
+                long singleTime = System.nanoTime() - start;
+                start = System.nanoTime();
+                if (operation.equals("union"))
+                    algebra.union(other);
+                else if (operation.equals("intersect"))
+                    algebra.intersection(other);
+                else
+                    algebra.difference(other);
+                long algebraTime = System.nanoTime() - start;
+                if (single.size() != algebra.size())
+                    throw new IllegalStateException(operation + " results differ");
+                if (print)
+                    System.out.printf("%8d  %-10s %12.2f %11.2f%n", m, operation, singleTime / 1e6,
+                            algebraTime / 1e6);
+            }
+        }
+    }
+
+    /**
+     * Compares reopening a tree of n random Long keys saved in the mapped format with rebuilding it from its inOrder()
+     * text, and times finds against the mapped file and against the tree on the heap
+     * 
+     * @param n The number of keys
+     */
+    static void mapped(int n) {
+        Random random = new Random(42);
+        ArrayList<Long> initial = new ArrayList<Long>();
+        for (int i = 0; i < n; i++)
+            initial.add(random.nextLong());
+        BinarySearchTree<Long> tree = new BinarySearchTree<Long>(BinarySearchTree.Balancing.AVL);
+        tree.buildFromList(initial);
+        Path file = null;
+        try {
+            file = Files.createTempFile("benchmark", ".bst");
+            long start = System.nanoTime();
+            MappedBinarySearchTree.save(tree, KeyCodec.LONG, file);
+            System.out.printf("save            %10.1f ms%n", (System.nanoTime() - start) / 1e6);
+            String text = tree.inOrder();
+            start = System.nanoTime();
+            ArrayList<Long> parsed = new ArrayList<Long>();
+            for (String key : text.substring(1, text.length() - 1).split("\\)\\("))
+                parsed.add(Long.parseLong(key));
+            BinarySearchTree<Long> rebuilt = new BinarySearchTree<Long>(BinarySearchTree.Balancing.AVL);
+            rebuilt.buildFromList(parsed);
+            System.out.printf("rebuild         %10.1f ms%n", (System.nanoTime() - start) / 1e6);
+            start = System.nanoTime();
+            try (MappedBinarySearchTree<Long> mapped = MappedBinarySearchTree.open(file, KeyCodec.LONG)) {
+                mapped.find(initial.get(0));
+                System.out.printf("open + find     %10.3f ms%n", (System.nanoTime() - start) / 1e6);
+                for (int round = 0; round < 2; round++) {   // the first round warms up the JIT and the page cache
+                    int hits = 0;
+                    start = System.nanoTime();
+                    for (int i = 0; i < n; i++)
+                        if (mapped.find(initial.get(i)))
+                            hits++;
+                    long mappedTime = System.nanoTime() - start;
+                    start = System.nanoTime();
+                    for (int i = 0; i < n; i++)
+                        if (tree.find(initial.get(i)))
+                            hits--;
+                    long heapTime = System.nanoTime() - start;
+                    if (hits != 0)
+                        throw new IllegalStateException("mapped and heap finds disagree");
+                    if (round == 1)
+                        System.out.printf("find mapped     %10.1f ns/op%nfind heap       %10.1f ns/op%n",
+                                (double) mappedTime / n, (double) heapTime / n);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            if (file != null)
+                file.toFile().delete();
+        }
+    }
+
+    /**
+     * Times n random inserts into a DurableBinarySearchTree with an fsync per change and with one per group of 64, and
+     * how long reopening takes with a log of n / 10 changes on top of the checkpoint
+     * 
+     * @param n The number of keys
+     */
+    static void durable(int n) {
+        Path directory = null;
+        try {
+            directory = Files.createTempDirectory("benchmark");
+            for (int groupSize : new int[] { 1, 64 }) {
+                int count = groupSize == 1 ? Math.min(n, 2000) : n;  // an fsync per change is slow
+                Random random = new Random(42);
+                DurableBinarySearchTree<Integer> tree = DurableBinarySearchTree.open(directory, KeyCodec.INTEGER,
+                        groupSize, Math.max(1, n / 10));
+                long start = System.nanoTime();
+                for (int i = 0; i < count; i++)
+                    tree.insert(random.nextInt());
+                tree.sync();
+                System.out.printf("group %3d %10.1f us/insert%n", groupSize, (System.nanoTime() - start) / 1e3 / count);
+                int size = tree.size();
+                int logged = tree.logLength();
+                tree.close();
+                start = System.nanoTime();
+                tree = DurableBinarySearchTree.open(directory, KeyCodec.INTEGER, groupSize, Math.max(1, n / 10));
+                System.out.printf("reopen %d keys, %d logged %10.1f ms%n", size, logged,
+                        (System.nanoTime() - start) / 1e6);
+                tree.close();
+                Files.delete(directory.resolve(DurableBinarySearchTree.LOG));
+                Files.delete(directory.resolve(DurableBinarySearchTree.CHECKPOINT));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            if (directory != null)
+                directory.toFile().delete();
+        }
+    }
+
+    /**
+     * Times finds and insert/delete pairs on a tree of n random keys with metrics off and on, to show what they cost.
+     * Five rounds, printing the last, so the JIT has settled.
+     * 
+     * @param n The number of keys
+     */
+    static void metrics(int n) {
+        Random random = new Random(42);
+        ArrayList<Integer> initial = new ArrayList<Integer>();
+        for (int i = 0; i < n; i++)
+            initial.add(random.nextInt(4 * n));
+        BinarySearchTree<Integer> tree = new BinarySearchTree<Integer>(BinarySearchTree.Balancing.AVL);
+        tree.buildFromList(initial);
+        Integer[] keys = new Integer[1 << 20];
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = random.nextInt(4 * n);
+        for (int round = 0; round < 5; round++) {
+            for (boolean on : new boolean[] { false, true }) {
+                if (on)
+                    tree.enableMetrics();
+                else
+                    tree.disableMetrics();
+                long start = System.nanoTime();
+                int hits = 0;
+                for (Integer key : keys)
+                    if (tree.find(key))
+                        hits++;
+                long findTime = System.nanoTime() - start;
+                start = System.nanoTime();
+                for (Integer key : keys)
+                    if (tree.insert(key))
+                        tree.delete(key);
+                long changeTime = System.nanoTime() - start;
+                if (round == 4)
+                    System.out.printf("metrics %-3s  find %6.1f ns/op  insert+delete %6.1f ns/op  (%d hits)%n",
+                            on ? "on" : "off", (double) findTime / keys.length, (double) changeTime / keys.length,
+                            hits);
+            }
+        }
+        System.out.println(tree.getMetrics());
+    }
+
+    /**
+     * Times random finds and floors on an AVL tree of n random keys and on its frozen copy. With n in the millions the
+     * nodes and keys no longer fit in the last-level cache. Three rounds, printing the last.
+     * 
+     * @param n The number of keys
+     */
+    static void frozen(int n) {
+        Random random = new Random(42);
+        BinarySearchTree<Integer> tree = new BinarySearchTree<Integer>(BinarySearchTree.Balancing.AVL);
+        for (int i = 0; i < n; i++)   // inserted one at a time, so nodes end up spread over the heap
+            tree.insert(random.nextInt(4 * n));
+        FrozenTree<Integer> frozen = tree.freeze();
+        FrozenTree<Integer> packed = tree.freeze(KeyCodec.INTEGER);
+        Integer[] keys = new Integer[1 << 21];
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = random.nextInt(4 * n);
+        for (int round = 0; round < 3; round++) {
+            long[] find = new long[3];
+            long[] floor = new long[3];
+            long[] check = new long[6];
+            for (int layout = 0; layout < 3; layout++) {
+                long start = System.nanoTime();
+                for (Integer key : keys)
+                    if (layout == 0 ? tree.find(key) : layout == 1 ? frozen.contains(key) : packed.contains(key))
+                        check[layout]++;
+                find[layout] = System.nanoTime() - start;
+                start = System.nanoTime();
+                for (Integer key : keys) {
+                    Integer below = layout == 0 ? tree.floor(key) : layout == 1 ? frozen.floor(key) : packed.floor(key);
+                    check[3 + layout] += below == null ? 0 : below;
+                }
+                floor[layout] = System.nanoTime() - start;
+            }
+            if (check[0] != check[1] || check[0] != check[2] || check[3] != check[4] || check[3] != check[5])
+                throw new IllegalStateException("frozen and pointer trees disagree");
+            if (round == 2)
+                for (int layout = 0; layout < 3; layout++)
+                    System.out.printf("n=%d  %-15s find %7.1f ns  floor %7.1f ns%n", n,
+                            new String[] { "tree", "frozen", "frozen + codec" }[layout],
+                            (double) find[layout] / keys.length, (double) floor[layout] / keys.length);
+        }
+    }
+
+    /**
+     * Times finds drawn from Zipf distributions (the kth most popular key is asked for in proportion to 1/k^s) on trees
+     * of n random keys in each balancing mode, printing time and compareTo calls per find. Three rounds, printing the
+     * last.
+     * 
+     * @param n The number of keys
+     */
+    static void zipf(int n) {
+        Random random = new Random(42);
+        CountingKey[] keys = shuffled(n, random);
+        CountingKey[] byPopularity = keys.clone();  // popularity has nothing to do with insertion order or value
+        for (int i = n - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            CountingKey swap = byPopularity[i];
+            byPopularity[i] = byPopularity[j];
+            byPopularity[j] = swap;
+        }
+        System.out.println("s     mode     ns/find  compares/find");
+        for (double exponent : new double[] { 1.0, 1.2, 1.5 }) {
+            double[] cumulative = new double[n];
+            double total = 0;
+            for (int k = 0; k < n; k++) {
+                total += Math.pow(k + 1, -exponent);
+                cumulative[k] = total;
+            }
+            CountingKey[] lookups = new CountingKey[1 << 21];
+            for (int i = 0; i < lookups.length; i++) {
+                int rank = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+                lookups[i] = byPopularity[Math.min(rank < 0 ? -rank - 1 : rank, n - 1)];
+            }
+            for (BinarySearchTree.Balancing balancing : BinarySearchTree.Balancing.values()) {
+                BinarySearchTree<CountingKey> tree = new BinarySearchTree<CountingKey>(balancing);
+                for (CountingKey key : keys)
+                    tree.insert(key);
+                for (int round = 0; round < 3; round++) {
+                    CountingKey.comparisons = 0;
+                    long start = System.nanoTime();
+                    for (CountingKey key : lookups)
+                        tree.find(key);
+                    long time = System.nanoTime() - start;
+                    if (round == 2)
+                        System.out.printf("%.1f   %-6s %9.1f %14.1f%n", exponent, balancing,
+                                (double) time / lookups.length, (double) CountingKey.comparisons / lookups.length);
+                }
+            }
+        }
+    }
+
+    /**
+     * Times a delete-heavy churn (two deletes for every insert, keys drawn at random from a range twice the size of the
+     * tree) on AVL trees of n keys, with eager deletes and with lazy deletion at a few thresholds. Prints the mean and
+     * the 99.99th percentile of single operations, which shows whether the sweep ever stalls a call (the very slowest
+     * ones are garbage collections). Three rounds, printing the last.
+     * 
+     * @param n The number of keys
+     */
+    static void churn(int n) {
+        Random random = new Random(42);
+        int[] ops = new int[1 << 21];
+        for (int i = 0; i < ops.length; i++)   // the key, negated for a delete
+            ops[i] = random.nextInt(3) == 0 ? random.nextInt(2 * n) + 1 : -random.nextInt(2 * n) - 1;
+        long[] latencies = new long[ops.length];
+        System.out.println("deletes      ns/op  p99.99 us  tombstones  height");
+        for (double threshold : new double[] { 0, 0.1, 0.25, 0.5 }) {
+            for (int round = 0; round < 3; round++) {
+                BinarySearchTree<Integer> tree = new BinarySearchTree<Integer>(BinarySearchTree.Balancing.AVL);
+                for (int i = 0; i < n; i++)
+                    tree.insert(random.nextInt(2 * n) + 1);
+                if (threshold > 0)
+                    tree.enableLazyDeletion(threshold);
+                long start = System.nanoTime();
+                for (int i = 0; i < ops.length; i++) {
+                    long before = System.nanoTime();
+                    if (ops[i] > 0)
+                        tree.insert(ops[i]);
+                    else
+                        tree.delete(-ops[i]);
+                    latencies[i] = System.nanoTime() - before;
+                }
+                long time = System.nanoTime() - start;
+                Arrays.sort(latencies);
+                if (round == 2)
+                    System.out.printf("%-10s %8.1f %10.1f %11d %7d%n", threshold == 0 ? "eager" : "lazy " + threshold,
+                            (double) time / ops.length, latencies[ops.length - ops.length / 10000 - 1] / 1000.0,
+                            tree.tombstones(), tree.height());
+            }
+        }
+    }
+
+    /**
+     * Times inserting and finding n path-like keys ("/srv/data/projects/p17/src/module3/file12345.txt", so that keys
+     * near each other in the tree share long prefixes) in a BinarySearchTree of Strings and in a StringBinarySearchTree.
+     * Three rounds, printing the last.
+     * 
+     * @param n The number of keys
+     */
+    static void strings(int n) {
+        Random random = new Random(42);
+        String[] keys = new String[n];
+        for (int i = 0; i < n; i++)
+            keys[i] = "/srv/data/projects/p" + random.nextInt(32) + "/src/module" + random.nextInt(16) + "/file"
+                    + random.nextInt(1 << 20) + ".txt";
+        System.out.println("tree                      ns/insert   ns/find");
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            BinarySearchTree<String> boxed = new BinarySearchTree<String>(BinarySearchTree.Balancing.AVL);
+            for (String key : keys)
+                boxed.insert(key);
+            long insertTime = System.nanoTime() - start;
+            start = System.nanoTime();
+            int hits = 0;
+            for (String key : keys)
+                hits += boxed.find(key) ? 1 : 0;
+            long findTime = System.nanoTime() - start;
+            if (round == 2)
+                System.out.printf("BinarySearchTree<String> %10.1f %9.1f (%d)%n", (double) insertTime / n,
+                        (double) findTime / n, hits);
+            start = System.nanoTime();
+            StringBinarySearchTree prefixed = new StringBinarySearchTree();
+            for (String key : keys)
+                prefixed.insert(key);
+            insertTime = System.nanoTime() - start;
+            start = System.nanoTime();
+            hits = 0;
+            for (String key : keys)
+                hits += prefixed.find(key) ? 1 : 0;
+            findTime = System.nanoTime() - start;
+            if (round == 2)
+                System.out.printf("StringBinarySearchTree   %10.1f %9.1f (%d)%n", (double) insertTime / n,
+                        (double) findTime / n, hits);
+        }
+    }
+
+    /**
+     * Builds two AVL replicas of the same n keys, inserted in different orders so that their shapes differ, makes a few
+     * changes to one of them, and times telling them apart by comparing their inOrder() strings against rootHash() and
+     * diff()
+     * 
+     * @param n The number of keys
+     */
+    static void replicas(int n) {
+        Random random = new Random(42);
+        int[] keys = new int[n];
+        for (int i = 0; i < n; i++)
+            keys[i] = random.nextInt();
+        BinarySearchTree<Integer> primary = new BinarySearchTree<Integer>(BinarySearchTree.Balancing.AVL);
+        BinarySearchTree<Integer> replica = new BinarySearchTree<Integer>(BinarySearchTree.Balancing.AVL);
+        for (int key : keys)
+            primary.insert(key);
+        for (int i = n - 1; i >= 0; i--)
+            replica.insert(keys[i]);
+        System.out.println("changes  inOrder ms  rootHash ns  diff ms  differences");
+        for (int changes : new int[] { 0, 1, 10, 100, 1000 }) {
+            for (int i = 0; i < changes; i++) {   // half new keys, half deleted ones
+                if (i % 2 == 0)
+                    replica.insert(random.nextInt());
+                else
+                    replica.delete(keys[random.nextInt(n)]);
+            }
+            long start = System.nanoTime();
+            boolean same = primary.inOrder().equals(replica.inOrder());
+            long stringTime = System.nanoTime() - start;
+            start = System.nanoTime();
+            same = same & primary.rootHash() == replica.rootHash();
+            long hashTime = System.nanoTime() - start;
+            start = System.nanoTime();
+            List<Integer> differences = primary.diff(replica);
+            long diffTime = System.nanoTime() - start;
+            System.out.printf("%7d %11.1f %12d %8.3f %12d%s%n", changes, stringTime / 1e6, hashTime, diffTime / 1e6,
+                    differences.size(), same ? "" : " (differ)");
+            for (Integer key : differences)   // sync the replica back
+                if (primary.find(key))
+                    replica.insert(key);
+                else
+                    replica.delete(key);
+        }
+    }
+
+    /**
+     * Times shipping an AVL tree of n random keys with encode() and decode() against the textual route, inOrder() parsed
+     * back into a list for buildFromList, and against inserting the keys one at a time. Three rounds, printing the last.
+     * 
+     * @param n The number of keys
+     */
+    static void encode(int n) {
+        Random random = new Random(42);
+        BinarySearchTree<Integer> tree = new BinarySearchTree<Integer>(BinarySearchTree.Balancing.AVL);
+        for (int i = 0; i < n; i++)
+            tree.insert(random.nextInt());
+        System.out.println("route          bytes/key  ms to write  ms to rebuild");
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            byte[] encoded = tree.encode(KeyCodec.INTEGER);
+            long writeTime = System.nanoTime() - start;
+            start = System.nanoTime();
+            BinarySearchTree<Integer> decoded = BinarySearchTree.decode(encoded, KeyCodec.INTEGER);
+            long readTime = System.nanoTime() - start;
+            if (decoded.size() != tree.size() || decoded.rootHash() != tree.rootHash())
+                throw new IllegalStateException("decoded tree differs");
+            if (round == 2)
+                System.out.printf("encode/decode  %9.1f %12.1f %14.1f%n", (double) encoded.length / tree.size(),
+                        writeTime / 1e6, readTime / 1e6);
+            start = System.nanoTime();
+            String text = tree.inOrder();
+            writeTime = System.nanoTime() - start;
+            start = System.nanoTime();
+            ArrayList<Integer> list = new ArrayList<Integer>(tree.size());
+            for (int from = 0; from < text.length();) {   // "(a)(b)(c)"
+                int end = text.indexOf(')', from);
+                list.add(Integer.parseInt(text, from + 1, end, 10));
+                from = end + 1;
+            }
+            BinarySearchTree<Integer> built = new BinarySearchTree<Integer>(BinarySearchTree.Balancing.AVL);
+            built.buildFromList(list);
+            readTime = System.nanoTime() - start;
+            if (round == 2)
+                System.out.printf("inOrder/build  %9.1f %12.1f %14.1f%n", (double) text.length() / tree.size(),
+                        writeTime / 1e6, readTime / 1e6);
+            start = System.nanoTime();
+            BinarySearchTree<Integer> inserted = new BinarySearchTree<Integer>(BinarySearchTree.Balancing.AVL);
+            for (Integer key : list)
+                inserted.insert(key);
+            readTime = System.nanoTime() - start;
+            if (round == 2)
+                System.out.printf("insert         %9s %12s %14.1f%n", "", "", readTime / 1e6);
+        }
+    }
+
+    /**
+     * Writes a dump of n random int keys (about one in five a duplicate) and times building an AVL tree from it with
+     * ExternalSorter at a few memory budgets, against reading it all into a list for buildFromList, and sorting it into
+     * a mapped file
+     * 
+     * @param n The number of keys
+     */
+    static void ingest(int n) {
+        try {
+            Path keys = Files.createTempFile("ingest", ".keys");
+            Path index = Files.createTempFile("ingest", ".bst");
+            try {
+                Random random = new Random(42);
+                ByteBuffer dump = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+                try (FileChannel out = FileChannel.open(keys, StandardOpenOption.WRITE)) {
+                    for (int i = 0; i < n; i++) {
+                        dump.putInt(random.nextInt(2 * n));
+                        if (!dump.hasRemaining() || i == n - 1) {
+                            dump.flip();
+                            while (dump.hasRemaining())
+                                out.write(dump);
+                            dump.clear();
+                        }
+                    }
+                }
+                long start = System.nanoTime();
+                ArrayList<Integer> list = new ArrayList<Integer>();
+                ByteBuffer all = ByteBuffer.wrap(Files.readAllBytes(keys)).order(ByteOrder.LITTLE_ENDIAN);
+                while (all.hasRemaining())
+                    list.add(all.getInt());
+                BinarySearchTree<Integer> tree = new BinarySearchTree<Integer>(BinarySearchTree.Balancing.AVL);
+                tree.buildFromList(list);
+                System.out.printf("buildFromList            %7.1f ms  %d keys%n", (System.nanoTime() - start) / 1e6,
+                        tree.size());
+                list = null;
+                all = null;
+                for (long memory : new long[] { 1L << 20, 16L << 20, 256L << 20 }) {
+                    start = System.nanoTime();
+                    tree = ExternalSorter.toTree(keys, KeyCodec.INTEGER, memory, BinarySearchTree.Balancing.AVL);
+                    System.out.printf("toTree, %4d MB budget    %7.1f ms  %d keys%n", memory >> 20,
+                            (System.nanoTime() - start) / 1e6, tree.size());
+                }
+                start = System.nanoTime();
+                ExternalSorter.toIndex(keys, KeyCodec.INTEGER, 16L << 20, index);
+                System.out.printf("toIndex, 16 MB budget    %7.1f ms%n", (System.nanoTime() - start) / 1e6);
+            } finally {
+                Files.deleteIfExists(keys);
+                Files.deleteIfExists(index);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * One operation of the concurrent benchmark
+     */
+    interface Operation {
+        /**
+         * Runs one operation
+         * 
+         * @param op  0 for insert, 1 for delete, anything else for find
+         * @param key The key to use
+         */
+        void run(int op, int key);
+    }
+
+    /**
+     * Runs an operation from several threads for one second
+     * 
+     * @param threads   The number of threads
+     * @param range     Keys are drawn from 0 to range - 1
+     * @param operation What each thread runs
+     * @return The number of operations completed per second across all threads
+     */
+    static long throughput(int threads, int range, Operation operation) {
+        final long end = System.nanoTime() + 1000000000L;
+        final long[] counts = new long[threads];
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            workers[t] = new Thread(() -> {
+                Random random = new Random(id);
+                long count = 0;
+                while ((count & 1023) != 0 || System.nanoTime() < end) {
+                    int dice = random.nextInt(100);
+                    operation.run(dice < 5 ? 0 : dice < 10 ? 1 : 2, random.nextInt(range));
+                    count++;
+                }
+                counts[id] = count;
+            });
+            workers[t].start();
+        }
+        long total = 0;
+        for (int t = 0; t < threads; t++) {
+            try {
+                workers[t].join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            total += counts[t];
+        }
+        return total;
+    }
+
+    /**
+     * Heap in use after asking for a garbage collection
+     * 
+     * @return The used heap in bytes
+     */
+    static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Inserts, finds and deletes the given keys, printing the average nodes visited and time for each operation
+     * 
+     * @param balancing The balancing mode of the tree
+     * @param input     Name of the input order for the report
+     * @param keys      The keys in insertion order
+     */
+    static void traversals(BinarySearchTree.Balancing balancing, String input, CountingKey[] keys) {
+        BinarySearchTree<CountingKey> tree = new BinarySearchTree<CountingKey>(balancing);
+        CountingKey.comparisons = 0;
+        long start = System.nanoTime();
+        for (CountingKey key : keys)
+            tree.insert(key);
+        report("insert", balancing, input, keys.length, start);
+        CountingKey.comparisons = 0;
+        start = System.nanoTime();
+        for (CountingKey key : keys)
+            tree.find(key);
+        report("find", balancing, input, keys.length, start);
+        CountingKey.comparisons = 0;
+        start = System.nanoTime();
+        for (CountingKey key : keys)
+            tree.delete(key);
+        report("delete", balancing, input, keys.length, start);
+    }
+
+    /**
+     * Prints one line of the report
+     * 
+     * @param operation The operation that was run
+     * @param balancing The balancing mode of the tree
+     * @param input     Name of the input order
+     * @param count     How many operations were run
+     * @param start     System.nanoTime() when they started
+     */
+    private static void report(String operation, BinarySearchTree.Balancing balancing, String input, int count,
+            long start) {
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("%-10s %5s %6s %10.1f %9.1f%n", operation, balancing, input,
+                (double) CountingKey.comparisons / count, (double) elapsed / count);
+    }
+
+    /**
+     * The keys 0 to n - 1 in increasing order
+     * 
+     * @param n The number of keys
+     * @return The keys
+     */
+    static CountingKey[] sorted(int n) {
+        CountingKey[] keys = new CountingKey[n];
+        for (int i = 0; i < n; i++)
+            keys[i] = new CountingKey(i);
+        return keys;
+    }
+
+    /**
+     * The keys 0 to n - 1 in random order
+     * 
+     * @param n      The number of keys
+     * @param random The source of randomness
+     * @return The keys
+     */
+    static CountingKey[] shuffled(int n, Random random) {
+        CountingKey[] keys = sorted(n);
+        for (int i = n - 1; i > 0; i--) {  // Fisher-Yates shuffle
+            int j = random.nextInt(i + 1);
+            CountingKey swap = keys[i];
+            keys[i] = keys[j];
+            keys[j] = swap;
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,306 @@
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Tree Metrics Counts what the single-element operations of a BinarySearchTree cost: how many finds, inserts and
+ * deletes ran, how many compareTo calls and node visits they made, how many rotations rebalancing took, and histograms
+ * of path lengths and latencies per operation. A tree only keeps metrics after enableMetrics(); until then the only
+ * cost is a null check per operation.
+ * 
+ * The counters are plain fields updated by the thread using the tree, like the tree itself. Reading them from another
+ * thread, through snapshot() or JMX, can see a count a few operations behind. Leaf depths are different: they walk the
+ * tree itself, which has no lock, so they are only safe to read while nothing is changing the tree.
+ * 
+ * @author Serena Jiao, yj5qe
+ */
+public class TreeMetrics implements TreeMetricsMBean {
+
+    /**
+     * The operations that are measured
+     */
+    public enum Operation {
+        FIND, INSERT, DELETE
+    }
+
+    /**
+     * Number of buckets in every histogram
+     */
+    static final int BUCKETS = 64;
+
+    /**
+     * The tree being measured, null for a snapshot
+     */
+    private final BinarySearchTree<?> tree;
+
+    /**
+     * Number of operations of each kind
+     */
+    private final long[] counts = new long[Operation.values().length];
+
+    /**
+     * Nodes visited by each kind of operation, exact where the histogram caps long paths at its last bucket
+     */
+    private final long[] pathTotals = new long[Operation.values().length];
+
+    /**
+     * Path length histogram of each kind of operation
+     */
+    private final long[][] pathLengths = new long[Operation.values().length][BUCKETS];
+
+    /**
+     * Latency histogram of each kind of operation
+     */
+    private final long[][] latencies = new long[Operation.values().length][BUCKETS];
+
+    /**
+     * Total compareTo calls
+     */
+    private long comparisons;
+
+    /**
+     * Total nodes visited
+     */
+    private long nodesVisited;
+
+    /**
+     * Total rotations
+     */
+    private long rotations;
+
+    /**
+     * The name this is registered under with JMX, or null
+     */
+    private ObjectName name;
+
+    /**
+     * Constructor
+     * 
+     * @param tree The tree to measure
+     */
+    TreeMetrics(BinarySearchTree<?> tree) {
+        this.tree = tree;
+    }
+
+    /**
+     * Records one operation
+     * 
+     * @param operation   What ran
+     * @param comparisons The compareTo calls it made
+     * @param visited     The nodes it visited
+     * @param nanos       How long it took
+     */
+    void record(Operation operation, int comparisons, int visited, long nanos) {
+        int kind = operation.ordinal();
+        counts[kind]++;
+        this.comparisons += comparisons;
+        nodesVisited += visited;
+        pathTotals[kind] += visited;
+        pathLengths[kind][Math.min(visited, BUCKETS - 1)]++;
+        latencies[kind][64 - Long.numberOfLeadingZeros(Math.max(nanos, 0))]++;
+    }
+
+    /**
+     * Records rotations made while rebalancing
+     * 
+     * @param count The number of rotations
+     */
+    void rotated(int count) {
+        rotations += count;
+    }
+
+    /**
+     * Number of operations of one kind
+     * 
+     * @param operation The kind of operation
+     * @return How many have run
+     */
+    public long count(Operation operation) {
+        return counts[operation.ordinal()];
+    }
+
+    /**
+     * Path length histogram of one kind of operation
+     * 
+     * @param operation The kind of operation
+     * @return Counts indexed by the number of nodes visited, the last bucket holding everything longer
+     */
+    public long[] pathLengths(Operation operation) {
+        return pathLengths[operation.ordinal()].clone();
+    }
+
+    /**
+     * Latency histogram of one kind of operation
+     * 
+     * @param operation The kind of operation
+     * @return Counts indexed by the bit length of the time in nanoseconds
+     */
+    public long[] latencies(Operation operation) {
+        return latencies[operation.ordinal()].clone();
+    }
+
+    /**
+     * Average number of nodes one kind of operation visited, counting paths longer than the histogram in full
+     * 
+     * @param operation The kind of operation
+     * @return The mean path length, 0 if none has run
+     */
+    public double meanPathLength(Operation operation) {
+        long count = counts[operation.ordinal()];
+        return count == 0 ? 0 : (double) pathTotals[operation.ordinal()] / count;
+    }
+
+    /**
+     * Copies the counters, so they can be read or compared later while the tree goes on
+     * 
+     * @return A copy that no longer changes and has no leaf depths
+     */
+    public TreeMetrics snapshot() {
+        TreeMetrics copy = new TreeMetrics(null);
+        System.arraycopy(counts, 0, copy.counts, 0, counts.length);
+        System.arraycopy(pathTotals, 0, copy.pathTotals, 0, pathTotals.length);
+        for (int i = 0; i < counts.length; i++) {
+            System.arraycopy(pathLengths[i], 0, copy.pathLengths[i], 0, BUCKETS);
+            System.arraycopy(latencies[i], 0, copy.latencies[i], 0, BUCKETS);
+        }
+        copy.comparisons = comparisons;
+        copy.nodesVisited = nodesVisited;
+        copy.rotations = rotations;
+        return copy;
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server, under BinarySearchTree:type=TreeMetrics,name=name
+     * 
+     * @param name The name to show for the tree
+     * @return True on success, false if the name is taken or can't be used
+     */
+    public boolean register(String name) {
+        if (this.name != null || tree == null)
+            return false;
+        try {
+            ObjectName objectName = new ObjectName("BinarySearchTree:type=TreeMetrics,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            this.name = objectName;
+            return true;
+        } catch (JMException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Removes these metrics from the platform MBean server
+     * 
+     * @return True if they were registered
+     */
+    public boolean unregister() {
+        if (name == null)
+            return false;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException e) {
+            // already gone
+        }
+        name = null;
+        return true;
+    }
+
+    @Override
+    public long getFinds() {
+        return count(Operation.FIND);
+    }
+
+    @Override
+    public long getInserts() {
+        return count(Operation.INSERT);
+    }
+
+    @Override
+    public long getDeletes() {
+        return count(Operation.DELETE);
+    }
+
+    @Override
+    public long getComparisons() {
+        return comparisons;
+    }
+
+    @Override
+    public long getNodesVisited() {
+        return nodesVisited;
+    }
+
+    @Override
+    public long getRotations() {
+        return rotations;
+    }
+
+    @Override
+    public long[] getFindPathLengths() {
+        return pathLengths(Operation.FIND);
+    }
+
+    @Override
+    public long[] getInsertPathLengths() {
+        return pathLengths(Operation.INSERT);
+    }
+
+    @Override
+    public long[] getDeletePathLengths() {
+        return pathLengths(Operation.DELETE);
+    }
+
+    @Override
+    public long[] getFindLatencies() {
+        return latencies(Operation.FIND);
+    }
+
+    @Override
+    public long[] getInsertLatencies() {
+        return latencies(Operation.INSERT);
+    }
+
+    @Override
+    public long[] getDeleteLatencies() {
+        return latencies(Operation.DELETE);
+    }
+
+    /**
+     * Depths of the leaves of the tree right now, found by walking the whole tree on the calling thread. Only safe while
+     * the tree is quiescent: a walk that races with an insert or delete may see a half rotated tree, and give wrong
+     * counts or throw. Read it from JMX only when the thread using the tree is idle, or call tree.leafDepths() on that
+     * thread instead.
+     * 
+     * @return Counts indexed by depth, the root being at depth 0, or null for a snapshot
+     */
+    @Override
+    public long[] getLeafDepths() {
+        return tree == null ? null : tree.leafDepths();
+    }
+
+    @Override
+    public void reset() {
+        Arrays.fill(counts, 0);
+        Arrays.fill(pathTotals, 0);
+        for (int i = 0; i < counts.length; i++) {
+            Arrays.fill(pathLengths[i], 0);
+            Arrays.fill(latencies[i], 0);
+        }
+        comparisons = 0;
+        nodesVisited = 0;
+        rotations = 0;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder();
+        for (Operation operation : Operation.values())
+            out.append(operation.name().toLowerCase()).append(' ').append(count(operation)).append(" ops, ")
+                    .append(String.format("%.1f", meanPathLength(operation))).append(" nodes/op\n");
+        out.append("comparisons ").append(comparisons).append(", nodes visited ").append(nodesVisited)
+                .append(", rotations ").append(rotations);
+        return out.toString();
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * Tree Metrics MBean What TreeMetrics shows through JMX. Histograms are arrays of counts: path lengths are indexed by
+ * the number of nodes visited, latencies by the bit length of the time in nanoseconds (bucket b holds times from
+ * 2^(b-1) to 2^b - 1), and leaf depths by depth.
+ * 
+ * @author Serena Jiao, yj5qe
+ */
+public interface TreeMetricsMBean {
+
+    /**
+     * Number of finds
+     * 
+     * @return The count
+     */
+    long getFinds();
+
+    /**
+     * Number of inserts
+     * 
+     * @return The count
+     */
+    long getInserts();
+
+    /**
+     * Number of deletes
+     * 
+     * @return The count
+     */
+    long getDeletes();
+
+    /**
+     * Total compareTo calls made by the operations
+     * 
+     * @return The count
+     */
+    long getComparisons();
+
+    /**
+     * Total nodes visited by the operations
+     * 
+     * @return The count
+     */
+    long getNodesVisited();
+
+    /**
+     * Total rotations made while rebalancing
+     * 
+     * @return The count
+     */
+    long getRotations();
+
+    /**
+     * Path length histogram of find
+     * 
+     * @return The histogram
+     */
+    long[] getFindPathLengths();
+
+    /**
+     * Path length histogram of insert
+     * 
+     * @return The histogram
+     */
+    long[] getInsertPathLengths();
+
+    /**
+     * Path length histogram of delete
+     * 
+     * @return The histogram
+     */
+    long[] getDeletePathLengths();
+
+    /**
+     * Latency histogram of find
+     * 
+     * @return The histogram
+     */
+    long[] getFindLatencies();
+
+    /**
+     * Latency histogram of insert
+     * 
+     * @return The histogram
+     */
+    long[] getInsertLatencies();
+
+    /**
+     * Latency histogram of delete
+     * 
+     * @return The histogram
+     */
+    long[] getDeleteLatencies();
+
+    /**
+     * Leaf depth histogram of the tree as it is now, walked on the calling thread, so only while nothing changes the tree
+     * 
+     * @return The histogram
+     */
+    long[] getLeafDepths();
+
+    /**
+     * Sets every counter back to zero
+     */
+    void reset();
+}
@@ -1,3 +1,9 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.function.ToLongFunction;
 
 /**
  * Binary Tree Node Tree node that has two children: left and right
@@ -22,6 +28,49 @@ public class TreeNode<T extends Comparable<T>> {
      */
     private T data;
 
+    /**
+     * Height of the subtree rooted at this node, kept up to date by every method that changes the shape below it
+     */
+    private int height;
+
+    /**
+     * Number of elements in the subtree rooted at this node, kept up to date together with the height. Tombstones are
+     * not counted.
+     */
+    private int size;
+
+    /**
+     * Whether this node is a tombstone: its element was deleted lazily and the node only stays to keep the shape until
+     * it is unlinked
+     */
+    private boolean deleted;
+
+    /**
+     * The hash of the subtree rooted at this node, or null if no hash has been asked for since the node was made. Only
+     * trees that call rootHash, rangeHash or diff pay for subtree hashes: for the others this is a reference that stays
+     * null and fits in the padding after the fields above, so a node takes no more memory than it did without hashes.
+     */
+    private SubtreeHash hashed;
+
+    /**
+     * Hash of the elements of a subtree, kept apart from the node so trees that never hash don't carry it
+     */
+    private static final class SubtreeHash {
+
+        /**
+         * Sum of the hashes of the elements in the subtree, as given by with. Being a sum, it depends only on which
+         * elements the subtree holds and not on its shape.
+         */
+        long sum;
+
+        /**
+         * The element hasher sum was worked out with, or null if it is out of date. A change below a node only clears
+         * this, together with updating the size, and the sum is worked out again the next time it is asked for, so
+         * keeping hashes costs the update path next to nothing.
+         */
+        ToLongFunction<?> with;
+    }
+
     /**
      * Default Constructor Creates a binary tree node with null data and null children
      */
@@ -49,6 +98,7 @@ public class TreeNode<T extends Comparable<T>> {
         data = theData;
         left = leftChild;
         right = rightChild;
+        update();  // the children are already built, so the height can be taken from them
     }
 
     /**
@@ -67,6 +117,7 @@ public class TreeNode<T extends Comparable<T>> {
      */
     public void setLeft(TreeNode<T> left) {
         this.left = left;
+        update();
     }
 
     /**
@@ -85,6 +136,7 @@ public class TreeNode<T extends Comparable<T>> {
      */
     public void setRight(TreeNode<T> right) {
         this.right = right;
+        update();
     }
 
     /**
@@ -103,44 +155,53 @@ public class TreeNode<T extends Comparable<T>> {
      */
     public void setData(T data) {
         this.data = data;
+        update();  // the subtree hash covers the data too
+    }
+
+    /**
+     * Check if this node is a tombstone
+     * 
+     * @return True if its element has been deleted lazily
+     */
+    boolean isDeleted() {
+        return deleted;
     }
 
     /**
-     * The method will return an int that represents the size of the total tree.
+     * Marks this node as a tombstone, or brings its element back, and refreshes its size
+     * 
+     * @param deleted True to mark the element as deleted
+     */
+    void setDeleted(boolean deleted) {
+        this.deleted = deleted;
+        update();
+    }
+
+    /**
+     * The method will return an int that represents the size of the total tree. Like the height, the size is stored at
+     * every node, so this no longer walks the tree. Tombstones are left out.
      * 
      * @return the size of the BST
      */
     public int size() {
-        int lsize = 0;   // for calculating the left elements
-        int rsize = 0;   // for calculating the right elements
-        if (left != null)    // if the left class is not null
-            lsize = lsize + left.size();   // call the method recursively
-        if (right != null)
-            rsize = rsize + right.size();
-        return lsize + rsize + 1;  // add one because we need to include the root node
+        return size;
     }
 
     /**
-     * The method will return an int that represents the height of the total tree.
+     * The method will return an int that represents the height of the total tree. The height is stored at every node and
+     * updated on the way back up from each insert and delete, so this no longer walks the tree. Trees that are rewired
+     * by hand through setLeft/setRight only refresh the node that was changed, not its ancestors.
      * 
      * @return the height of the BST
      */
     public int height() {
-        int lheight = 0;   // lheight holds the height for the left subtree
-        int rheight = 0;   // rheight holds the height for the right subtree
-        if (left != null)  // When the tree is not empty
-            lheight = left.height();  // call the method recursively
-        if (right != null)
-            rheight = right.height();
-        if (lheight > rheight)  // find out which side is "taller" and use the number of the taller side
-            return lheight + 1;  // add one for the root node
-        else
-            return rheight + 1;
+        return height;
     }
 
     /**
      * Determines if the value val appears within the Binary Search Tree. It should return true if it exists, false
-     * otherwise.
+     * otherwise. Walks down with a loop rather than recursion, so even a tree that has degraded into a list cannot
+     * overflow the stack.
      * 
      * @param val the value that we are finding
      * @return a boolean: whether or not the value is found in the BST
@@ -148,104 +209,277 @@ public class TreeNode<T extends Comparable<T>> {
     public boolean find(T val) {
         if (val == null)   // check if the value is null
             return false;
-        int comp = data.compareTo(val);  // compare the value to the root node
-        if (comp == 0) {  // if the value == root node, we have found it!
-            return true;
-        }
-        // if there's no child trees, the value doesn't exist
-        if (left == null && right == null)
-            return false;
-        // if the root node is null, return false
-        if (data == null)
-            return false;
-        // When the value is smaller than the root node, go to the left side
-        if (comp > 0) {
-            {
-                if (left == null)   // if it is a leaf node
-                    return false;   // return false
-            }
-            return left.find(val);
-        }
-        // When the value is smaller than the root node, go to the right side
-        if (comp < 0) {
-            {
-                if (right == null)
-                    return false;
-            }
-            return right.find(val);
+        TreeNode<T> node = this;
+        while (node != null) {
+            int comp = node.data.compareTo(val);  // compare the value to the current node
+            if (comp == 0)  // if the value == current node, we have found it, unless it is a tombstone
+                return !node.deleted;
+            // smaller values are on the left side, larger ones on the right side
+            node = comp > 0 ? node.left : node.right;
         }
-        return false;
+        return false;  // fell off the bottom of the tree
     }
 
     /**
-     * Inserts the value val at the appropriate place in the tree. Return true if insert succeeded, false otherwise.
+     * Inserts the value val at the appropriate place in the tree. Return true if insert succeeded, false otherwise. This
+     * node stays the root of its subtree, the work is done by the loop in BinarySearchTree.insert.
      * 
      * @param val the value we're inserting
      * @return a boolean whether or not the insertion is successful
      */
     public boolean insert(T val) {
-        // Decide which side the value should go
-        int comp = data.compareTo(val);
-        if (comp > 0) {  // value is smaller, goes to the left side
-            if (left == null) {  // if the left node doesn't exist
-                left = new TreeNode<T>(val);  // make a new node
-                return true;
-            } else   // else, keep searching
-                return left.insert(val);
-        }
-        if (comp < 0) { // value is larger, goes to the right side
-            if (right == null) { // if the right node doesn't exist
-                right = new TreeNode<T>(val);  // make a new node
-                return true;
-            } else  // else, keep searching
-                return right.insert(val);
-        }
-        return false;
+        return new BinarySearchTree<T>(this).insert(val);
     }
 
     /**
-     * Delete an element from the tree Deletes val from the tree if it appears, returning true on success and false
-     * otherwise
+     * Delete an element from the tree Deletes val from the tree if it appears. The work is done by the loop in
+     * BinarySearchTree.delete.
      * 
      * @param val The value to delete
-     * @return True on success, false otherwise
+     * @return The root of this subtree after the delete, which is null if it became empty
      */
     public TreeNode<T> delete(T val) {
-        if (val == null)
-            return this;
-        // When the root node is the one that is deleted
-        if (data.compareTo(val) == 0) {
-            // when the root node is the only node
-            if (right == null && left == null) {
-                return null;   // the tree becomes null
-            }
-            // when the left node is null
-            if (right != null && left == null) {
-                return right;
+        BinarySearchTree<T> tree = new BinarySearchTree<T>(this);
+        tree.delete(val);
+        return tree.getRoot();
+    }
+
+    /**
+     * Recomputes the height and size of this node from its children, and marks its hash as out of date
+     */
+    void update() {
+        height = Math.max(heightOf(left), heightOf(right)) + 1;
+        size = sizeOf(left) + sizeOf(right) + (deleted ? 0 : 1);
+        if (hashed != null)
+            hashed.with = null;
+    }
+
+    /**
+     * Restores the AVL condition at this node, assuming both subtrees already satisfy it and differ in height by at most
+     * two.
+     * 
+     * @return the root of this subtree after at most two rotations
+     */
+    TreeNode<T> rebalance() {
+        update();
+        int balance = heightOf(left) - heightOf(right);
+        if (balance > 1) {  // left side is too tall
+            if (heightOf(left.left) < heightOf(left.right))
+                left = left.rotateLeft();  // left-right case, turn it into left-left first
+            return rotateRight();
+        }
+        if (balance < -1) {  // right side is too tall
+            if (heightOf(right.right) < heightOf(right.left))
+                right = right.rotateRight();  // right-left case
+            return rotateLeft();
+        }
+        return this;
+    }
+
+    /**
+     * Rotates this node down to the right, lifting its left child into its place
+     * 
+     * @return the new root of this subtree
+     */
+    TreeNode<T> rotateRight() {
+        TreeNode<T> pivot = left;
+        left = pivot.right;
+        pivot.right = this;
+        update();  // this node is now below the pivot, so it has to be updated first
+        pivot.update();
+        return pivot;
+    }
+
+    /**
+     * Rotates this node down to the left, lifting its right child into its place
+     * 
+     * @return the new root of this subtree
+     */
+    TreeNode<T> rotateLeft() {
+        TreeNode<T> pivot = right;
+        right = pivot.left;
+        pivot.left = this;
+        update();
+        pivot.update();
+        return pivot;
+    }
+
+    /**
+     * Height of a possibly empty subtree
+     * 
+     * @param node The root of the subtree, or null
+     * @return the height of the subtree, 0 when it is empty
+     */
+    static int heightOf(TreeNode<?> node) {
+        return node == null ? 0 : node.height;
+    }
+
+    /**
+     * Size of a possibly empty subtree
+     * 
+     * @param node The root of the subtree, or null
+     * @return the number of elements in the subtree, 0 when it is empty
+     */
+    static int sizeOf(TreeNode<?> node) {
+        return node == null ? 0 : node.size;
+    }
+
+    /**
+     * Hash of a possibly empty subtree
+     * 
+     * @param node   The root of the subtree, or null
+     * @param hasher How to hash one element
+     * @return the sum of the hashes of the elements in the subtree, 0 when it is empty
+     */
+    static <T extends Comparable<T>> long hashOf(TreeNode<T> node, ToLongFunction<? super T> hasher) {
+        if (node == null)
+            return 0;
+        if (!hashedWith(node, hasher))
+            node.rehash(hasher);
+        return node.hashed.sum;
+    }
+
+    /**
+     * Whether a subtree's hash is up to date for a hasher
+     * 
+     * @param node   The root of the subtree, or null
+     * @param hasher How to hash one element
+     * @return True if the subtree is empty or its hash was worked out with hasher since it last changed
+     */
+    private static boolean hashedWith(TreeNode<?> node, ToLongFunction<?> hasher) {
+        return node == null || (node.hashed != null && node.hashed.with == hasher);
+    }
+
+    /**
+     * Works out the hashes of the out of date nodes in this subtree, children first. Every change updates the whole path
+     * above it, so the ancestors of an out of date node are out of date too: this visits only the nodes on the paths
+     * changed since the hashes were last asked for, and keeps its own stack instead of recursing.
+     * 
+     * @param hasher How to hash one element
+     */
+    @SuppressWarnings("unchecked")
+    private void rehash(ToLongFunction<? super T> hasher) {
+        TreeNode<T>[] stack = (TreeNode<T>[]) new TreeNode<?>[height];
+        int top = 0;
+        stack[top++] = this;
+        while (top > 0) {
+            TreeNode<T> node = stack[top - 1];
+            TreeNode<T> next = !hashedWith(node.left, hasher) ? node.left
+                    : !hashedWith(node.right, hasher) ? node.right : null;
+            if (next != null) {  // finish the children first
+                if (top == stack.length)
+                    stack = Arrays.copyOf(stack, stack.length * 2 + 1);  // only if the stored heights are stale
+                stack[top++] = next;
+                continue;
             }
-            // when the right node is null
-            if (left != null && right == null) {
-                return left;
+            if (node.hashed == null)
+                node.hashed = new SubtreeHash();
+            node.hashed.sum = hashOf(node.left, hasher) + hashOf(node.right, hasher)
+                    + (node.deleted || node.data == null ? 0 : hasher.applyAsLong(node.data));
+            node.hashed.with = hasher;
+            stack[--top] = null;
+        }
+    }
+
+    /**
+     * The element hasher trees use unless given another one: SipHash (with its default key) of the contents of Strings,
+     * boxed numbers, Characters and Booleans. Unlike their hashCodes, two different elements get the same hash only by
+     * chance, about 2^-64. Other element types need a hasher of their own, see BinarySearchTree.setHasher.
+     * 
+     * @param data The element
+     * @return The hash of the element
+     * @throws IllegalStateException If the element is of some other type
+     */
+    static long elementHash(Object data) {
+        if (data instanceof String) {
+            byte[] bytes = ((String) data).getBytes(StandardCharsets.UTF_16LE);
+            return SipHash.hash(SipHash.KEY0, SipHash.KEY1, bytes, bytes.length);
+        }
+        long bits;
+        if (data instanceof Long || data instanceof Integer || data instanceof Short || data instanceof Byte)
+            bits = ((Number) data).longValue();
+        else if (data instanceof Double)
+            bits = Double.doubleToLongBits((Double) data);
+        else if (data instanceof Float)
+            bits = Float.floatToIntBits((Float) data);
+        else if (data instanceof Character)
+            bits = (Character) data;
+        else if (data instanceof Boolean)
+            bits = (Boolean) data ? 1 : 0;
+        else
+            throw new IllegalStateException(
+                    "no content hash for " + data.getClass().getName() + ", give the tree a hasher");
+        return SipHash.hash(SipHash.KEY0, SipHash.KEY1, bits);
+    }
+
+    /**
+     * Builds the shortest possible tree out of sorted, distinct values, putting the middle value at the top of every
+     * subtree. Every node is created once, after its children, so this is O(n). The recursion is replaced by explicit
+     * stacks that never hold more than a few entries per level of the result.
+     * 
+     * @param sorted The values in strictly increasing order
+     * @param from   Index of the first value to use
+     * @param to     Index one past the last value to use
+     * @return The root of the new tree, or null if the range is empty
+     */
+    static <T extends Comparable<T>> TreeNode<T> buildBalanced(T[] sorted, int from, int to) {
+        if (from >= to)
+            return null;
+        int levels = 33 - Integer.numberOfLeadingZeros(to - from);  // the height of the result plus one
+        int[] low = new int[3 * levels];   // pending ranges of the array, [low, high)
+        int[] high = new int[3 * levels];
+        boolean[] ready = new boolean[3 * levels];  // true once both halves of the range have been built
+        @SuppressWarnings("unchecked")
+        TreeNode<T>[] built = (TreeNode<T>[]) new TreeNode<?>[2 * levels];  // finished subtrees waiting for a parent
+        low[0] = from;
+        high[0] = to;
+        int frames = 1;
+        int done = 0;
+        while (frames > 0) {
+            frames--;
+            int lo = low[frames];
+            int hi = high[frames];
+            if (lo >= hi) {  // empty range, an empty subtree
+                built[done++] = null;
+                continue;
             }
-            // when both sides have child, we find the next largest in the right subtree
-            // this will replace the node
-            TreeNode<T> replace = right;
-            while (replace.left != null) {
-                // find the element that is the closest to the root node.
-                // To do that, we need to find the lowest left node
-                replace = replace.left;
+            int mid = (lo + hi) >>> 1;
+            if (ready[frames]) {  // both halves are on top of the built stack, right above left
+                TreeNode<T> right = built[--done];
+                TreeNode<T> left = built[--done];
+                built[done++] = new TreeNode<T>(sorted[mid], left, right);
+                ready[frames] = false;
+                continue;
             }
-            // delete the node before we move that to the root node
-            delete(replace.data);
-            data = replace.data; // set it as the new node
-            return this;
-        } else if (val.compareTo(data) < 0) {
-            left = left.delete(val); // call the delete method recursively
-            return this;
-        } else {
-            right = right.delete(val); // call the delete method recursively
-            return this;
+            // come back to this range once the left half and then the right half are built
+            ready[frames] = true;
+            frames++;
+            low[frames] = mid + 1;
+            high[frames] = hi;
+            frames++;
+            low[frames] = lo;
+            high[frames] = mid;
+            frames++;
         }
+        return built[0];
+    }
+
+    /**
+     * Builds the same shape as buildBalanced(T[], int, int) from values handed over one at a time in order, so the
+     * values never have to be in an array. Each subtree is built left to right as its values arrive; the recursion is
+     * only as deep as the result is tall.
+     * 
+     * @param sorted The values in strictly increasing order, at least count of them
+     * @param count  The number of values to take
+     * @return The root of the new tree, or null if count is 0
+     */
+    static <T extends Comparable<T>> TreeNode<T> buildBalanced(Iterator<? extends T> sorted, int count) {
+        if (count <= 0)
+            return null;
+        TreeNode<T> left = buildBalanced(sorted, count / 2);  // the middle of count values has count / 2 before it
+        T middle = sorted.next();
+        TreeNode<T> right = buildBalanced(sorted, count - count / 2 - 1);
+        return new TreeNode<T>(middle, left, right);
     }
 
     /**
@@ -255,13 +489,13 @@ public class TreeNode<T extends Comparable<T>> {
      * @return a string that traverses the tree from the smallest to the largest
      */
     public String inOrder() {
-        String in_order_left = "";
-        String in_order_right = "";
-        if (left != null)
-            in_order_left = in_order_left + left.inOrder();
-        if (right != null)
-            in_order_right = in_order_right + right.inOrder();
-        return in_order_left + "(" + data + ")" + in_order_right;
+        StringBuilder out = new StringBuilder(size * 4);
+        try {
+            inOrder(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);  // a StringBuilder never throws
+        }
+        return out.toString();
     }
 
     /**
@@ -271,13 +505,80 @@ public class TreeNode<T extends Comparable<T>> {
      * @return a string that traverses the tree following the post order
      */
     public String postOrder() {
-        String in_order_left = "";
-        String in_order_right = "";
-        if (left != null)
-            in_order_left = in_order_left + left.postOrder();
-        if (right != null)
-            in_order_right = in_order_right + right.postOrder();
-        return in_order_left + in_order_right + "(" + data + ")";
+        StringBuilder out = new StringBuilder(size * 4);
+        try {
+            postOrder(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);  // a StringBuilder never throws
+        }
+        return out.toString();
+    }
+
+    /**
+     * Writes the in order traversal, in the same "(a)(b)(c)" format as inOrder(), straight into out. Each node is written
+     * exactly once and the walk keeps its own stack of at most height() nodes instead of recursing, so this is linear in
+     * the size of the output and safe on trees of any shape.
+     * 
+     * @param out Where to write the traversal, such as a StringBuilder or a Writer
+     * @throws IOException If out fails to accept the text
+     */
+    public void inOrder(Appendable out) throws IOException {
+        TreeNode<?>[] stack = new TreeNode<?>[height];
+        int top = 0;
+        TreeNode<?> node = this;
+        while (node != null || top > 0) {
+            while (node != null) {  // go as far left as possible, remembering the way back
+                if (top == stack.length)
+                    stack = Arrays.copyOf(stack, stack.length * 2 + 1);  // only if the stored heights are stale
+                stack[top++] = node;
+                node = node.left;
+            }
+            node = stack[--top];  // everything smaller has been written, so this one is next
+            node.appendTo(out);
+            node = node.right;
+        }
+    }
+
+    /**
+     * Writes the post order traversal, in the same "(a)(b)(c)" format as postOrder(), straight into out. Like
+     * inOrder(Appendable) this keeps its own stack of at most height() nodes and writes each node once.
+     * 
+     * @param out Where to write the traversal, such as a StringBuilder or a Writer
+     * @throws IOException If out fails to accept the text
+     */
+    public void postOrder(Appendable out) throws IOException {
+        TreeNode<?>[] stack = new TreeNode<?>[height];
+        int top = 0;
+        TreeNode<?> node = this;
+        TreeNode<?> last = null;  // the node written most recently
+        while (node != null || top > 0) {
+            if (node != null) {  // go as far left as possible, remembering the way back
+                if (top == stack.length)
+                    stack = Arrays.copyOf(stack, stack.length * 2 + 1);
+                stack[top++] = node;
+                node = node.left;
+            } else {
+                TreeNode<?> parent = stack[top - 1];
+                if (parent.right != null && parent.right != last) {
+                    node = parent.right;  // the right subtree still has to be written
+                } else {  // both subtrees are done, so the parent comes last
+                    parent.appendTo(out);
+                    last = parent;
+                    top--;
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes this node's data in the "(data)" format used by the traversals, or nothing for a tombstone
+     * 
+     * @param out Where to write the data
+     * @throws IOException If out fails to accept the text
+     */
+    private void appendTo(Appendable out) throws IOException {
+        if (!deleted)
+            out.append('(').append(String.valueOf(data)).append(')');
     }
 
     /**
@@ -0,0 +1,146 @@
+import java.util.Comparator;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Tree Spliterator Covers one subtree in order, optionally followed by a single extra node. Splitting hands the left
+ * subtree and the root to a new spliterator and keeps the right subtree, so every split lands on a subtree boundary and,
+ * thanks to the sizes stored in each node, both halves know their exact size. That is what lets parallel streams divide a
+ * tree across cores without first copying it into a list. The tree must not be changed while a spliterator is in use.
+ *
+ * A root without a left child, which is every node of a plain tree built from sorted input, is split along its right
+ * spine instead: the new spliterator takes the subtree up to a fence, the spine node below which about half of the
+ * elements lie, and this one keeps the fence's subtree. Everything before the fence is a prefix of the subtree in order,
+ * so the new spliterator simply stops after as many elements as the two sizes differ by.
+ * 
+ * @author Serena Jiao, yj5qe
+ * @param <T> The type of data stored in the tree
+ */
+class TreeSpliterator<T extends Comparable<T>> implements Spliterator<T> {
+
+    /**
+     * The subtree still to be covered, or null once the walk has started or if it is empty
+     */
+    private TreeNode<T> subtree;
+
+    /**
+     * A node on the right spine of the subtree whose own subtree is left out, or null to cover the whole subtree
+     */
+    private TreeNode<T> fence;
+
+    /**
+     * A node that comes after every element of the subtree, or null if there is none
+     */
+    private TreeNode<T> tail;
+
+    /**
+     * The in order walk of the subtree, created on the first call to tryAdvance
+     */
+    private InOrderIterator<T> walk;
+
+    /**
+     * Number of elements of the subtree, less the fence's, not yet handed out
+     */
+    private long inSubtree;
+
+    /**
+     * Number of elements not yet handed out
+     */
+    private long remaining;
+
+    /**
+     * Constructor
+     * 
+     * @param subtree The subtree to cover, may be null
+     * @param tail    A node that comes after the whole subtree, may be null
+     */
+    TreeSpliterator(TreeNode<T> subtree, TreeNode<T> tail) {
+        this(subtree, null, tail);
+    }
+
+    /**
+     * Constructor
+     * 
+     * @param subtree The subtree to cover, may be null
+     * @param fence   A node on the right spine of subtree where the walk stops, or null to walk all of it
+     * @param tail    A node that comes after the whole subtree, may be null
+     */
+    private TreeSpliterator(TreeNode<T> subtree, TreeNode<T> fence, TreeNode<T> tail) {
+        this.inSubtree = TreeNode.sizeOf(subtree) - TreeNode.sizeOf(fence);
+        this.subtree = subtree == fence ? null : subtree;
+        this.fence = subtree == fence ? null : fence;
+        this.tail = tail == null || tail.isDeleted() ? null : tail;  // a tombstone is not handed out
+        this.remaining = inSubtree + (this.tail == null ? 0 : 1);
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        if (subtree != null) {  // first step, start walking the subtree
+            walk = new InOrderIterator<T>(subtree);
+            subtree = null;
+            fence = null;
+        }
+        if (inSubtree > 0) {  // the walk stops short of the fence by counting, not by looking for it
+            inSubtree--;
+            remaining--;
+            action.accept(walk.next());
+            return true;
+        }
+        if (tail != null) {
+            TreeNode<T> last = tail;
+            tail = null;
+            remaining--;
+            action.accept(last.getData());
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super T> action) {
+        while (tryAdvance(action))
+            ;
+    }
+
+    @Override
+    public Spliterator<T> trySplit() {
+        // only an untouched subtree of at least two elements can be split
+        if (subtree == null || inSubtree < 2)
+            return null;
+        TreeSpliterator<T> prefix;
+        if (subtree.getLeft() != null) {
+            prefix = new TreeSpliterator<T>(subtree.getLeft(), null, subtree);
+            subtree = subtree.getRight();
+        } else {
+            // down the right spine to the first node with at most half of the elements left, short of the fence
+            long end = TreeNode.sizeOf(fence);
+            TreeNode<T> middle = subtree.getRight();
+            while (middle.getRight() != fence && TreeNode.sizeOf(middle) - end > inSubtree / 2)
+                middle = middle.getRight();
+            prefix = new TreeSpliterator<T>(subtree, middle, null);
+            subtree = middle;
+        }
+        inSubtree -= prefix.remaining;
+        remaining -= prefix.remaining;
+        if (subtree == fence) {  // nothing of the subtree is left
+            subtree = null;
+            fence = null;
+        }
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        return remaining;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | SORTED | DISTINCT | NONNULL | SIZED | SUBSIZED;
+    }
+
+    @Override
+    public Comparator<? super T> getComparator() {
+        return null;  // natural order
+    }
+}
@@ -0,0 +1,55 @@
+package bst.jmh;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bst.BinarySearchTree;
+
+/**
+ * Build Benchmark buildFromList on the keys of the tree, in their insertion order
+ *
+ * @author Serena Jiao, yj5qe
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+@State(Scope.Thread)
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class BuildBenchmark {
+
+    /**
+     * The keys to build from
+     */
+    private ArrayList keys;
+
+    /**
+     * Copies the keys into a list once
+     *
+     * @param state The keys
+     */
+    @Setup(Level.Trial)
+    public void setUp(TreeState state) {
+        keys = state.list();
+    }
+
+    @Benchmark
+    public BinarySearchTree buildFromList(TreeState state) {
+        BinarySearchTree tree = new BinarySearchTree(BinarySearchTree.Balancing.valueOf(state.balancing));
+        tree.buildFromList(keys);
+        return tree;
+    }
+}
@@ -0,0 +1,45 @@
+package bst.jmh;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Main Runs the benchmarks like JMH's own main, but with the GC profiler on unless other profilers are asked for, so
+ * every report shows the allocation rate of each operation next to its time
+ *
+ * @author Serena Jiao, yj5qe
+ */
+public class Main {
+
+    /**
+     * Main method
+     *
+     * @param args JMH command line options
+     * @throws Exception If JMH fails
+     */
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions options;
+        try {
+            options = new CommandLineOptions(args);
+        } catch (CommandLineOptionException e) {
+            org.openjdk.jmh.Main.main(args);  // prints the error and the usage
+            return;
+        }
+        if (options.shouldHelp() || options.shouldList() || options.shouldListWithParams()
+                || options.shouldListProfilers() || options.shouldListResultFormats()
+                || !options.getProfilers().isEmpty()) {
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+        try {
+            new Runner(new OptionsBuilder().parent(options).addProfiler(GCProfiler.class).build()).run();
+        } catch (RunnerException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+}
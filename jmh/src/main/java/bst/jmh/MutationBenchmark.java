@@ -0,0 +1,77 @@
+package bst.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Mutation Benchmark Insert and delete. Each iteration makes BATCH changes, timed as one shot, and the teardown undoes
+ * them so every iteration starts from a tree of the same size. Scores are per batch.
+ *
+ * @author Serena Jiao, yj5qe
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, batchSize = MutationBenchmark.BATCH)
+@Measurement(iterations = 10, batchSize = MutationBenchmark.BATCH)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+@State(Scope.Thread)
+@SuppressWarnings("unchecked")
+public class MutationBenchmark {
+
+    /**
+     * Changes per iteration
+     */
+    static final int BATCH = 1000;
+
+    /**
+     * Number of keys inserted or deleted in this iteration
+     */
+    private int inserted;
+
+    /**
+     * Number of keys deleted in this iteration
+     */
+    private int deleted;
+
+    /**
+     * Where in the key arrays the next iteration starts
+     */
+    private int start;
+
+    @Benchmark
+    public boolean insert(TreeState state) {
+        return state.tree.insert(state.absent[(start + inserted++) % state.size]);
+    }
+
+    @Benchmark
+    public boolean delete(TreeState state) {
+        return state.tree.delete(state.shuffled[(start + deleted++) % state.size]);
+    }
+
+    /**
+     * Takes out the keys the iteration inserted and puts back the ones it deleted
+     *
+     * @param state The tree
+     */
+    @TearDown(Level.Iteration)
+    public void undo(TreeState state) {
+        for (int i = 0; i < inserted; i++)
+            state.tree.delete(state.absent[(start + i) % state.size]);
+        for (int i = 0; i < deleted; i++)
+            state.tree.insert(state.shuffled[(start + i) % state.size]);
+        start = (start + Math.max(inserted, deleted)) % state.size;
+        inserted = 0;
+        deleted = 0;
+    }
+}
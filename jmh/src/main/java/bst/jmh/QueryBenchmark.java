@@ -0,0 +1,66 @@
+package bst.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Query Benchmark The operations that leave the tree as it is: find of keys that are and are not there, size, height,
+ * inOrder and postOrder
+ *
+ * @author Serena Jiao, yj5qe
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+@State(Scope.Thread)
+@SuppressWarnings("unchecked")
+public class QueryBenchmark {
+
+    /**
+     * Position in the key arrays, moving on with every find
+     */
+    private int next;
+
+    @Benchmark
+    public boolean findPresent(TreeState state) {
+        next = next + 1 == state.size ? 0 : next + 1;
+        return state.tree.find(state.shuffled[next]);
+    }
+
+    @Benchmark
+    public boolean findAbsent(TreeState state) {
+        next = next + 1 == state.size ? 0 : next + 1;
+        return state.tree.find(state.absent[next]);
+    }
+
+    @Benchmark
+    public int size(TreeState state) {
+        return state.tree.size();
+    }
+
+    @Benchmark
+    public int height(TreeState state) {
+        return state.tree.height();
+    }
+
+    @Benchmark
+    public String inOrder(TreeState state) {
+        return state.tree.inOrder();
+    }
+
+    @Benchmark
+    public String postOrder(TreeState state) {
+        return state.tree.postOrder();
+    }
+}
@@ -0,0 +1,160 @@
+package bst.jmh;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import bst.BinarySearchTree;
+import bst.TreeNode;
+
+/**
+ * Tree State A tree of the given size, key type, insertion order and balancing mode, with the keys it holds and keys
+ * that fall in between them. Keys are raw Comparables so one state covers both key types.
+ *
+ * @author Serena Jiao, yj5qe
+ */
+@State(Scope.Benchmark)
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class TreeState {
+
+    /**
+     * Number of keys in the tree
+     */
+    @Param({ "1000", "10000", "100000", "1000000", "10000000" })
+    public int size;
+
+    /**
+     * Integer or String
+     */
+    @Param({ "Integer", "String" })
+    public String keyType;
+
+    /**
+     * The order the keys are inserted in: random, sorted, or zigzag (smallest, largest, second smallest, ...)
+     */
+    @Param({ "random", "sorted", "zigzag" })
+    public String order;
+
+    /**
+     * The balancing mode of the tree
+     */
+    @Param({ "AVL", "NONE" })
+    public String balancing;
+
+    /**
+     * The keys in the tree, in insertion order
+     */
+    public Comparable[] present;
+
+    /**
+     * Keys that sit between the ones in the tree, in random order
+     */
+    public Comparable[] absent;
+
+    /**
+     * The keys in the tree again, in random order
+     */
+    public Comparable[] shuffled;
+
+    /**
+     * The tree itself
+     */
+    public BinarySearchTree tree;
+
+    /**
+     * Builds the keys and the tree
+     */
+    @Setup(Level.Trial)
+    public void build() {
+        Random random = new Random(42);
+        Comparable[] sorted = new Comparable[size];
+        absent = new Comparable[size];
+        for (int i = 0; i < size; i++) {  // every other key goes in, the ones in between stay out
+            sorted[i] = key(2L * i + 1);
+            absent[i] = key(2L * i);
+        }
+        present = arrange(sorted, random);
+        shuffled = sorted.clone();
+        Collections.shuffle(Arrays.asList(shuffled), random);
+        Collections.shuffle(Arrays.asList(absent), random);
+        tree = newTree();
+    }
+
+    /**
+     * A new tree holding the present keys, inserted in order
+     *
+     * @return The tree
+     */
+    public BinarySearchTree newTree() {
+        BinarySearchTree result = new BinarySearchTree(BinarySearchTree.Balancing.valueOf(balancing));
+        if (result.getBalancing() == BinarySearchTree.Balancing.NONE && !order.equals("random")) {
+            // sorted and zigzag input hangs every key below the one before it, so build that chain directly instead of
+            // spending quadratic time inserting it
+            TreeNode below = null;
+            for (int i = size - 1; i >= 0; i--) {
+                boolean belowIsLarger = below != null && below.getData().compareTo(present[i]) > 0;
+                below = new TreeNode(present[i], belowIsLarger ? null : below, belowIsLarger ? below : null);
+            }
+            result.setRoot(below);
+            return result;
+        }
+        for (Comparable key : present)
+            result.insert(key);
+        return result;
+    }
+
+    /**
+     * The present keys as a list, in insertion order
+     *
+     * @return A new list of the keys
+     */
+    public ArrayList list() {
+        return new ArrayList(Arrays.asList(present));
+    }
+
+    /**
+     * Puts sorted keys into the insertion order
+     *
+     * @param sorted The keys in increasing order
+     * @param random Where random order comes from
+     * @return The keys in insertion order
+     */
+    private Comparable[] arrange(Comparable[] sorted, Random random) {
+        if (order.equals("sorted"))
+            return sorted.clone();
+        if (order.equals("random")) {
+            List<Comparable> keys = new ArrayList<Comparable>(Arrays.asList(sorted));
+            Collections.shuffle(keys, random);
+            return keys.toArray(new Comparable[0]);
+        }
+        Comparable[] zigzag = new Comparable[sorted.length];
+        int lo = 0;
+        int hi = sorted.length - 1;
+        for (int i = 0; i < zigzag.length; i++)
+            zigzag[i] = i % 2 == 0 ? sorted[lo++] : sorted[hi--];
+        return zigzag;
+    }
+
+    /**
+     * The key for a number, keeping the order of the numbers
+     *
+     * @param value The number
+     * @return An Integer, or a String of fixed width hex digits so that string order is number order
+     */
+    private Comparable key(long value) {
+        if (keyType.equals("Integer"))
+            return Integer.valueOf((int) value);
+        char[] digits = new char[8];
+        for (int i = digits.length - 1; i >= 0; i--, value >>>= 4)
+            digits[i] = Character.forDigit((int) (value & 15), 16);
+        return new String(digits);
+    }
+}